@@ -4,25 +4,33 @@ import edu.berkeley.cs186.database.cli.parser.ASTExecutableStatement;
 import edu.berkeley.cs186.database.cli.parser.ParseException;
 import edu.berkeley.cs186.database.cli.parser.RookieParser;
 import edu.berkeley.cs186.database.cli.visitor.ExecutableStatementVisitor;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.LongDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.index.CompositeKey;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.EvictionPolicy;
+import edu.berkeley.cs186.database.memory.VersionStore;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.query.SequentialScanOperator;
 import edu.berkeley.cs186.database.query.SortOperator;
 import edu.berkeley.cs186.database.query.expr.Expression;
 import edu.berkeley.cs186.database.recovery.ARIESRecoveryManager;
+import edu.berkeley.cs186.database.recovery.CheckpointScheduler;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 import edu.berkeley.cs186.database.table.*;
@@ -35,6 +43,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.Phaser;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -97,6 +108,20 @@ public class Database implements AutoCloseable {
     private final BufferManager bufferManager;
     // recovery manager
     private final RecoveryManager recoveryManager;
+    // executor for background work (e.g. deferred undo after restart)
+    private final ExecutorService executor;
+    // deferred undo pass of an instant restart, still running or finished, or
+    // null if the database was not opened with instant restart
+    private Future<?> deferredUndo;
+    // background checkpointer, if one was started with scheduleCheckpoints
+    private CheckpointScheduler checkpointScheduler;
+    // background deadlock detector, if one was started with detectDeadlocks
+    private DeadlockDetector deadlockDetector;
+
+    // whether tables lock records individually (see Table#enableRecordLocking)
+    private volatile boolean recordLocking = false;
+    // whether coalescing of page updates was requested (see setCoalesceUpdates)
+    private volatile boolean coalesceUpdates = false;
 
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
@@ -173,11 +198,35 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, false);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * If instantRestart is set, the database accepts new transactions as soon
+     * as the redo pass of restart recovery finishes, and transactions that
+     * were in progress at the time of the crash are rolled back in the
+     * background. Their locks are reacquired before the database opens, so
+     * new transactions only block on data that has not been rolled back yet.
+     * This requires a lock manager: with a DummyLockManager, restart recovery
+     * always runs to completion before the constructor returns.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param instantRestart flag to run the undo pass of restart recovery in the background
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, boolean instantRestart) {
         boolean initialized = setupDirectory(fileDir);
 
         numTransactions = 0;
         this.numMemoryPages = numMemoryPages;
         this.lockManager = lockManager;
+        this.executor = new ThreadPool();
 
         if (useRecoveryManager) {
             recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction);
@@ -195,7 +244,11 @@ public class Database implements AutoCloseable {
         // Performs recovery
         recoveryManager.setManagers(diskSpaceManager, bufferManager);
         if (!initialized) recoveryManager.initialize();
-        recoveryManager.restart();
+        if (instantRestart && !(lockManager instanceof DummyLockManager)) {
+            deferredUndo = executor.submit(recoveryManager.restartWithDeferredUndo(pageLockContexts()));
+        } else {
+            recoveryManager.restart();
+        }
 
         Transaction initTransaction = beginTransaction();
 
@@ -280,6 +333,26 @@ public class Database implements AutoCloseable {
         }
     }
 
+    /**
+     * Waits for the deferred undo pass of an instant restart to finish.
+     *
+     * @throws DatabaseException if the undo pass failed. The database can then
+     * not be shut down cleanly; it is recovered from when it is next opened.
+     */
+    private void awaitDeferredUndo() {
+        if (this.deferredUndo == null) return;
+        try {
+            this.deferredUndo.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("interrupted while waiting for the deferred undo pass");
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            throw new DatabaseException("deferred undo pass failed: " + e.getCause());
+        }
+        this.deferredUndo = null;
+    }
+
     /**
      * Close this database.
      */
@@ -287,6 +360,17 @@ public class Database implements AutoCloseable {
     public synchronized void close() {
         // wait for all transactions to terminate
         this.waitAllTransactions();
+        // and for the deferred undo pass, which is not a transaction
+        this.awaitDeferredUndo();
+        this.executor.shutdown();
+        if (this.checkpointScheduler != null) {
+            this.checkpointScheduler.close();
+            this.checkpointScheduler = null;
+        }
+        if (this.deadlockDetector != null) {
+            this.deadlockDetector.close();
+            this.deadlockDetector = null;
+        }
 
         dropDemoTables();
 
@@ -323,6 +407,109 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    /**
+     * Sets whether commits are asynchronous: when maxDelayMillis is positive,
+     * committing a transaction does not wait for the log to be flushed, and
+     * the log is flushed in the background every maxDelayMillis milliseconds
+     * instead, so a crash can lose commits from up to that long before it.
+     *
+     * @param maxDelayMillis maximum delay between a commit and its log flush,
+     *                       in milliseconds, or 0 for synchronous commits
+     */
+    public void setAsyncCommit(long maxDelayMillis) {
+        if (!(recoveryManager instanceof ARIESRecoveryManager)) {
+            throw new UnsupportedOperationException("asynchronous commits require the recovery manager");
+        }
+        ((ARIESRecoveryManager) recoveryManager).setAsyncCommit(maxDelayMillis);
+    }
+
+    /**
+     * Sets whether the before and after images of page updates are compressed
+     * in the log, which reduces log volume for updates to wide records.
+     */
+    public void setLogCompression(boolean compressLog) {
+        if (!(recoveryManager instanceof ARIESRecoveryManager)) {
+            throw new UnsupportedOperationException("log compression requires the recovery manager");
+        }
+        ((ARIESRecoveryManager) recoveryManager).setLogCompression(compressLog);
+    }
+
+    /**
+     * Sets whether the updates that a transaction makes to a page are logged
+     * as a single log record, rather than one record per write. This reduces
+     * the number of log records for batch updates, such as updating many
+     * records on the same page.
+     *
+     * Updates are not coalesced while record locking is enabled: the record
+     * covers the bytes between the updates, which may belong to records that
+     * other transactions update under their own record locks, and undoing it
+     * would restore those records too.
+     */
+    public synchronized void setCoalesceUpdates(boolean coalesceUpdates) {
+        this.coalesceUpdates = coalesceUpdates;
+        bufferManager.setCoalesceUpdates(coalesceUpdates && !recordLocking);
+    }
+
+    /**
+     * Starts taking fuzzy checkpoints in the background, checking every
+     * periodMillis milliseconds whether one is needed. The recovery time
+     * targets can be tuned through the returned scheduler, which is stopped
+     * when the database is closed.
+     *
+     * @param periodMillis time between checks, in milliseconds
+     * @return the checkpoint scheduler
+     */
+    public synchronized CheckpointScheduler scheduleCheckpoints(long periodMillis) {
+        if (!(recoveryManager instanceof ARIESRecoveryManager)) {
+            throw new UnsupportedOperationException("checkpoints require the recovery manager");
+        }
+        if (checkpointScheduler == null) {
+            checkpointScheduler = new CheckpointScheduler((ARIESRecoveryManager) recoveryManager);
+            checkpointScheduler.start(periodMillis);
+        }
+        return checkpointScheduler;
+    }
+
+    /**
+     * Starts looking for deadlocks in the background every periodMillis
+     * milliseconds. One transaction of each deadlock is aborted: the one
+     * that logged the fewest changes, or the youngest one if there is a tie.
+     * Its lock request fails with a DeadlockException, and it is rolled back
+     * when closed. The detector is stopped when the database is closed.
+     *
+     * @param periodMillis time between checks, in milliseconds
+     * @return the deadlock detector
+     */
+    public synchronized DeadlockDetector detectDeadlocks(long periodMillis) {
+        if (deadlockDetector == null) {
+            deadlockDetector = new DeadlockDetector(lockManager, recoveryManager::getNumLogRecords);
+            deadlockDetector.start(periodMillis);
+        }
+        return deadlockDetector;
+    }
+
+    /**
+     * Sets whether tables lock individual records rather than whole pages
+     * when records are read or updated by record ID (see
+     * Table#enableRecordLocking). Off by default. Updates are not coalesced
+     * while record locking is enabled (see setCoalesceUpdates).
+     */
+    public synchronized void setRecordLocking(boolean recordLocking) {
+        this.recordLocking = recordLocking;
+        bufferManager.setCoalesceUpdates(coalesceUpdates && !recordLocking);
+    }
+
+    /**
+     * Sets the maximum time a transaction may wait for a lock before the
+     * request fails with a LockTimeoutException, and the transaction is
+     * rolled back when closed.
+     *
+     * @param timeoutMillis timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setLockWaitTimeout(long timeoutMillis) {
+        lockManager.setLockWaitTimeout(timeoutMillis);
+    }
+
     /**
      * @return Schema for _metadata.tables with fields:
      *   | field name   | field type
@@ -352,6 +539,8 @@ public class Database implements AutoCloseable {
      * 5 | key_schema_typeid   | int
      * 6 | key_schema_typesize | int
      * 7 | height              | int
+     * 8 | included_col_name   | string(32)
+     * 9 | included_size       | int
      */
     public Schema getIndexInfoSchema() {
         return new Schema()
@@ -362,7 +551,31 @@ public class Database implements AutoCloseable {
                 .add("root_page_num", Type.longType())
                 .add("key_schema_typeid", Type.intType())
                 .add("key_schema_typesize", Type.intType())
-                .add("height", Type.intType());
+                .add("height", Type.intType())
+                .add("included_col_name", Type.stringType(32))
+                .add("included_size", Type.intType());
+    }
+
+    /**
+     * @return Schema for lock contention statistics (see
+     * LockManager#getLockWaitStats) with fields:
+     *   | field name     | field type
+     * --+----------------+------------
+     * 0 | resource       | string(64)
+     * 1 | lock_type      | string(3)
+     * 2 | waits          | int
+     * 3 | total_wait_ms  | long
+     * 4 | max_wait_ms    | long
+     * 5 | max_queue_len  | int
+     */
+    public Schema getLockWaitsSchema() {
+        return new Schema()
+                .add("resource", Type.stringType(64))
+                .add("lock_type", Type.stringType(3))
+                .add("waits", Type.intType())
+                .add("total_wait_ms", Type.longType())
+                .add("max_wait_ms", Type.longType())
+                .add("max_queue_len", Type.intType());
     }
 
     // a single row of _metadata.tables
@@ -428,6 +641,25 @@ public class Database implements AutoCloseable {
         return result;
     }
 
+    /**
+     * @return the lock contention statistics of the database's lock manager,
+     * as records of getLockWaitsSchema, most waited on first
+     */
+    public List<Record> scanLockWaitsRecords() {
+        List<Record> result = new ArrayList<>();
+        for (LockWaitStats stats : lockManager.getLockWaitStats()) {
+            result.add(new Record(Arrays.asList(
+                new StringDataBox(stats.getResourceName().toString(), 64),
+                new StringDataBox(stats.getLockType().toString(), 3),
+                new IntDataBox(stats.getNumWaits()),
+                new LongDataBox(stats.getTotalWaitMillis()),
+                new LongDataBox(stats.getMaxWaitMillis()),
+                new IntDataBox(stats.getMaxQueueLength())
+            )));
+        }
+        return result;
+    }
+
     /**
      * @param tableName
      * @return the (rid, metadata) pair for the table specified by `tableName`'s
@@ -450,7 +682,11 @@ public class Database implements AutoCloseable {
         LockContext tableContext = getTableContext(tableName);
         long page0 = DiskSpaceManager.getVirtualPageNum(metadata.partNum, 0);
         PageDirectory pd = new PageDirectory(bufferManager, metadata.partNum, page0, (short) 0, tableContext);
-        return new Table(metadata.tableName, metadata.schema, pd, tableContext, stats);
+        Table table = new Table(metadata.tableName, metadata.schema, pd, tableContext, stats);
+        if (recordLocking) {
+            table.enableRecordLocking();
+        }
+        return table;
     }
 
     /**
@@ -525,14 +761,96 @@ public class Database implements AutoCloseable {
         return result;
     }
 
+    /**
+     * @return the key of `record`, of a table with schema `schema`, in the
+     * index described by `metadata`: the value of the indexed column, or for
+     * composite indices the composite key of the indexed columns (see
+     * CompositeKey)
+     */
+    private DataBox indexKey(Schema schema, BPlusTreeMetadata metadata, Record record) {
+        List<String> colNames = schema.getFieldNames();
+        List<String> indexColNames = metadata.getColNames();
+        if (indexColNames.size() == 1) {
+            return record.getValue(colNames.indexOf(indexColNames.get(0)));
+        }
+        List<Type> types = new ArrayList<>();
+        List<DataBox> values = new ArrayList<>();
+        for (String column : indexColNames) {
+            int i = colNames.indexOf(column);
+            types.add(schema.getFieldType(i));
+            values.add(record.getValue(i));
+        }
+        return CompositeKey.of(types, values);
+    }
+
+    /**
+     * @return the schema of the included columns `includedColNames` of an
+     * index on a table with schema `schema`
+     */
+    private Schema includedSchema(Schema schema, List<String> includedColNames) {
+        Schema result = new Schema();
+        for (String column : includedColNames) {
+            result.add(column, schema.getFieldType(schema.getFieldNames().indexOf(column)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the values of the included columns of the index described by
+     * `metadata` in `record`, serialized, which the index stores with the
+     * record id of `record` (see BPlusTree#put)
+     */
+    private byte[] indexIncluded(Schema schema, BPlusTreeMetadata metadata, Record record) {
+        List<String> includedColNames = metadata.getIncludedColNames();
+        List<DataBox> values = new ArrayList<>();
+        for (String column : includedColNames) {
+            values.add(record.getValue(schema.getFieldNames().indexOf(column)));
+        }
+        return new Record(values).toBytes(includedSchema(schema, includedColNames));
+    }
+
     // btree metadata -> btree object
     private BPlusTree indexFromMetadata(BPlusTreeMetadata metadata) {
-        String tableName = normalize(metadata.getTableName());
-        String columnName = normalize(metadata.getColName());
-        LockContext indexContext = lockManager.databaseContext().childContext(tableName + "." + columnName);
+        LockContext indexContext = getIndexContext(metadata.getTableName(), metadata.getColName());
         return new BPlusTree(bufferManager, metadata, indexContext);
     }
 
+    /**
+     * Returns a function from page number to the lock context protecting the
+     * page, used by restart recovery to reacquire the locks of transactions
+     * rolled back in the background. Pages of tables map to their page lock
+     * context, pages of indices to the index lock context, and any other page
+     * (metadata, temporary tables) to null. The metadata tables are read the
+     * first time the function is applied, which happens after the redo pass.
+     */
+    private Function<Long, LockContext> pageLockContexts() {
+        Map<Integer, LockContext> tableContexts = new HashMap<>();
+        Map<Integer, LockContext> indexContexts = new HashMap<>();
+        return pageNum -> {
+            if (tableMetadata == null) {
+                loadMetadataTables();
+                for (Pair<RecordId, TableMetadata> p : scanTableMetadata()) {
+                    TableMetadata metadata = p.getSecond();
+                    tableContexts.put(metadata.partNum, getTableContext(metadata.tableName));
+                }
+                for (Pair<RecordId, BPlusTreeMetadata> p : scanIndexMetadata()) {
+                    BPlusTreeMetadata metadata = p.getSecond();
+                    indexContexts.put(metadata.getPartNum(),
+                            getIndexContext(metadata.getTableName(), metadata.getColName()));
+                }
+            }
+            int partNum = DiskSpaceManager.getPartNum(pageNum);
+            if (indexContexts.containsKey(partNum)) return indexContexts.get(partNum);
+            LockContext tableContext = tableContexts.get(partNum);
+            return tableContext == null ? null : tableContext.childContext(pageNum);
+        };
+    }
+
+    // get the lock context for database/tableName.columnName
+    private LockContext getIndexContext(String tableName, String columnName) {
+        return lockManager.databaseContext().childContext(normalize(tableName) + "." + normalize(columnName));
+    }
+
     // get the lock context for database/_metadata.tables
     private LockContext getTableInfoContext() {
         return lockManager.databaseContext().childContext(TABLE_INFO_TABLE_NAME);
@@ -583,6 +901,62 @@ public class Database implements AutoCloseable {
         return t;
     }
 
+    /**
+     * Enables read-only snapshot transactions (see beginReadOnlyTransaction).
+     * From then on, the before-images of pages written by transactions are
+     * kept in memory for as long as a snapshot may need them, so this has to
+     * be called before any transaction begins.
+     */
+    public synchronized void enableSnapshotReads() {
+        if (activeTransactions.getRegisteredParties() > 0) {
+            throw new IllegalStateException("snapshot reads must be enabled before any transaction begins");
+        }
+        bufferManager.enableVersionStore();
+    }
+
+    /**
+     * Start a new read-only transaction, which reads the database as it was
+     * when the transaction began, without the changes of transactions that
+     * were still running then or began later. It takes no locks, so it
+     * never blocks writers nor is blocked by them. It may not modify
+     * tables, but may create temporary tables (e.g. to sort).
+     *
+     * Changes to the database schema (creating or dropping tables and
+     * indices) are not versioned: tables that are dropped after the
+     * transaction began can not be read by it.
+     *
+     * @return the new Transaction
+     */
+    public synchronized Transaction beginReadOnlyTransaction() {
+        VersionStore versionStore = bufferManager.getVersionStore();
+        if (versionStore == null) {
+            throw new IllegalStateException("snapshot reads are not enabled");
+        }
+        Transaction t = beginTransaction();
+        t.getTransactionContext().setSnapshot(versionStore.openSnapshot(t.getTransNum()));
+        return t;
+    }
+
+    /**
+     * Start a new optimistic transaction, which takes no S locks while it
+     * runs: it records the version of every page it reads instead, and
+     * validates them when it commits, taking the S locks only then. If a
+     * page it read was changed by another transaction in the meantime, the
+     * commit throws a ValidationException and the transaction is rolled
+     * back, to be retried by the caller. Writes still take X locks as usual.
+     *
+     * Suited to short transactions that mostly read: they don't block
+     * writers while running, at the cost of aborting when they conflict.
+     * Reads of metadata and of temporary tables are not validated.
+     *
+     * @return the new Transaction
+     */
+    public synchronized Transaction beginOptimisticTransaction() {
+        Transaction t = beginTransaction();
+        t.getTransactionContext().setReadSet(new ReadSet());
+        return t;
+    }
+
     /**
      * Start a transaction for recovery.
      *
@@ -667,6 +1041,33 @@ public class Database implements AutoCloseable {
             return getColumnIndexMetadata(tableName, columnName) != null;
         }
 
+        @Override
+        public List<String> getIndexedColumns(String tableName) {
+            if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
+            tableName = normalize(tableName);
+            // Only lock the entries of the indices that exist: a shared lock on
+            // all of the table's index metadata would keep this transaction
+            // from dropping one of them later.
+            List<String> result = new ArrayList<>();
+            for (Pair<RecordId, BPlusTreeMetadata> p : scanIndexMetadata()) {
+                BPlusTreeMetadata metadata = p.getSecond();
+                if (normalize(metadata.getTableName()).equals(tableName)) {
+                    String columnName = metadata.getColName();
+                    LockUtil.ensureSufficientLockHeld(getColumnIndexMetadataContext(tableName, columnName), LockType.S);
+                    result.add(columnName);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<String> getIncludedColumns(String tableName, String columnName) {
+            if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
+            Pair<RecordId, BPlusTreeMetadata> pair = getColumnIndexMetadata(tableName, columnName);
+            if (pair == null) throw new DatabaseException("Index `" + tableName + "." + columnName + "` does not exist!");
+            return pair.getSecond().getIncludedColNames();
+        }
+
         @Override
         public void updateIndexMetadata(BPlusTreeMetadata metadata) {
             Record updated = metadata.toRecord();
@@ -729,6 +1130,42 @@ public class Database implements AutoCloseable {
             return tab.recordIterator(tree.scanEqual(key));
         }
 
+        @Override
+        public Iterator<Record> indexOnlyScanFrom(String tableName, String columnName, DataBox startValue) {
+            Table tab = getTable(tableName);
+            tableName = tab.getName();
+            BPlusTreeMetadata metadata = getColumnIndexMetadata(tableName, columnName).getSecond();
+            BPlusTree tree = indexFromMetadata(metadata);
+            // The scan does not read the table, but still returns its values
+            LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.S);
+
+            Schema s = tab.getSchema();
+            List<String> indexColNames = metadata.getColNames();
+            List<Type> keyTypes = new ArrayList<>();
+            for (String column : indexColNames) {
+                keyTypes.add(s.getFieldType(s.getFieldNames().indexOf(column)));
+            }
+            Schema includedSchema = includedSchema(s, metadata.getIncludedColNames());
+            Iterator<Pair<DataBox, byte[]>> entries = tree.scanIncluded(startValue);
+            return new Iterator<Record>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Record next() {
+                    Pair<DataBox, byte[]> entry = entries.next();
+                    List<DataBox> values = indexColNames.size() == 1
+                                           ? new ArrayList<>(Collections.singletonList(entry.getFirst()))
+                                           : CompositeKey.values(keyTypes, entry.getFirst());
+                    Buffer included = ByteBuffer.wrap(entry.getSecond());
+                    values.addAll(Record.fromBytes(included, includedSchema).getValues());
+                    return new Record(values);
+                }
+            };
+        }
+
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
             return getTable(tableName).iterator();
@@ -750,13 +1187,11 @@ public class Database implements AutoCloseable {
             }
             RecordId rid = tab.addRecord(record);
             Schema s = tab.getSchema();
-            List<String> colNames = s.getFieldNames();
 
             for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
                 BPlusTree tree = indexFromMetadata(p.getSecond());
-                String column = tree.getMetadata().getColName();
-                DataBox key = record.getValue(colNames.indexOf(column));
-                tree.put(key, rid);
+                DataBox key = indexKey(s, tree.getMetadata(), record);
+                tree.put(key, rid, indexIncluded(s, tree.getMetadata(), record));
             }
             return rid;
         }
@@ -767,12 +1202,10 @@ public class Database implements AutoCloseable {
             tableName = tab.getName();
             Schema s = tab.getSchema();
             Record record = tab.deleteRecord(rid);
-            List<String> colNames = s.getFieldNames();
 
             for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
                 BPlusTree tree = indexFromMetadata(p.getSecond());
-                String column = tree.getMetadata().getColName();
-                DataBox key = record.getValue(colNames.indexOf(column));
+                DataBox key = indexKey(s, tree.getMetadata(), record);
                 tree.remove(key);
             }
             return rid;
@@ -790,15 +1223,13 @@ public class Database implements AutoCloseable {
             Schema s = tab.getSchema();
 
             Record old = tab.updateRecord(rid, updated);
-            List<String> colNames = s.getFieldNames();
 
             for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
                 BPlusTree tree = indexFromMetadata(p.getSecond());
-                String column = tree.getMetadata().getColName();
-                DataBox oldKey = old.getValue(colNames.indexOf(column));
-                DataBox newKey = updated.getValue(colNames.indexOf(column));
+                DataBox oldKey = indexKey(s, tree.getMetadata(), old);
+                DataBox newKey = indexKey(s, tree.getMetadata(), updated);
                 tree.remove(oldKey);
-                tree.put(newKey, rid);
+                tree.put(newKey, rid, indexIncluded(s, tree.getMetadata(), updated));
             }
             return rid;
         }
@@ -931,12 +1362,11 @@ public class Database implements AutoCloseable {
         public void close() {
             try {
                 // TODO(proj4_part2)
-                List<Lock> locks = lockManager.getLocks(new TransactionContextImpl(getTransNum(),false));
-                LockContext databaseContext = lockManager.databaseContext();
+                List<Lock> locks = lockManager.getLocks(this);
                 while (locks.size() > 0) {
                     for (int i = 0; i < locks.size(); ) {
                         Lock lock = locks.get(i);
-                        LockContext ctx = databaseContext.childContext(lock.transactionNum);
+                        LockContext ctx = LockContext.fromResourceName(lockManager, lock.name);
                         if (ctx.getNumChildren(this) == 0) {
                             ctx.release(this);
                             locks.remove(i);
@@ -1016,6 +1446,17 @@ public class Database implements AutoCloseable {
 
         @Override
         protected void startCommit() {
+            ReadSet readSet = transactionContext.getReadSet();
+            if (readSet != null) {
+                try {
+                    readSet.validate(bufferManager::getPageVersion);
+                } catch (RuntimeException e) {
+                    // failed validation, or lost a lock request while
+                    // validating
+                    this.startRollback();
+                    throw e;
+                }
+            }
             transactionContext.deleteAllTempTables();
             recoveryManager.commit(transNum);
             this.cleanup();
@@ -1037,6 +1478,16 @@ public class Database implements AutoCloseable {
                 recoveryManager.end(transNum);
             }
 
+            // the transaction's changes become visible to new snapshots
+            // before its locks are released
+            VersionStore versionStore = bufferManager.getVersionStore();
+            if (versionStore != null) {
+                if (transactionContext.getSnapshot() != null) {
+                    transactionContext.getSnapshot().close();
+                }
+                versionStore.transactionEnded(transNum);
+            }
+
             transactionContext.close();
             activeTransactions.arriveAndDeregister();
         }
@@ -1107,6 +1558,17 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createIndex(String tableName, String columnName, boolean bulkLoad) {
+            createIndex(tableName, Collections.singletonList(columnName), bulkLoad);
+        }
+
+        @Override
+        public void createIndex(String tableName, List<String> columnNames, boolean bulkLoad) {
+            createIndex(tableName, columnNames, Collections.emptyList(), bulkLoad);
+        }
+
+        @Override
+        public void createIndex(String tableName, List<String> columnNames,
+                                List<String> includedColumnNames, boolean bulkLoad) {
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1119,12 +1581,49 @@ public class Database implements AutoCloseable {
             Schema s = tableMetadata.schema;
             List<String> schemaColNames = s.getFieldNames();
             List<Type> schemaColType = s.getFieldTypes();
-            if (!schemaColNames.contains(columnName)) {
-                throw new DatabaseException("table " + tableName + " does not have a column " + columnName);
+            if (columnNames.isEmpty() || new HashSet<>(columnNames).size() != columnNames.size()) {
+                throw new DatabaseException("index must be on one or more distinct columns");
+            }
+            List<Type> colTypes = new ArrayList<>();
+            for (String columnName : columnNames) {
+                if (!schemaColNames.contains(columnName)) {
+                    throw new DatabaseException("table " + tableName + " does not have a column " + columnName);
+                }
+                colTypes.add(schemaColType.get(schemaColNames.indexOf(columnName)));
             }
 
-            int columnIndex = schemaColNames.indexOf(columnName);
-            Type colType = schemaColType.get(columnIndex);
+            // Composite indices are named after their columns, and keyed on the
+            // composite key of their values (see CompositeKey)
+            String columnName = CompositeKey.name(columnNames);
+            Type colType = colTypes.get(0);
+            if (columnNames.size() > 1) {
+                if (colTypes.stream().anyMatch(t -> t.getTypeId() == TypeId.BYTE_ARRAY)) {
+                    throw new DatabaseException("cannot index byte array columns");
+                }
+                colType = CompositeKey.type(colTypes);
+            }
+            if (columnName.length() > getIndexInfoSchema().getFieldType(1).getSizeInBytes()) {
+                throw new DatabaseException("index name " + columnName + " is too long");
+            }
+
+            // Covering indices store the values of their included columns with
+            // every record id
+            for (String includedColumnName : includedColumnNames) {
+                if (!schemaColNames.contains(includedColumnName)) {
+                    throw new DatabaseException("table " + tableName + " does not have a column " + includedColumnName);
+                }
+                if (columnNames.contains(includedColumnName)) {
+                    throw new DatabaseException("column " + includedColumnName + " is both indexed and included");
+                }
+            }
+            if (new HashSet<>(includedColumnNames).size() != includedColumnNames.size()) {
+                throw new DatabaseException("included columns must be distinct");
+            }
+            String includedColumnName = CompositeKey.name(includedColumnNames);
+            if (includedColumnName.length() > getIndexInfoSchema().getFieldType(8).getSizeInBytes()) {
+                throw new DatabaseException("included columns " + includedColumnName + " are too long");
+            }
+            int includedSize = includedSchema(s, includedColumnNames).getSizeInBytes();
 
             // To create the index we'll need an exclusive lock on its metadata
             LockUtil.ensureSufficientLockHeld(getColumnIndexMetadataContext(tableName, columnName), LockType.X);
@@ -1133,17 +1632,18 @@ public class Database implements AutoCloseable {
                 throw new DatabaseException("index already exists on " + tableName + "(" + columnName + ")");
             }
 
-            int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType);
-            Record indexEntry = new Record(tableName, columnName, order,
+            int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType, includedSize);
+            if (order == 0) {
+                throw new DatabaseException("included columns of " + tableName + "(" + columnName + ") are too large");
+            }
+            BPlusTreeMetadata metadata = new BPlusTreeMetadata(tableName, columnName,
+                    includedColumnName, colType, includedSize, order,
                     diskSpaceManager.allocPart(),
-                    diskSpaceManager.INVALID_PAGE_NUM,
-                    colType.getTypeId().ordinal(),
-                    colType.getSizeInBytes(), -1
+                    diskSpaceManager.INVALID_PAGE_NUM, -1
             );
             synchronized (indexMetadata) {
-                indexMetadata.addRecord(indexEntry);
+                indexMetadata.addRecord(metadata.toRecord());
             }
-            BPlusTreeMetadata metadata = new BPlusTreeMetadata(indexEntry);
             BPlusTree tree = indexFromMetadata(metadata);
 
             // load data into index
@@ -1153,7 +1653,7 @@ public class Database implements AutoCloseable {
                 Table table = tableFromMetadata(tableMetadata);
                 for (RecordId rid : (Iterable<RecordId>) table::ridIterator) {
                     Record record = table.getRecord(rid);
-                    tree.put(record.getValue(columnIndex), rid);
+                    tree.put(indexKey(s, metadata, record), rid, indexIncluded(s, metadata, record));
                 }
             }
         }
@@ -1180,8 +1680,15 @@ public class Database implements AutoCloseable {
             return new QueryPlan(transactionContext, tableName, alias);
         }
 
+        private void checkWritable() {
+            if (transactionContext.getSnapshot() != null) {
+                throw new DatabaseException("read-only transaction cannot modify tables");
+            }
+        }
+
         @Override
         public void insert(String tableName, Record values) {
+            checkWritable();
             transactionContext.addRecord(tableName, values);
         }
 
@@ -1193,23 +1700,27 @@ public class Database implements AutoCloseable {
         @Override
         public void update(String tableName, String targetColumnName, UnaryOperator<DataBox> targetValue,
                            String predColumnName, PredicateOperator predOperator, DataBox predValue) {
+            checkWritable();
             transactionContext.updateRecordWhere(tableName, targetColumnName, targetValue, predColumnName,
                                                     predOperator, predValue);
         }
 
         @Override
         public void update(String tableName, String targetColumnName, Function<Record, DataBox> expr, Function<Record, DataBox> cond) {
+            checkWritable();
             transactionContext.updateRecordWhere(tableName, targetColumnName, expr, cond);
         }
 
         @Override
         public void delete(String tableName, String predColumnName, PredicateOperator predOperator,
                            DataBox predValue) {
+            checkWritable();
             transactionContext.deleteRecordWhere(tableName, predColumnName, predOperator, predValue);
         }
 
         @Override
         public void delete(String tableName, Function<Record, DataBox> cond) {
+            checkWritable();
             transactionContext.deleteRecordWhere(tableName, cond);
         }
 
@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -71,6 +72,9 @@ public abstract class Transaction implements AutoCloseable {
         if (status != Status.RUNNING) {
             throw new IllegalStateException("transaction not in running state, cannot commit");
         }
+        if (getTransactionContext().isRollbackOnly()) {
+            throw new IllegalStateException("transaction lost a lock request, cannot commit");
+        }
         startCommit();
     }
 
@@ -102,12 +106,18 @@ public abstract class Transaction implements AutoCloseable {
      * ...
      * }
      *
-     * and have the transaction commit.
+     * and have the transaction commit. A transaction that was chosen as a
+     * deadlock victim, or timed out waiting for a lock, is rolled back
+     * instead.
      */
     @Override
     public final void close() {
         if (status == Status.RUNNING) {
-            commit();
+            if (getTransactionContext().isRollbackOnly()) {
+                rollback();
+            } else {
+                commit();
+            }
         }
     }
 
@@ -152,6 +162,38 @@ public abstract class Transaction implements AutoCloseable {
      */
     public abstract void createIndex(String tableName, String columnName, boolean bulkLoad);
 
+    /**
+     * Creates a composite index. Equivalent to
+     *      CREATE INDEX ON tableName (columnNames[0], columnNames[1], ...)
+     * in postgres.
+     *
+     * The index is keyed on the values of the columns, compared in order (see
+     * CompositeKey), and named after its columns separated by commas, e.g.
+     * dropIndex(tableName, "tenant_id,created_at").
+     *
+     * @param tableName name of table to create index for
+     * @param columnNames names of columns to create index on
+     * @param bulkLoad whether to bulk load data
+     */
+    public abstract void createIndex(String tableName, List<String> columnNames, boolean bulkLoad);
+
+    /**
+     * Creates a covering index. Equivalent to
+     *      CREATE INDEX ON tableName (columnNames...) INCLUDE (includedColumnNames...)
+     * in postgres.
+     *
+     * The index stores the values of the included columns with every record
+     * id, so queries that only use the indexed and included columns can be
+     * answered from the index alone (see IndexOnlyScanOperator).
+     *
+     * @param tableName name of table to create index for
+     * @param columnNames names of columns to create index on
+     * @param includedColumnNames names of columns to store in the index
+     * @param bulkLoad whether to bulk load data
+     */
+    public abstract void createIndex(String tableName, List<String> columnNames,
+                                     List<String> includedColumnNames, boolean bulkLoad);
+
     /**
      * Drops an index. Equivalent to
      *      DROP INDEX tableName_columnName
@@ -2,8 +2,10 @@ package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.concurrency.ReadSet;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.memory.VersionStore;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -11,8 +13,10 @@ import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
@@ -33,8 +37,15 @@ import java.util.function.UnaryOperator;
  */
 public abstract class TransactionContext implements AutoCloseable {
     static Map<Long, TransactionContext> threadTransactions = new ConcurrentHashMap<>();
-    private boolean blocked = false;
+    private volatile boolean blocked = false;
     private boolean startBlock = false;
+    // set when a lock request of the transaction was cancelled to break a
+    // deadlock or after a lock wait timeout
+    private volatile boolean rollbackOnly = false;
+    // set for read-only transactions that read from a snapshot
+    private VersionStore.Snapshot snapshot;
+    // set for optimistic transactions, which validate their reads at commit
+    private ReadSet readSet;
     private final ReentrantLock transactionLock = new ReentrantLock();
     private final Condition unblocked = transactionLock.newCondition();
 
@@ -91,6 +102,47 @@ public abstract class TransactionContext implements AutoCloseable {
     @Override
     public abstract void close();
 
+    /**
+     * Marks the transaction as one that must be rolled back: it can no longer
+     * commit, and closing it rolls it back. Used when a lock request of the
+     * transaction fails after it may have done part of an operation.
+     */
+    public void setRollbackOnly() {
+        this.rollbackOnly = true;
+    }
+
+    /**
+     * @return whether the transaction must be rolled back (see setRollbackOnly)
+     */
+    public boolean isRollbackOnly() {
+        return this.rollbackOnly;
+    }
+
+    /**
+     * @return the snapshot this transaction reads from, or null if it is not
+     * a read-only snapshot transaction. Snapshot transactions take no locks.
+     */
+    public VersionStore.Snapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    void setSnapshot(VersionStore.Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return the pages this transaction read, or null if it is not an
+     * optimistic transaction. Optimistic transactions take no S locks until
+     * they validate their reads at commit.
+     */
+    public ReadSet getReadSet() {
+        return this.readSet;
+    }
+
+    void setReadSet(ReadSet readSet) {
+        this.readSet = readSet;
+    }
+
     // Temp Tables and Aliasing ////////////////////////////////////////////////
     /**
      * Create a temporary table within this transaction.
@@ -128,6 +180,23 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract boolean indexExists(String tableName, String columnName);
 
+    /**
+     * @param tableName the name of the table
+     * @return the column of each index on the table. The columns of composite
+     * indices are separated by commas (see CompositeKey), e.g.
+     * "tenant_id,created_at", and can be passed as the column name of the
+     * index to the methods below, which then take composite keys.
+     */
+    public abstract List<String> getIndexedColumns(String tableName);
+
+    /**
+     * @param tableName the name of the table
+     * @param columnName the column of the index
+     * @return the included columns of the index, whose values it stores with
+     * every record id, or an empty list if it has none
+     */
+    public abstract List<String> getIncludedColumns(String tableName, String columnName);
+
     public abstract void updateIndexMetadata(BPlusTreeMetadata metadata);
 
     // Scans ///////////////////////////////////////////////////////////////////
@@ -145,6 +214,16 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract Iterator<Record> sortedScanFrom(String tableName, String columnName, DataBox startValue);
 
+    /**
+     * Returns an iterator over the entries of the index on `columnName` whose
+     * keys are greater than or equal to `startValue` (or over all entries, if
+     * startValue is null), in ascending order of key. Each entry is returned
+     * as a record of the values of the index's columns followed by the values
+     * of its included columns. Unlike sortedScanFrom, this does not read the
+     * records of the table.
+     */
+    public abstract Iterator<Record> indexOnlyScanFrom(String tableName, String columnName, DataBox startValue);
+
     /**
      * Returns an iterator over the records in `tableName` where the value in
      * `columnName` are equal to `key`.
@@ -257,6 +336,37 @@ public abstract class TransactionContext implements AutoCloseable {
         }
     }
 
+    /**
+     * Blocks the transaction (and thread) for up to timeoutMillis
+     * milliseconds. prepareBlock() must be called first.
+     * @return false if the transaction was still blocked after timeoutMillis
+     * milliseconds
+     */
+    public boolean block(long timeoutMillis) {
+        if (!this.startBlock) {
+            throw new IllegalStateException("prepareBlock() must be called before block()");
+        }
+        try {
+            this.blocked = true;
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (this.blocked) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                try {
+                    nanos = this.unblocked.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return !this.blocked;
+                }
+            }
+            return true;
+        } finally {
+            this.startBlock = false;
+            this.transactionLock.unlock();
+        }
+    }
+
     /**
      * Unblocks the transaction (and thread running the transaction).
      */
@@ -189,6 +189,14 @@ public class CommandLineInterface {
             List<Record> records = db.scanIndexMetadataRecords();
             new PrettyPrinter(out).printRecords(db.getIndexInfoSchema().getFieldNames(),
                     records.iterator());
+        } else if (cmd.equals("lockwaits")) {
+            if (tokens.length == 2 && tokens[1].equals("reset")) {
+                db.getLockManager().resetLockWaitStats();
+            } else {
+                List<Record> records = db.scanLockWaitsRecords();
+                new PrettyPrinter(out).printRecords(db.getLockWaitsSchema().getFieldNames(),
+                        records.iterator());
+            }
         } else if (cmd.equals("locks")) {
             if (tc == null) {
                 this.out.println("No locks held, because not currently in a transaction.");
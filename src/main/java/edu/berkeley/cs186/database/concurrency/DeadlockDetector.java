@@ -0,0 +1,137 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Periodically looks for deadlocks among the transactions waiting on a
+ * LockManager, and breaks them by aborting one transaction per cycle.
+ *
+ * Each tick builds the waits-for graph of the lock manager and searches it
+ * for cycles. For each cycle found, the victim is the transaction with the
+ * lowest cost (as given by the cost function, e.g. the number of changes the
+ * transaction would have to undo), ties going to the youngest transaction
+ * (the one with the largest transaction number). The victim's lock request
+ * is cancelled: the victim is marked rollback-only and gets a
+ * DeadlockException instead of the lock, and the transactions behind it are
+ * left to be woken up as usual.
+ */
+public class DeadlockDetector implements AutoCloseable {
+    private final LockManager lockManager;
+    private final ToLongFunction<Long> cost;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a detector for lockManager. Nothing runs until start is called;
+     * run may also be called directly.
+     * @param cost cost of aborting a transaction, by transaction number
+     */
+    public DeadlockDetector(LockManager lockManager, ToLongFunction<Long> cost) {
+        this.lockManager = lockManager;
+        this.cost = cost;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "deadlock-detector");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts running the detector every periodMillis milliseconds.
+     */
+    public void start(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("deadlock detection period must be positive");
+        }
+        executor.scheduleWithFixedDelay(this::run, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs one tick of the detector.
+     * @return number of transactions aborted
+     */
+    synchronized int run() {
+        Map<Long, Set<Long>> graph = lockManager.getWaitsForGraph();
+        int numVictims = 0;
+        List<Long> cycle;
+        while ((cycle = findCycle(graph)) != null) {
+            long victim = chooseVictim(cycle);
+            // only transactions that are waiting have outgoing edges
+            graph.remove(victim);
+            if (lockManager.cancelWaitingRequest(victim)) {
+                ++numVictims;
+            }
+        }
+        return numVictims;
+    }
+
+    private long chooseVictim(List<Long> cycle) {
+        long victim = cycle.get(0);
+        long victimCost = cost.applyAsLong(victim);
+        for (long transNum : cycle.subList(1, cycle.size())) {
+            long c = cost.applyAsLong(transNum);
+            if (c < victimCost || (c == victimCost && transNum > victim)) {
+                victim = transNum;
+                victimCost = c;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * @return the transactions on some cycle in graph, or null if it has none
+     */
+    static List<Long> findCycle(Map<Long, Set<Long>> graph) {
+        Set<Long> done = new HashSet<>();
+        for (Long start : graph.keySet()) {
+            if (done.contains(start)) {
+                continue;
+            }
+            // iterative DFS; path holds the transactions on the current path,
+            // iterators the remaining edges of each of them
+            List<Long> path = new ArrayList<>();
+            Set<Long> onPath = new HashSet<>();
+            Deque<Iterator<Long>> iterators = new ArrayDeque<>();
+            path.add(start);
+            onPath.add(start);
+            iterators.push(graph.get(start).iterator());
+            while (!iterators.isEmpty()) {
+                Iterator<Long> edges = iterators.peek();
+                if (!edges.hasNext()) {
+                    iterators.pop();
+                    Long finished = path.remove(path.size() - 1);
+                    onPath.remove(finished);
+                    done.add(finished);
+                    continue;
+                }
+                Long next = edges.next();
+                if (onPath.contains(next)) {
+                    return new ArrayList<>(path.subList(path.indexOf(next), path.size()));
+                }
+                if (done.contains(next) || !graph.containsKey(next)) {
+                    continue;
+                }
+                path.add(next);
+                onPath.add(next);
+                iterators.push(graph.get(next).iterator());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the detector, waiting for a tick in progress to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
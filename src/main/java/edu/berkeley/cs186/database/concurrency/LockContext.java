@@ -8,6 +8,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
 
 /**
  * LockContext wraps around LockManager to provide the hierarchical structure
@@ -41,9 +42,18 @@ public class LockContext {
     // You should not modify or use this directly.
     protected final Map<String, LockContext> children;
 
+    // The children in `children` that were looked up by number (e.g. pages),
+    // so that looking them up again does not have to build their name.
+    private final Map<Long, LockContext> numberedChildren = new ConcurrentHashMap<>();
+
     // Whether or not any new child LockContexts should be marked readonly.
     protected boolean childLocksDisabled;
 
+    // The number of children this LockContext could have (e.g. the number of
+    // data pages of a table), or null if unknown. Used to decide when to
+    // escalate automatically (see LockUtil#ensureSufficientLockHeld).
+    protected volatile IntSupplier capacity;
+
     public LockContext(LockManager lockman, LockContext parent, String name) {
         this(lockman, parent, name, false);
     }
@@ -188,9 +198,10 @@ public class LockContext {
         }
         if (newLockType == LockType.SIX && type.isIntent()){
             List<ResourceName> resourceNames = sisDescendants(transaction);
+            int numReleased = resourceNames.size();
             resourceNames.add(name);
             lockman.acquireAndRelease(transaction,name,newLockType,resourceNames);
-            numChildLocks.put(transaction.getTransNum(), getNumChildren(transaction) - resourceNames.size());
+            numChildLocks.put(transaction.getTransNum(), getNumChildren(transaction) - numReleased);
         } else{
             lockman.promote(transaction, name, newLockType);
         }
@@ -241,11 +252,12 @@ public class LockContext {
         LockType newType = type;
         List<ResourceName> resourceNames = new ArrayList<>();
         resourceNames.add(name);
-        for (LockContext context: children.values()) {
+        // locks may be held below the children too (e.g. records of a page)
+        List<LockContext> descendants = new ArrayList<>();
+        lockedDescendants(transaction, descendants);
+        for (LockContext context: descendants) {
             LockType explicitLockType = context.getExplicitLockType(transaction);
-            if (!context.readonly && explicitLockType != LockType.NL) {
-                resourceNames.add(context.name);
-            }
+            resourceNames.add(context.name);
             if (LockType.substitutable(explicitLockType,newType)){
                 newType = explicitLockType;
             }
@@ -259,17 +271,30 @@ public class LockContext {
             lockman.acquireAndRelease(transaction,name,newType,resourceNames);
         }
         numChildLocks.put(transaction.getTransNum(),0);
+        for (LockContext context: descendants) {
+            context.numChildLocks.put(transaction.getTransNum(), 0);
+        }
     }
 
     /**
      * Get the type of lock that `transaction` holds at this level, or NL if no
      * lock is held at this level.
+     *
+     * Lock types are cached per transaction until the transaction's locks
+     * change (see LockManager#getLockTypeCache), so checking a lock that was
+     * already checked only costs a hash lookup.
      */
     //获取事务在此级别持有的锁的类型，如果在此级别没有持有锁，则获取NL。
     public LockType getExplicitLockType(TransactionContext transaction) {
         if (transaction == null) return LockType.NL;
         // TODO(proj4_part2): implement
-        return lockman.getLockType(transaction,name);
+        LockManager.LockTypeCache cache = lockman.getLockTypeCache(transaction.getTransNum());
+        LockType lockType = cache.explicit.get(this);
+        if (lockType == null) {
+            lockType = lockman.getLockType(transaction, name);
+            cache.explicit.put(this, lockType);
+        }
+        return lockType;
     }
 
     /**
@@ -282,6 +307,16 @@ public class LockContext {
     public LockType getEffectiveLockType(TransactionContext transaction) {
         if (transaction == null) return LockType.NL;
         // TODO(proj4_part2): implement
+        LockManager.LockTypeCache cache = lockman.getLockTypeCache(transaction.getTransNum());
+        LockType lockType = cache.effective.get(this);
+        if (lockType == null) {
+            lockType = computeEffectiveLockType(transaction);
+            cache.effective.put(this, lockType);
+        }
+        return lockType;
+    }
+
+    private LockType computeEffectiveLockType(TransactionContext transaction) {
         LockType explicitLockType = getExplicitLockType(transaction);
         if (parent==null){
             if (explicitLockType.isIntent()){
@@ -336,6 +371,22 @@ public class LockContext {
         return list;
     }
 
+    /**
+     * Helper method to collect the descendants of current context on which the
+     * given transaction holds an explicit lock, at any depth.
+     * @param transaction the given transaction
+     * @param locked list the locked descendants are added to
+     */
+    private void lockedDescendants(TransactionContext transaction, List<LockContext> locked) {
+        for (LockContext child : children.values()) {
+            // a context without a lock has no locked descendants either
+            if (!child.readonly && child.getExplicitLockType(transaction) != LockType.NL) {
+                locked.add(child);
+                child.lockedDescendants(transaction, locked);
+            }
+        }
+    }
+
     /**
      * Disables locking descendants. This causes all new child contexts of this
      * context to be readonly. This is used for indices and temporary tables
@@ -372,8 +423,30 @@ public class LockContext {
     /**
      * Gets the context for the child with name `name`.
      */
-    public synchronized LockContext childContext(long name) {
-        return childContext(Long.toString(name));
+    public LockContext childContext(long name) {
+        LockContext child = numberedChildren.get(name);
+        if (child == null) {
+            child = childContext(Long.toString(name));
+            numberedChildren.putIfAbsent(name, child);
+        }
+        return child;
+    }
+
+    /**
+     * Sets the function giving the number of children this context could
+     * have. Contexts with a capacity are escalated automatically once a
+     * transaction holds locks on enough of their children.
+     */
+    public void setCapacity(IntSupplier capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets the number of children this context could have, or -1 if unknown.
+     */
+    public int capacity() {
+        IntSupplier capacity = this.capacity;
+        return capacity == null ? -1 : capacity.getAsInt();
     }
 
     /**
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.concurrency;
 import edu.berkeley.cs186.database.TransactionContext;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * LockManager maintains the bookkeeping for what transactions have what locks
@@ -29,17 +30,55 @@ import java.util.*;
  *    queue: S(A) X(A) S(A)
  * only the first request should be removed from the queue when the queue is
  * processed.
+ *
+ * There is no lock manager-wide latch: each ResourceEntry is latched (by
+ * synchronizing on it) while its locks or queue are read or changed, and each
+ * list in transactionLocks is latched the same way, so operations on different
+ * resources run in parallel. A thread holds at most one ResourceEntry latch at
+ * a time, and may latch a transaction's list while holding one, but never the
+ * other way around. Operations that affect several resources (releasing the
+ * locks of an acquire-and-release, or of a queued request that was granted)
+ * release them one resource at a time, after the first resource's latch is
+ * released.
+ *
+ * Intention locks (IS and IX) are taken on the database and on every table by
+ * almost every transaction, and never conflict with each other. As long as a
+ * resource has no other locks and no queue, they are granted on a fast path
+ * that records them in the resource's fastPathLocks map (and the
+ * transaction's list), without latching the resource. The first request on
+ * the resource that can't use the fast path (any S, SIX or X request, for
+ * instance) moves the fast-path locks into the resource's lock list under its
+ * latch, and the resource stays on the slow path until its lock list and queue
+ * are empty again.
  */
 public class LockManager {
     // transactionLocks is a mapping from transaction number to a list of lock
     // objects held by that transaction.
-    private Map<Long, List<Lock>> transactionLocks = new HashMap<>();
+    private Map<Long, List<Lock>> transactionLocks = new ConcurrentHashMap<>();
 
     // resourceEntries is a mapping from resource names to a ResourceEntry
     // object, which contains a list of Locks on the object, as well as a
     // queue for requests on that resource.
     //transactionLocks是从事务号到该事务持有的锁对象列表的映射。
-    private Map<ResourceName, ResourceEntry> resourceEntries = new HashMap<>();
+    private Map<ResourceName, ResourceEntry> resourceEntries = new ConcurrentHashMap<>();
+
+    // Lock types of each transaction looked up through lock contexts since
+    // the transaction's locks last changed. A transaction's cache is dropped
+    // whenever one of its locks is granted, changed or released.
+    private final Map<Long, LockTypeCache> lockTypeCaches = new ConcurrentHashMap<>();
+
+    // Contention statistics, by resource and lock type. Only requests that
+    // have to wait are counted, so uncontended requests don't pay for them.
+    private final Map<ResourceName, Map<LockType, LockWaitStats>> lockWaitStats = new ConcurrentHashMap<>();
+
+    /**
+     * Explicit and effective lock types of a transaction on lock contexts
+     * (see LockContext#getExplicitLockType, LockContext#getEffectiveLockType).
+     */
+    static class LockTypeCache {
+        final Map<LockContext, LockType> explicit = new ConcurrentHashMap<>();
+        final Map<LockContext, LockType> effective = new ConcurrentHashMap<>();
+    }
 
     // A ResourceEntry contains the list of locks on a resource, as well as
     // the queue for requests for locks on the resource.
@@ -51,6 +90,39 @@ public class LockManager {
         // Queue for yet-to-be-satisfied lock requests on this resource.
         //对该资源上尚未满足的锁请求进行排队。
         Deque<LockRequest> waitingQueue = new ArrayDeque<>();
+        // Intention locks granted on the fast path, by transaction number.
+        // These are not in `locks`.
+        final Map<Long, Lock> fastPathLocks = new ConcurrentHashMap<>();
+        // Whether requests on the resource have to go through `locks` and
+        // the queue. Only changed while the entry is latched.
+        volatile boolean slowPath;
+
+        /**
+         * Switches the resource to the slow path, moving all fast-path locks
+         * into `locks`. Called at the start of every slow-path operation.
+         */
+        void enterSlowPath() {
+            // The fast path adds its lock before it checks slowPath, and this
+            // sets slowPath before it looks for locks, so every fast-path lock
+            // is either seen here or given up by the fast path.
+            slowPath = true;
+            for (Long transNum : fastPathLocks.keySet()) {
+                Lock lock = fastPathLocks.remove(transNum);
+                if (lock != null) {
+                    locks.add(lock);
+                }
+            }
+        }
+
+        /**
+         * Switches the resource back to the fast path if it has no locks and
+         * no queue. Called at the end of every slow-path operation.
+         */
+        void exitSlowPath() {
+            if (locks.isEmpty() && waitingQueue.isEmpty()) {
+                slowPath = false;
+            }
+        }
 
         // Below are a list of helper methods we suggest you implement.
         // You're free to modify their type signatures, delete, or ignore them.
@@ -101,30 +173,22 @@ public class LockManager {
             }
             locks.add(i, lock);
             //遍历事务中的锁
-            List<Lock> locks = transactionLocks.getOrDefault(lock.transactionNum, new ArrayList<>());
-            for (int j=0; j<locks.size(); j++) {
-                if (locks.get(j).name.equals(lock.name)){
-                    locks.remove(j);
-                }
-            }
-            locks.add(lock);
-            transactionLocks.put(lock.transactionNum,locks);
+            updateTransactionLock(lock);
         }
 
         /**
          * Releases the lock `lock` and processes the queue. Assumes that the
-         * lock has been granted before.
+         * lock has been granted before. Locks to be released because a queued
+         * request was granted are added to `toRelease`.
          */
 
         //释放锁lock并处理队列。假设锁之前已经被授予。
-        public void releaseLock(Lock lock) {
+        public void releaseLock(Lock lock, Collection<Lock> toRelease) {
             // TODO(proj4_part1): implement
             locks.remove(lock);
             //删除事务中的锁
-            List<Lock> locks = transactionLocks.get(lock.transactionNum);
-            locks.remove(lock);
-            transactionLocks.put(lock.transactionNum,locks);
-            processQueue();
+            removeTransactionLock(lock);
+            processQueue(toRelease);
         }
 
         /**
@@ -138,15 +202,18 @@ public class LockManager {
             }else {
                 waitingQueue.addLast(request);
             }
+            getLockWaitStats(request.lock).recordQueued(waitingQueue.size());
         }
 
         /**
          * Grant locks to requests from front to back of the queue, stopping
          * when the next lock cannot be granted. Once a request is completely
          * granted, the transaction that made the request can be unblocked.
+         * The locks that granted requests release on other resources are added
+         * to `toRelease`, to be released once this entry's latch is released.
          */
         //将锁授予队列从前面到后面的请求，当无法授予下一个锁时停止。一旦请求完全被批准，发出请求的事务就可以解除阻塞。
-        private void processQueue() {
+        private void processQueue(Collection<Lock> toRelease) {
             Iterator<LockRequest> requests = waitingQueue.iterator();
 
             // TODO(proj4_part1): implement
@@ -156,14 +223,14 @@ public class LockManager {
                 //判断是否兼容
                 if (checkCompatible(next.lock.lockType, next.transaction.getTransNum())){
                     requests.remove();
-                    //解除阻塞
-                    next.transaction.unblock();
                     grantOrUpdateLock(next.lock);
                     for (Lock lock : next.releasedLocks) {
                         if (!next.lock.name.equals(lock.name)) {
-                            releaseLock(lock);
+                            toRelease.add(lock);
                         }
                     }
+                    //解除阻塞
+                    next.transaction.unblock();
                 }
             }
         }
@@ -189,15 +256,328 @@ public class LockManager {
     }
 
     // You should not modify or use this directly.
-    private Map<String, LockContext> contexts = new HashMap<>();
+    private Map<String, LockContext> contexts = new ConcurrentHashMap<>();
+
+    // Maximum time a request may wait in a queue, in milliseconds, or 0 to
+    // wait indefinitely.
+    private volatile long lockWaitTimeoutMillis = 0;
+
+    /**
+     * Sets the maximum time a lock request may wait in a queue before it is
+     * cancelled with a LockTimeoutException (and its transaction is marked
+     * rollback-only).
+     * @param lockWaitTimeoutMillis timeout in milliseconds, or 0 to wait
+     *                              indefinitely
+     */
+    public void setLockWaitTimeout(long lockWaitTimeoutMillis) {
+        if (lockWaitTimeoutMillis < 0) {
+            throw new IllegalArgumentException("lock wait timeout must not be negative");
+        }
+        this.lockWaitTimeoutMillis = lockWaitTimeoutMillis;
+    }
+
+    // Thresholds for automatic escalation: a transaction's locks on the
+    // children of a context are escalated once it holds escalationMaxChildLocks
+    // of them, or, if the context has a known capacity, escalationFraction of
+    // its capacity (but at least MIN_ESCALATION_CHILD_LOCKS).
+    static final int MIN_ESCALATION_CHILD_LOCKS = 10;
+    private volatile double escalationFraction = 0.2;
+    private volatile int escalationMaxChildLocks = 1000;
+
+    /**
+     * Sets the thresholds for automatic escalation (see
+     * LockUtil#ensureSufficientLockHeld).
+     * @param fraction fraction of a context's children a transaction may lock
+     *                 before escalating
+     * @param maxChildLocks number of children a transaction may lock before
+     *                      escalating, regardless of the context's capacity
+     */
+    public void setEscalationThresholds(double fraction, int maxChildLocks) {
+        if (fraction < 0 || maxChildLocks < 0) {
+            throw new IllegalArgumentException("escalation thresholds must not be negative");
+        }
+        this.escalationFraction = fraction;
+        this.escalationMaxChildLocks = maxChildLocks;
+    }
+
+    /**
+     * @return whether a transaction holding locks on numChildLocks children of
+     * `context` should escalate its lock on `context`
+     */
+    boolean shouldEscalate(LockContext context, int numChildLocks) {
+        if (numChildLocks >= escalationMaxChildLocks) {
+            return true;
+        }
+        if (numChildLocks < MIN_ESCALATION_CHILD_LOCKS) {
+            return false;
+        }
+        int capacity = context.capacity();
+        return capacity > 0 && numChildLocks >= escalationFraction * capacity;
+    }
 
     /**
      * Helper method to fetch the resourceEntry corresponding to `name`.
      * Inserts a new (empty) resourceEntry into the map if no entry exists yet.
      */
     private ResourceEntry getResourceEntry(ResourceName name) {
-        resourceEntries.putIfAbsent(name, new ResourceEntry());
-        return resourceEntries.get(name);
+        return resourceEntries.computeIfAbsent(name, k -> new ResourceEntry());
+    }
+
+    /**
+     * Gets the lock type cache of transaction `transNum`. Entries added to a
+     * cache after it is dropped are never seen again, so a lookup that races
+     * with a change to the transaction's locks can't leave a stale entry.
+     */
+    LockTypeCache getLockTypeCache(long transNum) {
+        return lockTypeCaches.computeIfAbsent(transNum, k -> new LockTypeCache());
+    }
+
+    /**
+     * Adds `lock` to the list of locks held by its transaction, replacing the
+     * transaction's lock on the same resource if there is one.
+     */
+    private void updateTransactionLock(Lock lock) {
+        List<Lock> locks = transactionLocks.computeIfAbsent(lock.transactionNum, k -> new ArrayList<>());
+        synchronized (locks) {
+            for (int j=0; j<locks.size(); j++) {
+                if (locks.get(j).name.equals(lock.name)){
+                    locks.remove(j);
+                }
+            }
+            locks.add(lock);
+        }
+        // after the lock is visible to getLockType
+        lockTypeCaches.remove(lock.transactionNum);
+    }
+
+    /**
+     * Removes `lock` from the list of locks held by its transaction.
+     */
+    private void removeTransactionLock(Lock lock) {
+        List<Lock> locks = transactionLocks.get(lock.transactionNum);
+        synchronized (locks) {
+            locks.remove(lock);
+        }
+        lockTypeCaches.remove(lock.transactionNum);
+    }
+
+    /**
+     * Blocks the transaction that made `request` until the request is
+     * granted, cancelled (see cancelRequest), or the lock wait timeout runs
+     * out. prepareBlock must have been called before the request was queued.
+     * @throws DeadlockException if the request was cancelled
+     * @throws LockTimeoutException if the request timed out
+     */
+    private void waitForLock(ResourceEntry resourceEntry, LockRequest request) {
+        TransactionContext transaction = request.transaction;
+        long timeout = lockWaitTimeoutMillis;
+        long start = System.nanoTime();
+        boolean timedOut = false;
+        if (timeout == 0) {
+            transaction.block();
+        } else if (!transaction.block(timeout)) {
+            // the request may have been granted or cancelled in the meantime
+            timedOut = cancelRequest(resourceEntry, request);
+        }
+        getLockWaitStats(request.lock).recordWait(System.nanoTime() - start);
+        if (timedOut) {
+            throw new LockTimeoutException("timed out waiting for " + request.lock);
+        }
+        if (request.cancelled) {
+            throw new DeadlockException("deadlock detected while waiting for " + request.lock);
+        }
+    }
+
+    /**
+     * Removes `request` from the queue of `resourceEntry` if it is still
+     * waiting there, marks its transaction rollback-only, and unblocks it.
+     * @return false if the request was not waiting anymore
+     */
+    private boolean cancelRequest(ResourceEntry resourceEntry, LockRequest request) {
+        List<Lock> toRelease = new ArrayList<>();
+        synchronized (resourceEntry) {
+            if (!resourceEntry.waitingQueue.remove(request)) {
+                return false;
+            }
+            request.cancelled = true;
+            request.transaction.setRollbackOnly();
+            // requests behind this one may be grantable now
+            resourceEntry.processQueue(toRelease);
+            resourceEntry.exitSlowPath();
+        }
+        request.transaction.unblock();
+        releaseLocks(toRelease);
+        return true;
+    }
+
+    /**
+     * Builds the waits-for graph: every transaction waiting in a queue maps to
+     * the transactions it waits for, which are those holding an incompatible
+     * lock on the resource, or ahead of it in the queue with an incompatible
+     * request. Resources are latched one at a time, so the graph is not an
+     * exact snapshot, but edges between deadlocked transactions don't change.
+     */
+    Map<Long, Set<Long>> getWaitsForGraph() {
+        Map<Long, Set<Long>> graph = new HashMap<>();
+        for (ResourceEntry resourceEntry : resourceEntries.values()) {
+            synchronized (resourceEntry) {
+                List<LockRequest> queue = new ArrayList<>(resourceEntry.waitingQueue);
+                for (int i = 0; i < queue.size(); ++i) {
+                    Lock waiting = queue.get(i).lock;
+                    Set<Long> edges = graph.computeIfAbsent(waiting.transactionNum, k -> new HashSet<>());
+                    for (Lock held : resourceEntry.locks) {
+                        if (!held.transactionNum.equals(waiting.transactionNum) &&
+                                !LockType.compatible(waiting.lockType, held.lockType)) {
+                            edges.add(held.transactionNum);
+                        }
+                    }
+                    for (int j = 0; j < i; ++j) {
+                        Lock ahead = queue.get(j).lock;
+                        if (!ahead.transactionNum.equals(waiting.transactionNum) &&
+                                !LockType.compatible(waiting.lockType, ahead.lockType)) {
+                            edges.add(ahead.transactionNum);
+                        }
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Cancels the lock request transaction `transNum` is waiting on, if any:
+     * the request is removed from its queue, and the transaction is marked
+     * rollback-only and gets a DeadlockException.
+     * @return false if the transaction was not waiting on a lock
+     */
+    boolean cancelWaitingRequest(long transNum) {
+        for (ResourceEntry resourceEntry : resourceEntries.values()) {
+            LockRequest request = null;
+            synchronized (resourceEntry) {
+                for (LockRequest r : resourceEntry.waitingQueue) {
+                    if (r.transaction.getTransNum() == transNum) {
+                        request = r;
+                        break;
+                    }
+                }
+            }
+            if (request != null) {
+                return cancelRequest(resourceEntry, request);
+            }
+        }
+        return false;
+    }
+
+    private LockWaitStats getLockWaitStats(Lock lock) {
+        return lockWaitStats.computeIfAbsent(lock.name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(lock.lockType, k -> new LockWaitStats(lock.name, lock.lockType));
+    }
+
+    /**
+     * Returns the contention statistics of every resource and lock type that
+     * a request had to wait for since the statistics were last reset, most
+     * waited on (by total wait time) first.
+     */
+    public List<LockWaitStats> getLockWaitStats() {
+        List<LockWaitStats> stats = new ArrayList<>();
+        for (Map<LockType, LockWaitStats> resourceStats : lockWaitStats.values()) {
+            stats.addAll(resourceStats.values());
+        }
+        stats.sort(Comparator.comparingLong(LockWaitStats::getTotalWaitNanos).reversed()
+                   .thenComparing(Comparator.comparingInt(LockWaitStats::getNumWaits).reversed()));
+        return stats;
+    }
+
+    /**
+     * Clears the contention statistics.
+     */
+    public void resetLockWaitStats() {
+        lockWaitStats.clear();
+    }
+
+    private static boolean isFastPathLockType(LockType lockType) {
+        return lockType == LockType.IS || lockType == LockType.IX;
+    }
+
+    /**
+     * Tries to grant `lockType` (an intention lock) on `name` to `transaction`
+     * on the fast path, which requires the transaction to hold no lock on
+     * `name`, and the resource to be on the fast path.
+     * @return false if the request has to go through the slow path
+     */
+    private boolean acquireFastPath(TransactionContext transaction, ResourceName name, LockType lockType) {
+        ResourceEntry resourceEntry = getResourceEntry(name);
+        if (resourceEntry.slowPath) {
+            return false;
+        }
+        Lock lock = new Lock(name, lockType, transaction.getTransNum());
+        if (resourceEntry.fastPathLocks.putIfAbsent(lock.transactionNum, lock) != null) {
+            return false;
+        }
+        // If the resource switched to the slow path in the meantime, either
+        // take the lock back, or find it was moved to the resource's locks
+        // (and is held).
+        if (resourceEntry.slowPath && resourceEntry.fastPathLocks.remove(lock.transactionNum, lock)) {
+            return false;
+        }
+        updateTransactionLock(lock);
+        return true;
+    }
+
+    /**
+     * Tries to promote `transaction`'s fast-path lock on `name` to
+     * `newLockType` (IS to IX) on the fast path.
+     * @return false if the request has to go through the slow path
+     */
+    private boolean promoteFastPath(TransactionContext transaction, ResourceName name, LockType newLockType) {
+        ResourceEntry resourceEntry = resourceEntries.get(name);
+        if (resourceEntry == null || newLockType != LockType.IX) {
+            return false;
+        }
+        Lock oldLock = resourceEntry.fastPathLocks.get(transaction.getTransNum());
+        if (oldLock == null || oldLock.lockType != LockType.IS) {
+            return false;
+        }
+        Lock lock = new Lock(name, newLockType, transaction.getTransNum());
+        // fails if the old lock was moved to the resource's locks
+        if (!resourceEntry.fastPathLocks.replace(lock.transactionNum, oldLock, lock)) {
+            return false;
+        }
+        updateTransactionLock(lock);
+        return true;
+    }
+
+    /**
+     * Tries to release `lock` on the fast path.
+     * @return false if the lock is not a fast-path lock (anymore)
+     */
+    private boolean releaseFastPath(Lock lock) {
+        ResourceEntry resourceEntry = resourceEntries.get(lock.name);
+        if (resourceEntry == null || !resourceEntry.fastPathLocks.remove(lock.transactionNum, lock)) {
+            return false;
+        }
+        removeTransactionLock(lock);
+        return true;
+    }
+
+    /**
+     * Releases every lock in `locks`, one resource at a time, along with the
+     * locks released by queued requests that are granted as a result.
+     */
+    private void releaseLocks(Collection<Lock> locks) {
+        Deque<Lock> toRelease = new ArrayDeque<>(locks);
+        while (!toRelease.isEmpty()) {
+            Lock lock = toRelease.poll();
+            if (releaseFastPath(lock)) {
+                continue;
+            }
+            ResourceEntry resourceEntry = getResourceEntry(lock.name);
+            synchronized (resourceEntry) {
+                resourceEntry.enterSlowPath();
+                resourceEntry.releaseLock(lock, toRelease);
+                resourceEntry.exitSlowPath();
+            }
+        }
     }
 
     /**
@@ -230,32 +610,36 @@ public class LockManager {
         // You may modify any part of this method. You are not required to keep
         // all your code within the given synchronized block and are allowed to
         // move the synchronized block elsewhere if you wish.
-        boolean shouldBlock = false;
-        synchronized (this) {
-            if (getLockType(transaction, name) == lockType){
+        long transNum = transaction.getTransNum();
+        List<Lock> releasedLocks = new ArrayList<>();
+        for (ResourceName releaseName : releaseNames) {
+            LockType type = getLockType(transaction, releaseName);
+            if (type == LockType.NL) {
+                throw new NoLockHeldException("no lock on 'name' held by 'transaction' ");
+            }
+            releasedLocks.add(new Lock(releaseName, type, transNum));
+        }
+        LockRequest request = null;
+        ResourceEntry resourceEntry = getResourceEntry(name);
+        synchronized (resourceEntry) {
+            resourceEntry.enterSlowPath();
+            if (resourceEntry.getTransactionLockType(transNum) == lockType){
+                resourceEntry.exitSlowPath();
                 throw new DuplicateLockRequestException("a lock on 'name' held by 'transaction' ");
             }
-            ResourceEntry resourceEntry = getResourceEntry(name);
-            if (resourceEntry.checkCompatible(lockType,transaction.getTransNum())){
-                resourceEntry.grantOrUpdateLock(new Lock(name,lockType,transaction.getTransNum()));
-                for (ResourceName releaseName : releaseNames) {
-                    LockType type = getLockType(transaction, releaseName);
-                    if (type == LockType.NL) {
-                        throw new NoLockHeldException("no lock on 'name' held by 'transaction' ");
-                    }
-                    if (releaseName.equals(name)){
-                        continue;
-                    }
-                    resourceEntries.get(releaseName).releaseLock(new Lock(releaseName, type, transaction.getTransNum()));
-                }
+            if (resourceEntry.checkCompatible(lockType, transNum)){
+                resourceEntry.grantOrUpdateLock(new Lock(name, lockType, transNum));
             } else{
-                shouldBlock = true;
-                resourceEntry.addToQueue(new LockRequest(transaction,new Lock(name,lockType,transaction.getTransNum())),true);
+                request = new LockRequest(transaction, new Lock(name, lockType, transNum), releasedLocks);
+                transaction.prepareBlock();
+                resourceEntry.addToQueue(request, true);
             }
         }
-        if (shouldBlock) {
-            transaction.prepareBlock();
-            transaction.block();
+        if (request != null) {
+            waitForLock(resourceEntry, request);
+        } else {
+            releasedLocks.removeIf(lock -> lock.name.equals(name));
+            releaseLocks(releasedLocks);
         }
     }
 
@@ -277,23 +661,28 @@ public class LockManager {
         // code within the given synchronized block and are allowed to move the
         // synchronized block elsewhere if you wish.
 
+        if (isFastPathLockType(lockType) && acquireFastPath(transaction, name, lockType)) {
+            return;
+        }
         //判断是否阻塞
-        boolean shouldBlock = false;
-        synchronized (this) {
-            if (getLockType(transaction,name) == lockType){
+        LockRequest request = null;
+        ResourceEntry resourceEntry = getResourceEntry(name);
+        synchronized (resourceEntry) {
+            resourceEntry.enterSlowPath();
+            if (resourceEntry.getTransactionLockType(transaction.getTransNum()) == lockType){
+                resourceEntry.exitSlowPath();
                 throw new DuplicateLockRequestException("a lock on 'name' held by 'transaction' ");
             }
-            ResourceEntry resourceEntry = getResourceEntry(name);
             if (resourceEntry.checkCompatible(lockType,transaction.getTransNum())){
                 resourceEntry.grantOrUpdateLock(new Lock(name,lockType,transaction.getTransNum()));
             } else{
-                shouldBlock = true;
-                resourceEntry.addToQueue(new LockRequest(transaction,new Lock(name,lockType,transaction.getTransNum())),false);
+                request = new LockRequest(transaction,new Lock(name,lockType,transaction.getTransNum()));
+                transaction.prepareBlock();
+                resourceEntry.addToQueue(request,false);
             }
         }
-        if (shouldBlock) {
-            transaction.prepareBlock();
-            transaction.block();
+        if (request != null) {
+            waitForLock(resourceEntry, request);
         }
     }
 
@@ -311,13 +700,23 @@ public class LockManager {
             throws NoLockHeldException {
         // TODO(proj4_part1): implement
         // You may modify any part of this method.
-        synchronized (this) {
-            LockType type = getLockType(transaction, name);
+        ResourceEntry resourceEntry = getResourceEntry(name);
+        Lock fastPathLock = resourceEntry.fastPathLocks.get(transaction.getTransNum());
+        if (fastPathLock != null && releaseFastPath(fastPathLock)) {
+            return;
+        }
+        List<Lock> toRelease = new ArrayList<>();
+        synchronized (resourceEntry) {
+            resourceEntry.enterSlowPath();
+            LockType type = resourceEntry.getTransactionLockType(transaction.getTransNum());
             if (type == LockType.NL){
+                resourceEntry.exitSlowPath();
                 throw new NoLockHeldException("no lock on 'name' is held by 'transaction'");
             }
-            getResourceEntry(name).releaseLock(new Lock(name, type, transaction.getTransNum()));
+            resourceEntry.releaseLock(new Lock(name, type, transaction.getTransNum()), toRelease);
+            resourceEntry.exitSlowPath();
         }
+        releaseLocks(toRelease);
     }
 
     /**
@@ -346,30 +745,37 @@ public class LockManager {
             throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
         // TODO(proj4_part1): implement
         // You may modify any part of this method.
-        boolean shouldBlock = false;
-        synchronized (this) {
-            ResourceEntry resourceEntry = getResourceEntry(name);
-            LockType type = getLockType(transaction, name);
+        if (promoteFastPath(transaction, name, newLockType)) {
+            return;
+        }
+        LockRequest request = null;
+        ResourceEntry resourceEntry = getResourceEntry(name);
+        synchronized (resourceEntry) {
+            resourceEntry.enterSlowPath();
+            LockType type = resourceEntry.getTransactionLockType(transaction.getTransNum());
             if (type == newLockType){
+                resourceEntry.exitSlowPath();
                 throw new DuplicateLockRequestException("a lock on 'name' held by 'transaction' ");
             }
             if (type == LockType.NL){
+                resourceEntry.exitSlowPath();
                 throw new NoLockHeldException("no lock on 'name' is held by 'transaction'");
             }
             if (LockType.canBeParentLock(type, newLockType)){
+                resourceEntry.exitSlowPath();
                 throw new InvalidLockException("not promotion");
             }
 
             if (resourceEntry.checkCompatible(newLockType,transaction.getTransNum())){
                 resourceEntry.grantOrUpdateLock(new Lock(name,newLockType,transaction.getTransNum()));
             }else{
-                shouldBlock =true;
-                resourceEntry.addToQueue(new LockRequest(transaction,new Lock(name,newLockType,transaction.getTransNum())),true);
+                request = new LockRequest(transaction,new Lock(name,newLockType,transaction.getTransNum()));
+                transaction.prepareBlock();
+                resourceEntry.addToQueue(request,true);
             }
         }
-        if (shouldBlock) {
-            transaction.prepareBlock();
-            transaction.block();
+        if (request != null) {
+            waitForLock(resourceEntry, request);
         }
     }
 
@@ -378,42 +784,65 @@ public class LockManager {
      * held.
      */
     //如果没有持有锁，则返回' transaction '在' name '或NL上拥有的锁类型。
-    public synchronized LockType getLockType(TransactionContext transaction, ResourceName name) {
+    public LockType getLockType(TransactionContext transaction, ResourceName name) {
         // TODO(proj4_part1): implement
-        return  getResourceEntry(name).getTransactionLockType(transaction.getTransNum());
+        ResourceEntry resourceEntry = resourceEntries.get(name);
+        if (resourceEntry == null) {
+            return LockType.NL;
+        }
+        // A fast-path lock is only ever moved to the resource's locks while
+        // the resource is latched, so it is found in one place or the other.
+        Lock fastPathLock = resourceEntry.fastPathLocks.get(transaction.getTransNum());
+        if (fastPathLock != null) {
+            return fastPathLock.lockType;
+        }
+        synchronized (resourceEntry) {
+            return resourceEntry.getTransactionLockType(transaction.getTransNum());
+        }
     }
 
     /**
-     * Returns the list of locks held on `name`, in order of acquisition.
+     * Returns the list of locks held on `name`, in order of acquisition
+     * (except that locks held on the fast path come last).
      */
-    public synchronized List<Lock> getLocks(ResourceName name) {
-        return new ArrayList<>(resourceEntries.getOrDefault(name, new ResourceEntry()).locks);
+    public List<Lock> getLocks(ResourceName name) {
+        ResourceEntry resourceEntry = resourceEntries.get(name);
+        if (resourceEntry == null) {
+            return new ArrayList<>();
+        }
+        synchronized (resourceEntry) {
+            List<Lock> locks = new ArrayList<>(resourceEntry.locks);
+            locks.addAll(resourceEntry.fastPathLocks.values());
+            return locks;
+        }
     }
 
     /**
      * Returns the list of locks held by `transaction`, in order of acquisition.
      */
-    public synchronized List<Lock> getLocks(TransactionContext transaction) {
-        return new ArrayList<>(transactionLocks.getOrDefault(transaction.getTransNum(),
-                Collections.emptyList()));
+    public List<Lock> getLocks(TransactionContext transaction) {
+        List<Lock> locks = transactionLocks.get(transaction.getTransNum());
+        if (locks == null) {
+            return new ArrayList<>();
+        }
+        synchronized (locks) {
+            return new ArrayList<>(locks);
+        }
     }
 
     /**
      * Creates a lock context. See comments at the top of this file and the top
      * of LockContext.java for more information.
      */
-    public synchronized LockContext context(String name) {
-        if (!contexts.containsKey(name)) {
-            contexts.put(name, new LockContext(this, null, name));
-        }
-        return contexts.get(name);
+    public LockContext context(String name) {
+        return contexts.computeIfAbsent(name, k -> new LockContext(this, null, name));
     }
 
     /**
      * Create a lock context for the database. See comments at the top of this
      * file and the top of LockContext.java for more information.
      */
-    public synchronized LockContext databaseContext() {
+    public LockContext databaseContext() {
         return context("database");
     }
 }
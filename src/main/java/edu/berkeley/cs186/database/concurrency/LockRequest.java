@@ -15,6 +15,8 @@ class LockRequest {
     TransactionContext transaction;
     Lock lock;
     List<Lock> releasedLocks;
+    // Set if the request was removed from the queue without being granted.
+    volatile boolean cancelled;
 
     // Lock request for `lock`, that is not releasing anything.
     LockRequest(TransactionContext transaction, Lock lock) {
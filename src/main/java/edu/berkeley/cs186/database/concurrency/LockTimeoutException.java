@@ -0,0 +1,12 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown to a transaction whose lock request was not granted within the lock
+ * manager's lock wait timeout. The transaction is marked rollback-only.
+ */
+@SuppressWarnings("serial")
+public class LockTimeoutException extends RuntimeException {
+    LockTimeoutException(String message) {
+        super(message);
+    }
+}
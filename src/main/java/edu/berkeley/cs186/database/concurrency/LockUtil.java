@@ -30,6 +30,12 @@ public class LockUtil {
      *
      * You may find it useful to create a helper method that ensures you have
      * the appropriate locks on all ancestors.
+     *
+     * Instead of taking yet another lock on a child of a context with a known
+     * capacity (e.g. a page of a table), the lock on the parent is escalated
+     * once the transaction holds locks on enough of its children (see
+     * LockManager#setEscalationThresholds), so that large scans take a
+     * single table lock rather than one lock per page.
      */
     public static void ensureSufficientLockHeld(LockContext lockContext, LockType requestType) {
         // requestType must be S, X, or NL
@@ -39,14 +45,39 @@ public class LockUtil {
         TransactionContext transaction = TransactionContext.getTransaction();
         if (transaction == null || lockContext == null) return;
 
+        // Snapshot transactions read old versions of pages instead of locking
+        // them, and may only write to their temporary tables
+        if (transaction.getSnapshot() != null) {
+            if (requestType == LockType.X && !(lockContext instanceof DummyLockContext)) {
+                throw new UnsupportedOperationException("read-only transaction");
+            }
+            return;
+        }
+
+        // Optimistic transactions record the pages they read instead of
+        // locking them, and only take the S locks when validating at commit
+        ReadSet readSet = transaction.getReadSet();
+        if (requestType == LockType.S && readSet != null && !readSet.isValidating()) {
+            return;
+        }
+
         // You may find these variables useful
         LockContext parentContext = lockContext.parentContext();
         LockType effectiveLockType = lockContext.getEffectiveLockType(transaction);
         LockType explicitLockType = lockContext.getExplicitLockType(transaction);
 
         // TODO(proj4_part2): implement
-        if (LockType.substitutable(explicitLockType,requestType)){
+        if (LockType.substitutable(explicitLockType,requestType) ||
+                LockType.substitutable(effectiveLockType,requestType)){
             return;
+        }else if (explicitLockType == LockType.NL && shouldEscalate(transaction, parentContext)) {
+            parentContext.escalate(transaction);
+            ensureSufficientLockHeld(parentContext, requestType);
+        }else if (explicitLockType == LockType.NL && parentContext != null &&
+                parentContext.capacity != null && isUnderSLock(transaction, parentContext)) {
+            // writing to a child of an escalated context: promote the
+            // escalated lock rather than locking the child under it
+            ensureSufficientLockHeld(parentContext, requestType);
         }else if (explicitLockType == LockType.IX&&requestType==LockType.S){
             lockContext.promote(transaction,LockType.SIX);
         } else if (explicitLockType.isIntent()) {
@@ -67,6 +98,29 @@ public class LockUtil {
     }
 
     // TODO(proj4_part2) add any helper methods you want
+    private static boolean shouldEscalate(TransactionContext transaction, LockContext parentContext) {
+        if (parentContext == null || parentContext.readonly || parentContext.capacity == null) {
+            return false;
+        }
+        // the lock on the parent could not be escalated
+        if (parentContext.getExplicitLockType(transaction) == LockType.NL) {
+            return false;
+        }
+        return parentContext.lockman.shouldEscalate(parentContext, parentContext.getNumChildren(transaction));
+    }
+
+    // whether the closest context to lockContext (itself included) that
+    // transaction holds a lock on is S-locked
+    private static boolean isUnderSLock(TransactionContext transaction, LockContext lockContext) {
+        for (LockContext ctx = lockContext; ctx != null; ctx = ctx.parentContext()) {
+            LockType lockType = ctx.getExplicitLockType(transaction);
+            if (lockType != LockType.NL) {
+                return lockType == LockType.S;
+            }
+        }
+        return false;
+    }
+
     private static void helper(TransactionContext transaction, LockContext lockContext, LockType requestType) {
         List<LockContext> list = new ArrayList<>();
         LockContext parentContext = lockContext.parentContext();
@@ -0,0 +1,86 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Contention statistics of a resource and lock type: how often requests for
+ * the lock type on the resource had to wait in the resource's queue, for how
+ * long, and how long the queue got. Collected by the LockManager (see
+ * LockManager#getLockWaitStats) to find the resources that transactions
+ * spend their time waiting on.
+ */
+public class LockWaitStats {
+    private final ResourceName name;
+    private final LockType lockType;
+    private int numWaits = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+    private int maxQueueLength = 0;
+
+    LockWaitStats(ResourceName name, LockType lockType) {
+        this.name = name;
+        this.lockType = lockType;
+    }
+
+    /**
+     * Records that a request was queued, making the queue queueLength long.
+     */
+    synchronized void recordQueued(int queueLength) {
+        ++numWaits;
+        maxQueueLength = Math.max(maxQueueLength, queueLength);
+    }
+
+    /**
+     * Records that a queued request waited for waitNanos nanoseconds (until
+     * it was granted, cancelled, or timed out).
+     */
+    synchronized void recordWait(long waitNanos) {
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+    }
+
+    public ResourceName getResourceName() {
+        return name;
+    }
+
+    public LockType getLockType() {
+        return lockType;
+    }
+
+    /**
+     * @return number of requests that were queued
+     */
+    public synchronized int getNumWaits() {
+        return numWaits;
+    }
+
+    /**
+     * @return total time queued requests waited, in milliseconds
+     */
+    public synchronized long getTotalWaitMillis() {
+        return totalWaitNanos / 1000000;
+    }
+
+    /**
+     * @return longest time a queued request waited, in milliseconds
+     */
+    public synchronized long getMaxWaitMillis() {
+        return maxWaitNanos / 1000000;
+    }
+
+    /**
+     * @return longest the resource's queue was when a request was queued
+     */
+    public synchronized int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+
+    synchronized long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s %s: %d waits, %d ms total, %d ms max, queue length %d max",
+                             name, lockType, numWaits, getTotalWaitMillis(), getMaxWaitMillis(),
+                             maxQueueLength);
+    }
+}
@@ -0,0 +1,113 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.io.PageException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * The pages read by an optimistic transaction, which takes no S locks while
+ * it runs (see Database#beginOptimisticTransaction), with the version of each
+ * page when it was first read (see BufferManager#getPageVersion).
+ *
+ * The transaction is validated when it commits: it takes S locks on the pages
+ * it read, waiting for transactions still writing to them to end, and then
+ * checks that none of them changed since it read them. Writes by the
+ * transaction itself are tracked so that they don't count as changes, unless
+ * another transaction changed the page between the read and the write.
+ */
+public class ReadSet {
+    private static class Entry {
+        // context to S-lock the page through when validating
+        private final LockContext lockContext;
+        private volatile long version;
+
+        private Entry(LockContext lockContext, long version) {
+            this.lockContext = lockContext;
+            this.version = version;
+        }
+    }
+
+    private final Map<Long, Entry> pages = new ConcurrentHashMap<>();
+    // set once the transaction overwrote a page that changed since it read it
+    private volatile boolean conflict = false;
+    private volatile boolean validating = false;
+
+    /**
+     * Records that the transaction read page pageNum at version `version`,
+     * unless it read the page before.
+     */
+    public void recordRead(LockContext lockContext, long pageNum, long version) {
+        if (lockContext instanceof DummyLockContext || pages.containsKey(pageNum)) {
+            // pages that are not locked (e.g. of temporary tables) are not
+            // shared with other transactions
+            return;
+        }
+        // pages of indices only have their index locked
+        while (lockContext.readonly && lockContext.parentContext() != null) {
+            lockContext = lockContext.parentContext();
+        }
+        pages.putIfAbsent(pageNum, new Entry(lockContext, version));
+    }
+
+    /**
+     * Records that the transaction wrote to page pageNum, which changed its
+     * version from oldVersion to newVersion.
+     */
+    public void recordWrite(long pageNum, long oldVersion, long newVersion) {
+        Entry entry = pages.get(pageNum);
+        if (entry == null) {
+            return;
+        }
+        if (entry.version != oldVersion) {
+            conflict = true;
+        }
+        entry.version = newVersion;
+    }
+
+    /**
+     * @return whether the transaction is taking the S locks to validate its
+     * reads (see LockUtil#ensureSufficientLockHeld)
+     */
+    boolean isValidating() {
+        return validating;
+    }
+
+    /**
+     * @return number of pages read
+     */
+    public int size() {
+        return pages.size();
+    }
+
+    /**
+     * Validates the transaction's reads: S-locks every page read, and checks
+     * that its version did not change. Must be called by the transaction.
+     *
+     * @param currentVersion current version of a page, by page number
+     * @throws ValidationException if a page changed since it was read
+     */
+    public void validate(LongUnaryOperator currentVersion) {
+        if (conflict) {
+            throw new ValidationException("a page read by the transaction was changed before it wrote to it");
+        }
+        validating = true;
+        for (Entry entry : pages.values()) {
+            LockUtil.ensureSufficientLockHeld(entry.lockContext, LockType.S);
+        }
+        for (Map.Entry<Long, Entry> e : pages.entrySet()) {
+            long pageNum = e.getKey();
+            long version;
+            try {
+                version = currentVersion.applyAsLong(pageNum);
+            } catch (PageException ex) {
+                // the page was freed
+                version = -1;
+            }
+            if (version != e.getValue().version) {
+                throw new ValidationException("page " + pageNum + " was changed after the transaction read it");
+            }
+        }
+    }
+}
@@ -2,7 +2,6 @@ package edu.berkeley.cs186.database.concurrency;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -12,20 +11,30 @@ import java.util.List;
  *
  * For example, a page may have the name ("database", "someTable", 10), where
  * "someTable" is the name of the table the page belongs to, and 10 is the page
- * number. We store this as the list ["database", "someTable", "10"] and its
- * ancestors on the hierarchy would be ["database"] (which represents the entire
- * database), and ["database", "someTable"] (which represents the the table,
- * of which this is a page of).
+ * number. Its ancestors on the hierarchy would be ("database") (which
+ * represents the entire database), and ("database", "someTable") (which
+ * represents the the table, of which this is a page of).
+ *
+ * Resource names are looked up in the lock manager on every lock request, so
+ * they are kept compact: each name only stores its last element and a
+ * reference to its parent's (shared, since names are immutable), along with
+ * a cached hash code. Numeric elements such as page numbers are stored as
+ * longs instead of strings, and other elements are interned, so comparing two
+ * names rarely compares any characters.
  */
 public class ResourceName {
-    private final List<String> names;
+    // Name of the parent resource, or null if this resource has no parent.
+    private final ResourceName parent;
+    // The last element of the name, or null if it is numeric.
+    private final String name;
+    // The last element of the name, if it is numeric.
+    private final long number;
+    // Number of elements in the name.
+    private final int depth;
+    private final int hash;
 
     public ResourceName(String name) {
-        this(Collections.singletonList(name));
-    }
-
-    private ResourceName(List<String> names) {
-        this.names = new ArrayList<>(names);
+        this(null, name);
     }
 
     /**
@@ -33,36 +42,63 @@ public class ResourceName {
      * @param name The name of this resource.
      */
     ResourceName(ResourceName parent, String name) {
-        this.names = new ArrayList<>(parent.names);
-        this.names.add(name);
+        this.parent = parent;
+        this.depth = parent == null ? 1 : parent.depth + 1;
+        // "10" and 10 have to be the same name
+        if (isNumber(name)) {
+            this.name = null;
+            this.number = Long.parseLong(name);
+        } else {
+            this.name = name.intern();
+            this.number = 0;
+        }
+        this.hash = computeHash();
     }
 
     /**
-     * @return null if this resource has no parent, a copy of this resource's
-     * parent ResourceName otherwise.
+     * @return whether `s` is the canonical string representation of a long
      */
-    ResourceName parent() {
-        if (names.size() > 1) {
-            return new ResourceName(names.subList(0, names.size() - 1));
+    private static boolean isNumber(String s) {
+        int length = s.length();
+        int start = length > 1 && s.charAt(0) == '-' ? 1 : 0;
+        // leading zeros (and "-0") would not round trip
+        if (length == start || length - start > 18 || (s.charAt(start) == '0' && length > 1)) {
+            return false;
         }
-        return null;
+        for (int i = start; i < length; ++i) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int computeHash() {
+        int h = name == null ? Long.hashCode(number) : name.hashCode();
+        return parent == null ? h : 31 * parent.hash + h;
+    }
+
+    /**
+     * @return null if this resource has no parent, this resource's parent
+     * ResourceName otherwise.
+     */
+    ResourceName parent() {
+        return parent;
     }
 
     /**
      * @return true if this resource is a descendant of `other`, false otherwise
      */
     boolean isDescendantOf(ResourceName other) {
-        if (other.names.size() >= names.size()) {
+        if (other.depth >= depth) {
             return false;
         }
-        Iterator<String> mine = names.iterator();
-        Iterator<String> others = other.names.iterator();
-        while (others.hasNext()) {
-            if (!mine.next().equals(others.next())) {
-                return false;
-            }
+        ResourceName ancestor = parent;
+        while (ancestor.depth > other.depth) {
+            ancestor = ancestor.parent;
         }
-        return true;
+        return ancestor.equals(other);
     }
 
     /**
@@ -70,33 +106,40 @@ public class ResourceName {
      * - ["database, "someTable", "10"]
      */
     List<String> getNames() {
+        List<String> names = new ArrayList<>(depth);
+        for (ResourceName n = this; n != null; n = n.parent) {
+            names.add(n.getLastName());
+        }
+        Collections.reverse(names);
         return names;
     }
 
+    private String getLastName() {
+        return name == null ? Long.toString(number) : name;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null) return false;
         if (!(o instanceof ResourceName)) return false;
         ResourceName other = (ResourceName) o;
-        if (other.names.size() != this.names.size()) return false;
-        for (int i = 0; i < other.names.size(); i++) {
-            if (!this.names.get(i).equals(other.names.get(i))) return false;
-        }
-        return true;
+        if (other.hash != this.hash || other.depth != this.depth) return false;
+        // names are interned
+        if (other.name != this.name || other.number != this.number) return false;
+        return parent == null || parent.equals(other.parent);
     }
 
     @Override
     public int hashCode() {
-        return names.hashCode();
+        return hash;
     }
 
     @Override
     public String toString() {
-        StringBuilder rn = new StringBuilder(names.get(0));
-        for (int i = 1; i < names.size(); ++i) {
-            rn.append('/').append(names.get(i));
+        if (parent == null) {
+            return getLastName();
         }
-        return rn.toString();
+        return parent.toString() + '/' + getLastName();
     }
-}
\ No newline at end of file
+}
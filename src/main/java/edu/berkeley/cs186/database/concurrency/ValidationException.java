@@ -0,0 +1,13 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown when an optimistic transaction fails validation at commit, because
+ * a page it read was changed by another transaction (see ReadSet). The
+ * transaction is rolled back, and can be retried.
+ */
+@SuppressWarnings("serial")
+public class ValidationException extends RuntimeException {
+    ValidationException(String message) {
+        super(message);
+    }
+}
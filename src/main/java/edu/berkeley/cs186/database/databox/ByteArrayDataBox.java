@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.databox;
 
+import java.util.Arrays;
+
 public class ByteArrayDataBox extends DataBox {
     byte[] bytes;
 
@@ -25,10 +27,46 @@ public class ByteArrayDataBox extends DataBox {
         return this.bytes;
     }
 
+    @Override
+    public byte[] getByteArray() {
+        return this.bytes;
+    }
+
+    // Byte arrays compare lexicographically, as unsigned bytes. This is the
+    // order of composite index keys (see index.CompositeKey).
     @Override
     public int compareTo(DataBox other) {
-        throw new RuntimeException("Cannot compare byte arrays");
+        if (!(other instanceof ByteArrayDataBox)) {
+            String err = String.format("Invalid comparison between %s and %s.",
+                                       toString(), other.toString());
+            throw new IllegalArgumentException(err);
+        }
+        byte[] otherBytes = ((ByteArrayDataBox) other).bytes;
+        for (int i = 0; i < Math.min(bytes.length, otherBytes.length); ++i) {
+            int cmp = Integer.compare(bytes[i] & 0xff, otherBytes[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(bytes.length, otherBytes.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof ByteArrayDataBox)) {
+            return false;
+        }
+        return Arrays.equals(bytes, ((ByteArrayDataBox) o).bytes);
     }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
     @Override
     public String toString() {
         return "byte_array";
@@ -4,10 +4,13 @@ import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.RecordId;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Optional;
 
@@ -217,6 +220,12 @@ abstract class BPlusNode {
     /** Get the page on which this node is persisted. */
     abstract Page getPage();
 
+    /**
+     * Whether this node is full, in which case putting a key into it (or the
+     * right node of a split child, for inner nodes) splits it.
+     */
+    abstract boolean isFull();
+
     // Pretty Printing /////////////////////////////////////////////////////////
     /**
      * S-expressions (or sexps) are a compact way of encoding nested tree-like
@@ -246,6 +255,76 @@ abstract class BPlusNode {
      */
     public abstract String toDot();
 
+    // Key Compression /////////////////////////////////////////////////////////
+    // String keys are padded to the declared length of their type, so trees
+    // with string keys (see BPlusTreeMetadata#compressesKeys) don't store them
+    // that way. Their leaves store the prefix shared by all of their keys once,
+    // followed by the rest of every key, without the padding. The split keys
+    // that leaves pass up to inner nodes are cut down to the shortest prefix of
+    // the right leaf's first key that is still greater than the left leaf's
+    // last key, which is all an inner node needs to tell the two apart.
+    //
+    // Since entries of these nodes take a variable number of bytes, a node of
+    // such a tree splits when it no longer fits on a page, rather than when it
+    // has more than 2d entries: it holds as many entries as fit.
+
+    /**
+     * Returns the key to split the keys up to and including `left` from the
+     * keys from `right` on, where left < right: `right` itself, or for a tree
+     * that compresses its keys, the shortest prefix of `right` greater than
+     * `left`. For example, the separator of "apple" and "apricot" is "apr".
+     */
+    static DataBox separator(BPlusTreeMetadata metadata, DataBox left, DataBox right) {
+        if (!metadata.compressesKeys()) {
+            return right;
+        }
+        String l = left.getString();
+        String r = right.getString();
+        // since l < r, r is longer than the prefix they share
+        String s = r.substring(0, commonPrefixLength(l, r) + 1);
+        return new StringDataBox(s, metadata.getKeySchema().getSizeInBytes());
+    }
+
+    /** Returns the length of the longest common prefix of `a` and `b`. */
+    static int commonPrefixLength(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            ++i;
+        }
+        return i;
+    }
+
+    /** Writes the length (2 bytes) and characters of `s` to `buf`. */
+    static void putString(ByteBuffer buf, String s) {
+        buf.putShort((short) s.length());
+        buf.put(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Reads a string written by putString from `buf`. */
+    static String getString(Buffer buf) {
+        byte[] bytes = new byte[buf.getShort()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Compares `s` to the string written by putString at `offset` in `buf`,
+     * like s.compareTo, without loading the string.
+     */
+    static int compareString(String s, Buffer buf, int offset) {
+        byte[] bytes = new byte[buf.getShort(offset)];
+        buf.get(bytes, offset + Short.BYTES, bytes.length);
+        int n = Math.min(s.length(), bytes.length);
+        for (int i = 0; i < n; ++i) {
+            int c = s.charAt(i) - (bytes[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return s.length() - bytes.length;
+    }
+
     // Serialization ///////////////////////////////////////////////////////////
     /** n.toBytes() serializes n. */
     public abstract byte[] toBytes();
@@ -255,20 +334,22 @@ abstract class BPlusNode {
      */
     public static BPlusNode fromBytes(BPlusTreeMetadata metadata, BufferManager bufferManager,
                                       LockContext treeContext, long pageNum) {
+        // The page is unpinned before it is loaded again: fetching a page while
+        // holding a pin can deadlock with another thread fetching the pinned page.
         Page p = bufferManager.fetchPage(treeContext, pageNum);
+        byte b;
         try {
-            Buffer buf = p.getBuffer();
-            byte b = buf.get();
-            if (b == 1) {
-                return LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
-            } else if (b == 0) {
-                return InnerNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
-            } else {
-                String msg = String.format("Unexpected byte %b.", b);
-                throw new IllegalArgumentException(msg);
-            }
+            b = p.getBuffer().get();
         } finally {
             p.unpin();
         }
+        if (b == 1) {
+            return LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
+        } else if (b == 0) {
+            return InnerNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
+        } else {
+            String msg = String.format("Unexpected byte %b.", b);
+            throw new IllegalArgumentException(msg);
+        }
     }
 }
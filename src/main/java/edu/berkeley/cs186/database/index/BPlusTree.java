@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
@@ -9,12 +10,17 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.RecordId;
 
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
 
 /**
  * A persistent B+ tree.
@@ -49,20 +55,41 @@ import java.util.*;
  *   fromDisk.get(new IntDataBox(0)); // Optional.empty()
  *   fromDisk.get(new IntDataBox(1)); // Optional.of(RecordId(1, 1))
  *   fromDisk.get(new IntDataBox(2)); // Optional.of(RecordId(2, 2))
+ *
+ * A B+ tree may be used by several threads at once. Operations latch the page
+ * of every node they visit (see BufferManager#getPageLatch), descending from
+ * the root and latching each child before releasing its parent, so that
+ * concurrent operations only wait on each other where their paths overlap:
+ *
+ *   - get and scans hold read latches, on at most a node and its parent at a
+ *     time. Scans latch one leaf at a time, and move on through the current
+ *     right sibling pointers, so they see keys that splits moved to new
+ *     leaves (keys only ever move right, since nodes never merge).
+ *   - put and remove first descend with read latches and only write latch
+ *     the leaf, which suffices unless the leaf is full. Otherwise, put
+ *     descends again with write latches, and keeps the latches of the
+ *     ancestors that may split (those above the lowest node that is not full).
+ *
+ * bulkLoad, toSexp and toDot must not run concurrently with other operations.
  */
 public class BPlusTree {
+    // Entries of leaves as returned by scanAll and scanGreaterEqual
+    private static final BiFunction<LeafNode, Integer, RecordId> ENTRY_RID =
+        (leaf, i) -> leaf.getRids().get(i);
+
     // Buffer manager
     private BufferManager bufferManager;
 
     // B+ tree metadata
     private BPlusTreeMetadata metadata;
 
-    // root of the B+ tree
-    private BPlusNode root;
-
     // lock context for the B+ tree
     private LockContext lockContext;
 
+    // The root node as last read, or null. Only read or replaced while the
+    // root is latched, and cleared by changes to the root.
+    private volatile BPlusNode cachedRoot;
+
     // Constructors ////////////////////////////////////////////////////////////
     /**
      * Construct a new B+ tree with metadata `metadata` and lock context `lockContext`.
@@ -99,7 +126,8 @@ public class BPlusTree {
             throw new BPlusTreeException(msg);
         }
 
-        int maxOrder = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema());
+        int maxOrder = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema(),
+                                          metadata.getIncludedSize());
         if (metadata.getOrder() > maxOrder) {
             String msg = String.format(
                     "You cannot construct a B+ tree with order %d greater than the " +
@@ -113,8 +141,7 @@ public class BPlusTree {
         this.metadata = metadata;
 
         if (this.metadata.getRootPageNum() != DiskSpaceManager.INVALID_PAGE_NUM) {
-            this.root = BPlusNode.fromBytes(this.metadata, bufferManager, lockContext,
-                    this.metadata.getRootPageNum());
+            this.cachedRoot = readNode(this.metadata.getRootPageNum());
         } else {
             // We're creating the root, which means we need exclusive access
             // on the tree
@@ -146,8 +173,14 @@ public class BPlusTree {
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
 
         // TODO(proj2): implement
-        LeafNode leafNode = root.get(key);
-        return leafNode.getKey(key);
+        return readLeaf(key, pageNum -> {
+            Page page = bufferManager.fetchPage(lockContext, pageNum);
+            try {
+                return LeafNode.find(metadata, page.getBuffer(), key);
+            } finally {
+                page.unpin();
+            }
+        });
     }
 
     /**
@@ -203,7 +236,7 @@ public class BPlusTree {
 
         // TODO(proj2): Return a BPlusTreeIterator.
         //按对应键的升序返回存储在B+树中的所有recordid的迭代器
-        return new BPlusTreeIterator();
+        return new BPlusTreeIterator<>(ENTRY_RID);
     }
 
     /**
@@ -235,7 +268,26 @@ public class BPlusTree {
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
 
         // TODO(proj2): Return a BPlusTreeIterator.
-        return new BPlusTreeIterator(key);
+        return new BPlusTreeIterator<>(key, ENTRY_RID);
+    }
+
+    /**
+     * Returns an iterator over the keys stored in the B+ tree that are greater
+     * than or equal to `key` (or over all keys, if key is null), in ascending
+     * order, paired with the values of the included columns stored with their
+     * record ids (see BPlusTreeMetadata#getIncludedColNames and put). Index-only
+     * scans read these instead of the records that the record ids point to.
+     *
+     * As for scanAll and scanGreaterEqual, the leaves are scanned lazily.
+     */
+    public Iterator<Pair<DataBox, byte[]>> scanIncluded(DataBox key) {
+        BiFunction<LeafNode, Integer, Pair<DataBox, byte[]>> entry =
+            (leaf, i) -> new Pair<>(leaf.getKeys().get(i), leaf.getIncluded().get(i));
+        if (key == null) {
+            return new BPlusTreeIterator<>(entry);
+        }
+        typecheck(key);
+        return new BPlusTreeIterator<>(key, entry);
     }
 
     /**
@@ -248,23 +300,85 @@ public class BPlusTree {
      *   tree.put(key, rid); // BPlusTreeException :(
      */
     public void put(DataBox key, RecordId rid) {
+        put(key, rid, new byte[0]);
+    }
+
+    /**
+     * Same as put(key, rid), but also stores `included`, the values of the
+     * tree's included columns (see BPlusTreeMetadata#getIncludedSize), with
+     * the record id. Trees with included columns must be put to this way.
+     */
+    public void put(DataBox key, RecordId rid, byte[] included) {
         typecheck(key);
+        if (included.length != metadata.getIncludedSize()) {
+            throw new BPlusTreeException(String.format(
+                "included columns take %d bytes, not %d", metadata.getIncludedSize(), included.length));
+        }
         // TODO(proj4_integration): Update the following line
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
 
         // TODO(proj2): implement
-        // Note: You should NOT update the root variable directly.
-        // Use the provided updateRoot() helper method to change
-        // the tree's root if the old root splits.
-        Optional<Pair<DataBox, Long>> pair = root.put(key, rid);
-        if(pair.isPresent()){
-            Pair<DataBox, Long> p = pair.get();
-            List<DataBox> keys = new ArrayList<>();
-            List<Long> children = new ArrayList<>();
-            keys.add(p.getFirst());
-            children.add(root.getPage().getPageNum());
-            children.add(p.getSecond());
-            updateRoot(new InnerNode(metadata,bufferManager,keys,children,lockContext));
+        boolean done = writeLeaf(key, leaf -> {
+            if (leaf.isFull() && !leaf.getKey(key).isPresent()) {
+                return false;
+            }
+            leaf.put(key, rid, included);
+            return true;
+        });
+        if (!done) {
+            putSplitting(key, rid, included);
+        }
+    }
+
+    /**
+     * Puts (key, rid) into a full leaf, splitting it and its ancestors as
+     * needed. Holds write latches on the path from the lowest ancestor that
+     * is not full down to the leaf.
+     */
+    private void putSplitting(DataBox key, RecordId rid, byte[] included) {
+        // latches of the nodes in `path`, and of the leaf
+        Deque<Lock> latches = new ArrayDeque<>();
+        // inner nodes that may split, from the highest down
+        List<InnerNode> path = new ArrayList<>();
+        try {
+            latches.addLast(latchRoot(true));
+            long rootPageNum = metadata.getRootPageNum();
+            boolean rootLatched = true;
+            BPlusNode node = readNode(rootPageNum);
+            while (node instanceof InnerNode) {
+                path.add((InnerNode) node);
+                long pageNum = ((InnerNode) node).getChildPageNum(key);
+                Lock latch = latch(pageNum, true);
+                node = readNode(pageNum);
+                if (!node.isFull()) {
+                    // the child does not split, so neither do its ancestors
+                    unlatchAll(latches);
+                    path.clear();
+                    rootLatched = false;
+                }
+                latches.addLast(latch);
+            }
+
+            Optional<Pair<DataBox, Long>> pair = ((LeafNode) node).put(key, rid, included);
+            for (int i = path.size() - 1; i >= 0 && pair.isPresent(); --i) {
+                pair = path.get(i).putSplitChild(key, pair.get());
+            }
+            if (pair.isPresent()) {
+                // the root split, so it is still latched
+                assert (rootLatched);
+                Pair<DataBox, Long> p = pair.get();
+                List<DataBox> keys = new ArrayList<>();
+                List<Long> children = new ArrayList<>();
+                keys.add(p.getFirst());
+                children.add(rootPageNum);
+                children.add(p.getSecond());
+                updateRoot(new InnerNode(metadata,bufferManager,keys,children,lockContext));
+            }
+            if (rootLatched) {
+                cachedRoot = null;
+            }
+        } finally {
+            unlatchAll(latches);
         }
     }
 
@@ -290,13 +404,14 @@ public class BPlusTree {
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
 
         // TODO(proj2): implement
-        // Note: You should NOT update the root variable directly.
-        // Use the provided updateRoot() helper method to change
-        // the tree's root if the old root splits.
         if (scanAll().hasNext()) {
             throw new BPlusTreeException("The tree is not empty!");
         }
+        if (metadata.getIncludedSize() > 0) {
+            throw new BPlusTreeException("cannot bulk load a tree with included columns");
+        }
 
+        BPlusNode root = readNode(metadata.getRootPageNum());
         while(data.hasNext()){
             Optional<Pair<DataBox, Long>> pair = root.bulkLoad(data, fillFactor);
             if (pair.isPresent()){
@@ -306,9 +421,11 @@ public class BPlusTree {
                 keys.add(p.getFirst());
                 children.add(root.getPage().getPageNum());
                 children.add(p.getSecond());
-                updateRoot(new InnerNode(metadata,bufferManager,keys,children,lockContext));
+                root = new InnerNode(metadata,bufferManager,keys,children,lockContext);
+                updateRoot(root);
             }
         }
+        cachedRoot = null;
     }
 
     /**
@@ -328,7 +445,13 @@ public class BPlusTree {
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
 
         // TODO(proj2): implement
-        root.remove(key);
+        // Nodes are not rebalanced, so removing only ever changes the leaf
+        while (!writeLeaf(key, leaf -> {
+            leaf.remove(key);
+            return true;
+        })) {
+            // the root split while it was latched again; retry
+        }
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
@@ -339,7 +462,7 @@ public class BPlusTree {
     public String toSexp() {
         // TODO(proj4_integration): Update the following line
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
-        return root.toSexp();
+        return readNode(metadata.getRootPageNum()).toSexp();
     }
 
     /**
@@ -361,7 +484,7 @@ public class BPlusTree {
         List<String> strings = new ArrayList<>();
         strings.add("digraph g {" );
         strings.add("  node [shape=record, height=0.1];");
-        strings.add(root.toDot());
+        strings.add(readNode(metadata.getRootPageNum()).toDot());
         strings.add("}");
         return String.join("\n", strings);
     }
@@ -406,7 +529,15 @@ public class BPlusTree {
      * with 2d entries and an InnerNode with 2d keys will fit on a single page.
      */
     public static int maxOrder(short pageSize, Type keySchema) {
-        int leafOrder = LeafNode.maxOrder(pageSize, keySchema);
+        return maxOrder(pageSize, keySchema, 0);
+    }
+
+    /**
+     * Same as above, for a tree whose leaves store includedSize bytes of
+     * included columns with each record id.
+     */
+    public static int maxOrder(short pageSize, Type keySchema, int includedSize) {
+        int leafOrder = LeafNode.maxOrder(pageSize, keySchema, includedSize);
         int innerOrder = InnerNode.maxOrder(pageSize, keySchema);
         return Math.min(leafOrder, innerOrder);
     }
@@ -417,12 +548,11 @@ public class BPlusTree {
     }
 
     /**
-     * Save the new root page number and update the tree's metadata.
+     * Save the new root page number and update the tree's metadata. Must be
+     * called with the old root write latched, if there is one.
      **/
     private void updateRoot(BPlusNode newRoot) {
-        this.root = newRoot;
-
-        metadata.setRootPageNum(this.root.getPage().getPageNum());
+        metadata.setRootPageNum(newRoot.getPage().getPageNum());
         metadata.incrementHeight();
         TransactionContext transaction = TransactionContext.getTransaction();
         if (transaction != null) {
@@ -438,49 +568,238 @@ public class BPlusTree {
         }
     }
 
+    private BPlusNode readNode(long pageNum) {
+        return BPlusNode.fromBytes(metadata, bufferManager, lockContext, pageNum);
+    }
+
+    // Latching ////////////////////////////////////////////////////////////////
+    private Lock latch(long pageNum, boolean exclusive) {
+        Lock latch = exclusive ? bufferManager.getPageLatch(pageNum).writeLock()
+                     : bufferManager.getPageLatch(pageNum).readLock();
+        latch.lock();
+        return latch;
+    }
+
+    /**
+     * Latches the root. The root can only change while it is write latched
+     * (see updateRoot), so metadata.getRootPageNum() is the latched page
+     * until the latch is released.
+     */
+    private Lock latchRoot(boolean exclusive) {
+        while (true) {
+            long rootPageNum = metadata.getRootPageNum();
+            Lock latch = latch(rootPageNum, exclusive);
+            if (metadata.getRootPageNum() == rootPageNum) {
+                return latch;
+            }
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Returns the root node. The root must be latched.
+     */
+    private BPlusNode readRoot() {
+        BPlusNode root = cachedRoot;
+        long rootPageNum = metadata.getRootPageNum();
+        if (root == null || root.getPage().getPageNum() != rootPageNum) {
+            root = readNode(rootPageNum);
+            cachedRoot = root;
+        }
+        return root;
+    }
+
+    private static void unlatchAll(Deque<Lock> latches) {
+        while (!latches.isEmpty()) {
+            latches.removeFirst().unlock();
+        }
+    }
+
+    /**
+     * Descends to the leaf that `key` belongs on (or the leftmost leaf, if
+     * `key` is null) with read latches.
+     *
+     * @return the leaf, as read while latched
+     */
+    private LeafNode readLeaf(DataBox key) {
+        return readLeaf(key, pageNum -> LeafNode.fromBytes(metadata, bufferManager, lockContext, pageNum));
+    }
+
+    /**
+     * Descends to the leaf that `key` belongs on (or the leftmost leaf, if
+     * `key` is null) with read latches, searching the inner nodes below the
+     * root in their pages rather than loading them (see findChild).
+     *
+     * @param read reads the leaf, given its page number, while it is latched
+     * @return the result of `read`
+     */
+    private <T> T readLeaf(DataBox key, LongFunction<T> read) {
+        Deque<Lock> latches = new ArrayDeque<>();
+        try {
+            latches.addLast(latchRoot(false));
+            long pageNum = metadata.getRootPageNum();
+            BPlusNode root = readRoot();
+            Optional<Long> child = root instanceof InnerNode
+                                   ? Optional.of(((InnerNode) root).getChildPageNum(key))
+                                   : Optional.empty();
+            while (child.isPresent()) {
+                pageNum = child.get();
+                latches.addLast(latch(pageNum, false));
+                latches.removeFirst().unlock();
+                child = findChild(pageNum, key);
+            }
+            return read.apply(pageNum);
+        } finally {
+            unlatchAll(latches);
+        }
+    }
+
+    /**
+     * Returns the page number of the child that `key` belongs in (or of the
+     * leftmost child, if `key` is null) of the node on page `pageNum`, found
+     * by binary searching the page without loading the node (see
+     * InnerNode#findChild), or Optional.empty() if the node is a leaf.
+     */
+    private Optional<Long> findChild(long pageNum, DataBox key) {
+        Page page = bufferManager.fetchPage(lockContext, pageNum);
+        try {
+            Buffer buf = page.getBuffer();
+            if (buf.get(0) == (byte) 1) {
+                return Optional.empty();
+            }
+            return Optional.of(InnerNode.findChild(metadata, buf, key));
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Reads the leaf on page `pageNum` with a read latch.
+     */
+    private LeafNode readLeafAt(long pageNum) {
+        Lock latch = latch(pageNum, false);
+        try {
+            return LeafNode.fromBytes(metadata, bufferManager, lockContext, pageNum);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Whether the node on page `pageNum` is a leaf, without reading the node.
+     */
+    private boolean isLeaf(long pageNum) {
+        Page page = bufferManager.fetchPage(lockContext, pageNum);
+        try {
+            return page.getBuffer().get() == (byte) 1;
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Descends to the leaf that `key` belongs on with read latches, and runs
+     * `write` on it with the leaf write latched. Children can not split while
+     * their parent is read latched, so the leaf is write latched before its
+     * parent's latch is released. `write` must not split the leaf, and
+     * returns false if it would have to.
+     *
+     * @return the result of `write`, or false if the root is a leaf that
+     * split before it could be latched again for writing
+     */
+    private boolean writeLeaf(DataBox key, Predicate<LeafNode> write) {
+        Lock latch = latchRoot(false);
+        try {
+            long pageNum = metadata.getRootPageNum();
+            BPlusNode node = readRoot();
+            if (node instanceof LeafNode) {
+                latch.unlock();
+                latch = null;
+                latch = latch(pageNum, true);
+                if (metadata.getRootPageNum() != pageNum) {
+                    return false;
+                }
+                cachedRoot = null;
+                return write.test(LeafNode.fromBytes(metadata, bufferManager, lockContext, pageNum));
+            }
+            pageNum = ((InnerNode) node).getChildPageNum(key);
+            while (true) {
+                boolean isLeaf = isLeaf(pageNum);
+                Lock childLatch = latch(pageNum, isLeaf);
+                latch.unlock();
+                latch = childLatch;
+                if (isLeaf) {
+                    return write.test(LeafNode.fromBytes(metadata, bufferManager, lockContext, pageNum));
+                }
+                pageNum = findChild(pageNum, key).get();
+            }
+        } finally {
+            if (latch != null) {
+                latch.unlock();
+            }
+        }
+    }
+
     // Iterator ////////////////////////////////////////////////////////////////
-    private class BPlusTreeIterator implements Iterator<RecordId> {
-        // TODO(proj2): Add whatever fields and constructors you want here.
-        //迭代器，叶子节点开始迭代，从最左边的节点迭代到最右边的节点
-        Iterator<RecordId> recordIds;
-        LeafNode leaf;
-
-        public BPlusTreeIterator() {
-            leaf = root.getLeftmostLeaf();
-            recordIds = leaf.scanAll();
+    private class BPlusTreeIterator<T> implements Iterator<T> {
+        // The leaf being scanned, as last read, and the index of the next
+        // entry in it to return.
+        private LeafNode leaf;
+        private int index;
+        // Entries with keys before `from` (or up to and including `from`, if
+        // not inclusive) are skipped. null to skip none.
+        private DataBox from;
+        private boolean inclusive;
+        // What to return for an entry of a leaf, e.g. its record id
+        private final BiFunction<LeafNode, Integer, T> entry;
+
+        public BPlusTreeIterator(BiFunction<LeafNode, Integer, T> entry) {
+            this.leaf = readLeaf(null);
+            this.index = 0;
+            this.entry = entry;
         }
 
-        public BPlusTreeIterator(DataBox key) {
-            leaf = root.get(key);
-            recordIds = leaf.scanGreaterEqual(key);
+        public BPlusTreeIterator(DataBox key, BiFunction<LeafNode, Integer, T> entry) {
+            this.entry = entry;
+            this.leaf = readLeaf(key);
+            this.from = key;
+            this.inclusive = true;
+            this.index = position(leaf);
         }
 
+        private int position(LeafNode leaf) {
+            if (from == null) {
+                return 0;
+            }
+            return inclusive ? InnerNode.numLessThan(from, leaf.getKeys())
+                   : InnerNode.numLessThanEqual(from, leaf.getKeys());
+        }
 
         @Override
         public boolean hasNext() {
             // TODO(proj2): implement
-            //判断的时候需要判断当前节点中还有无页，以及下一个节点是否为空
-            return recordIds.hasNext()||leaf.getRightSibling().isPresent();
+            while (index == leaf.getKeys().size()) {
+                // read the leaf again, for its current right sibling
+                LeafNode current = readLeafAt(leaf.getPage().getPageNum());
+                Optional<Long> rightSibling = current.getRightSiblingPageNum();
+                if (!rightSibling.isPresent()) {
+                    return false;
+                }
+                leaf = readLeafAt(rightSibling.get());
+                index = position(leaf);
+            }
+            return true;
         }
 
         @Override
-        public RecordId next() {
+        public T next() {
             // TODO(proj2): implement
-            //当前节点还有值
-            if(recordIds.hasNext()){
-                return recordIds.next();
-            }
-            Optional<LeafNode> rightSibling = leaf.getRightSibling();
-            if (rightSibling.isPresent()){
-                leaf = rightSibling.get();
-                //将下一个节点的迭代器给recordIds
-                recordIds = leaf.scanAll();
-                if (recordIds.hasNext()){
-                    return recordIds.next();
-                }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
-            //当前节点没有值，但是下一个节点不为空
-            throw new NoSuchElementException();
+            from = leaf.getKeys().get(index);
+            inclusive = false;
+            return entry.apply(leaf, index++);
         }
     }
 }
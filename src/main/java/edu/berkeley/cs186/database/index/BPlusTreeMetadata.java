@@ -1,26 +1,43 @@
 package edu.berkeley.cs186.database.index;
 
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.table.Record;
 
+import java.util.Collections;
+import java.util.List;
+
 /** Metadata about a B+ tree. */
 public class BPlusTreeMetadata {
     // Table for which this B+ tree is for
     private final String tableName;
 
-    // Column that this B+ tree uses as a search key
+    // Column that this B+ tree uses as a search key. Composite indices have
+    // several columns, separated by commas (see CompositeKey).
     private final String colName;
 
+    // Columns whose values the B+ tree stores with each of its record ids (the
+    // included columns of a covering index), separated by commas, or the empty
+    // string if none.
+    private final String includedColName;
+
     // B+ trees map keys (of some type) to record ids. This is the type of the
     // keys.
     private final Type keySchema;
 
+    // The size of the values of the included columns, which leaves store after
+    // each record id.
+    private final int includedSize;
+
     // The order of the tree. Given a tree of order d, its inner nodes store
     // between d and 2d keys and between d+1 and 2d+1 children pointers. Leaf
     // nodes store between d and 2d (key, record id) pairs. Notable exceptions
     // include the root node and leaf nodes that have been deleted from; these
-    // may contain fewer than d entries.
+    // may contain fewer than d entries. Nodes of trees that compress their keys
+    // (see compressesKeys) may also contain more than 2d entries, as many as
+    // fit on a page.
     private final int order;
 
     // The partition that the B+ tree allocates pages from. Every node of the B+ tree
@@ -28,16 +45,23 @@ public class BPlusTreeMetadata {
     private final int partNum;
 
     // The page number of the root node.
-    private long rootPageNum;
+    private volatile long rootPageNum;
 
     // The height of this tree.
-    private int height;
+    private volatile int height;
 
     public BPlusTreeMetadata(String tableName, String colName, Type keySchema, int order, int partNum,
                              long rootPageNum, int height) {
+        this(tableName, colName, "", keySchema, 0, order, partNum, rootPageNum, height);
+    }
+
+    public BPlusTreeMetadata(String tableName, String colName, String includedColName, Type keySchema,
+                             int includedSize, int order, int partNum, long rootPageNum, int height) {
         this.tableName = tableName;
         this.colName = colName;
+        this.includedColName = includedColName;
         this.keySchema = keySchema;
+        this.includedSize = includedSize;
         this.order = order;
         this.partNum = partNum;
         this.rootPageNum = rootPageNum;
@@ -54,6 +78,8 @@ public class BPlusTreeMetadata {
         int typeIdIndex = record.getValue(5).getInt();
         int typeSize = record.getValue(6).getInt();
         this.keySchema = new Type(TypeId.values()[typeIdIndex], typeSize);
+        this.includedColName = record.getValue(8).getString();
+        this.includedSize = record.getValue(9).getInt();
     }
 
     /**
@@ -61,9 +87,11 @@ public class BPlusTreeMetadata {
      * metadata about the tree (see Database#getIndexInfoSchema).
      */
     public Record toRecord() {
+        // strings are at least one byte, even when there are no included columns
+        DataBox included = new StringDataBox(includedColName, Math.max(1, includedColName.length()));
         return new Record(tableName, colName, order, partNum, rootPageNum,
                 keySchema.getTypeId().ordinal(), keySchema.getSizeInBytes(),
-                height
+                height, included, includedSize
         );
     }
 
@@ -75,6 +103,26 @@ public class BPlusTreeMetadata {
         return colName;
     }
 
+    /**
+     * @return the columns of the search key, of which there are several for
+     * composite indices
+     */
+    public List<String> getColNames() {
+        return CompositeKey.columns(colName);
+    }
+
+    /**
+     * @return the included columns of the tree, whose values it stores with
+     * each record id (see BPlusTree#scanIncluded), or an empty list if it has
+     * none
+     */
+    public List<String> getIncludedColNames() {
+        if (includedColName.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return CompositeKey.columns(includedColName);
+    }
+
     public String getName() {
         return tableName + "," + colName;
     }
@@ -83,10 +131,26 @@ public class BPlusTreeMetadata {
         return keySchema;
     }
 
+    /**
+     * @return the number of bytes of the values of the included columns
+     * stored with each record id
+     */
+    public int getIncludedSize() {
+        return includedSize;
+    }
+
     public int getOrder() {
         return order;
     }
 
+    /**
+     * @return whether the nodes of the tree compress their keys, which they
+     * do for string keys (see BPlusNode#separator and LeafNode#toBytes)
+     */
+    public boolean compressesKeys() {
+        return keySchema.getTypeId() == TypeId.STRING;
+    }
+
     public int getPartNum() {
         return partNum;
     }
@@ -0,0 +1,143 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.databox.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keys of composite indices, which are built on several columns of a table,
+ * e.g. (tenant_id, created_at). The index is named after its columns,
+ * separated by commas ("tenant_id,created_at").
+ *
+ * A composite key is a byte array (see ByteArrayDataBox) that concatenates
+ * the values of the columns, each encoded to as many bytes as its type has so
+ * that comparing the bytes, unsigned, compares the values:
+ *
+ *   - booleans are encoded to 0 or 1,
+ *   - ints and longs are encoded big endian, with their sign bit flipped,
+ *   - floats are encoded big endian, with their sign bit flipped if they are
+ *     positive and all of their bits flipped if they are negative, and
+ *   - strings are encoded as ascii, padded with null bytes.
+ *
+ * Keys therefore sort by their first column, then by their second, and so on,
+ * and the keys that start with given values for the first columns are next to
+ * each other in the index, starting at the key of only those values (see
+ * CompositeKey#of).
+ */
+public class CompositeKey {
+    public static final String SEPARATOR = ",";
+
+    private CompositeKey() {}
+
+    /**
+     * @return the name of a composite index on `columns`
+     */
+    public static String name(List<String> columns) {
+        return String.join(SEPARATOR, columns);
+    }
+
+    /**
+     * @return the columns of the index named `colName`
+     */
+    public static List<String> columns(String colName) {
+        return Arrays.asList(colName.split(SEPARATOR));
+    }
+
+    /**
+     * @return the type of the keys of a composite index on columns of types
+     * `columnTypes`
+     */
+    public static Type type(List<Type> columnTypes) {
+        int size = 0;
+        for (Type type : columnTypes) {
+            size += type.getSizeInBytes();
+        }
+        return Type.byteArrayType(size);
+    }
+
+    /**
+     * @param columnTypes types of the columns of the index
+     * @param values values of the first values.size() columns of the index
+     * @return the key of `values`. If values are given for only some of the
+     * columns, the key is the smallest key that starts with them.
+     */
+    public static DataBox of(List<Type> columnTypes, List<DataBox> values) {
+        if (values.size() > columnTypes.size()) {
+            throw new IllegalArgumentException("more values than columns in composite key");
+        }
+        Type type = type(columnTypes);
+        ByteBuffer buf = ByteBuffer.allocate(type.getSizeInBytes());
+        for (int i = 0; i < values.size(); ++i) {
+            put(buf, columnTypes.get(i), values.get(i));
+        }
+        return new ByteArrayDataBox(buf.array(), type.getSizeInBytes());
+    }
+
+    /**
+     * @param columnTypes types of the columns of the index
+     * @param key a key of the index
+     * @return the values of the columns that `key` is the key of
+     */
+    public static List<DataBox> values(List<Type> columnTypes, DataBox key) {
+        ByteBuffer buf = ByteBuffer.wrap(key.getByteArray());
+        List<DataBox> values = new ArrayList<>();
+        for (Type type : columnTypes) {
+            values.add(get(buf, type));
+        }
+        return values;
+    }
+
+    private static void put(ByteBuffer buf, Type type, DataBox value) {
+        switch (type.getTypeId()) {
+            case BOOL:
+                buf.put((byte) (value.getBool() ? 1 : 0));
+                break;
+            case INT:
+                buf.putInt(value.getInt() ^ Integer.MIN_VALUE);
+                break;
+            case LONG:
+                buf.putLong(value.getLong() ^ Long.MIN_VALUE);
+                break;
+            case FLOAT: {
+                int bits = Float.floatToIntBits(value.getFloat());
+                buf.putInt(bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE);
+                break;
+            }
+            case STRING: {
+                byte[] bytes = value.getString().getBytes(StandardCharsets.US_ASCII);
+                int n = type.getSizeInBytes();
+                buf.put(bytes, 0, Math.min(bytes.length, n));
+                buf.position(buf.position() + Math.max(0, n - bytes.length));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("cannot index columns of type " + type);
+        }
+    }
+
+    private static DataBox get(ByteBuffer buf, Type type) {
+        switch (type.getTypeId()) {
+            case BOOL:
+                return new BoolDataBox(buf.get() != 0);
+            case INT:
+                return new IntDataBox(buf.getInt() ^ Integer.MIN_VALUE);
+            case LONG:
+                return new LongDataBox(buf.getLong() ^ Long.MIN_VALUE);
+            case FLOAT: {
+                int bits = buf.getInt();
+                return new FloatDataBox(Float.intBitsToFloat(bits < 0 ? bits ^ Integer.MIN_VALUE : ~bits));
+            }
+            case STRING: {
+                byte[] bytes = new byte[type.getSizeInBytes()];
+                buf.get(bytes);
+                return new StringDataBox(new String(bytes, StandardCharsets.US_ASCII), bytes.length);
+            }
+            default:
+                throw new IllegalArgumentException("cannot index columns of type " + type);
+        }
+    }
+}
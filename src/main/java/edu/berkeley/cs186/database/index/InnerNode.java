@@ -4,6 +4,7 @@ import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
@@ -25,6 +26,10 @@ import java.util.*;
  *     | 10 | 20 | 30 |    |
  *     +----+----+----+----+
  *    /     |    |     \
+ *
+ * Inner nodes of trees with string keys store their keys without padding,
+ * and hold as many keys as fit on their page instead (see
+ * BPlusNode#separator).
  */
 class InnerNode extends BPlusNode {
     // Metadata about the B+ tree that this node belongs to.
@@ -62,7 +67,6 @@ class InnerNode extends BPlusNode {
     private InnerNode(BPlusTreeMetadata metadata, BufferManager bufferManager, Page page,
                       List<DataBox> keys, List<Long> children, LockContext treeContext) {
         try {
-            assert (keys.size() <= 2 * metadata.getOrder());
             assert (keys.size() + 1 == children.size());
 
             this.metadata = metadata;
@@ -71,6 +75,7 @@ class InnerNode extends BPlusNode {
             this.page = page;
             this.keys = new ArrayList<>(keys);
             this.children = new ArrayList<>(children);
+            assert (!overflows());
             sync();
         } finally {
             page.unpin();
@@ -104,40 +109,59 @@ class InnerNode extends BPlusNode {
         BPlusNode child = getChild(i);
         Optional<Pair<DataBox, Long>> pair = child.put(key, rid);
         if(pair.isPresent()){
-            Pair<DataBox, Long> p = pair.get();
-            keys.add(i, p.getFirst());
-            children.add(i+1,p.getSecond());
-            int order = metadata.getOrder();
-            if (keys.size()<= 2*order){
-                sync();
-                return Optional.empty();
-            }
-            assert(keys.size() == 2*order+1);
-            //中间的key要上提
-            List<DataBox> leftKeys = keys.subList(0, order);
-            List<DataBox> rightKeys = keys.subList(order+1, order*2+1);
-            List<Long> leftChildren = children.subList(0, order + 1);
-            List<Long> rightChildren = children.subList(order+1, 2*order +2);
-            //上提的关键字
-            DataBox rootKey = keys.get(order);
-            keys = leftKeys;
-            children = leftChildren;
-            sync();
-            return Optional.of(new Pair<>(rootKey,new InnerNode(metadata,bufferManager,rightKeys,rightChildren,treeContext).getPage().getPageNum()));
+            return putChild(i, pair.get());
         }else{
             sync();
             return Optional.empty();
         }
     }
 
+    /**
+     * Puts the split key and right node of a child that split (see put) into
+     * this node, where `key` is the key whose put split the child. Returns the
+     * split key and right node of this node if it splits too, like put.
+     */
+    Optional<Pair<DataBox, Long>> putSplitChild(DataBox key, Pair<DataBox, Long> split) {
+        return putChild(numLessThanEqual(key, keys), split);
+    }
+
+    private Optional<Pair<DataBox, Long>> putChild(int i, Pair<DataBox, Long> p) {
+        keys.add(i, p.getFirst());
+        children.add(i+1,p.getSecond());
+        if (!overflows()){
+            sync();
+            return Optional.empty();
+        }
+        return split();
+    }
+
+    /**
+     * Splits this node, which overflows, in two: moves the keys after its
+     * middle key to a new right node, and returns the middle key and the page
+     * number of the right node.
+     */
+    private Optional<Pair<DataBox, Long>> split() {
+        int mid = splitIndex();
+        //中间的key要上提
+        List<DataBox> leftKeys = keys.subList(0, mid);
+        List<DataBox> rightKeys = keys.subList(mid + 1, keys.size());
+        List<Long> leftChildren = children.subList(0, mid + 1);
+        List<Long> rightChildren = children.subList(mid + 1, children.size());
+        //上提的关键字
+        DataBox rootKey = keys.get(mid);
+        keys = leftKeys;
+        children = leftChildren;
+        sync();
+        return Optional.of(new Pair<>(rootKey,new InnerNode(metadata,bufferManager,rightKeys,rightChildren,treeContext).getPage().getPageNum()));
+    }
+
     // See BPlusNode.bulkLoad.
     @Override
     public Optional<Pair<DataBox, Long>> bulkLoad(Iterator<Pair<DataBox, RecordId>> data,
             float fillFactor) {
         // TODO(proj2): implement
-        int order = metadata.getOrder();
         //innerNode反复加载在最右边的子节点，直到内部节点满了
-        while(data.hasNext()&&keys.size()<= order * 2) {
+        while(data.hasNext()&&!overflows()) {
             BPlusNode child = getChild(children.size() - 1);
             //返回值存在，则需要加在键列表中
             Optional<Pair<DataBox, Long>> pair = child.bulkLoad(data, fillFactor);
@@ -148,18 +172,8 @@ class InnerNode extends BPlusNode {
             }
         }
         //当键的大小大于2倍的阶时
-        if(keys.size()>order*2){
-            //中间的key要上提
-            List<DataBox> leftKeys = keys.subList(0, order);
-            List<DataBox> rightKeys = keys.subList(order + 1, 2 * order + 1);
-            List<Long> leftChildren = children.subList(0, order + 1);
-            List<Long> rightChildren = children.subList(order + 1, 2 * order + 2);
-            //上提的关键字
-            DataBox rootKey = keys.get(order);
-            keys = leftKeys;
-            children = leftChildren;
-            sync();
-            return Optional.of(new Pair<>(rootKey,new InnerNode(metadata,bufferManager,rightKeys,rightChildren,treeContext).getPage().getPageNum()));
+        if(overflows()){
+            return split();
         }else{
             sync();
             return Optional.empty();
@@ -182,6 +196,77 @@ class InnerNode extends BPlusNode {
         return page;
     }
 
+    @Override
+    boolean isFull() {
+        if (metadata.compressesKeys()) {
+            int keySize = metadata.getKeySchema().getSizeInBytes();
+            int maxEntrySize = 2 * Short.BYTES + keySize + Long.BYTES;
+            return serializedSize() + maxEntrySize > BufferManager.EFFECTIVE_PAGE_SIZE;
+        }
+        return keys.size() >= 2 * metadata.getOrder();
+    }
+
+    /**
+     * Returns whether this node has too many keys to fit on its page: more
+     * than 2d, or for a tree that compresses its keys, more than fit.
+     */
+    private boolean overflows() {
+        if (metadata.compressesKeys()) {
+            return serializedSize() > BufferManager.EFFECTIVE_PAGE_SIZE;
+        }
+        return keys.size() > 2 * metadata.getOrder();
+    }
+
+    /**
+     * Returns the index of the key that moves up when this node splits: the
+     * middle key, or for a tree that compresses its keys, the key that splits
+     * the bytes of the node most evenly (its keys vary in size).
+     */
+    private int splitIndex() {
+        if (!metadata.compressesKeys() || keys.size() < 3) {
+            return keys.size() / 2;
+        }
+        int best = 1;
+        int bestSize = Integer.MAX_VALUE;
+        for (int i = 1; i < keys.size() - 1; ++i) {
+            int size = Math.max(serializedSize(0, i), serializedSize(i + 1, keys.size()));
+            if (size < bestSize) {
+                best = i;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the number of bytes toBytes serializes this node to. */
+    private int serializedSize() {
+        return serializedSize(0, keys.size());
+    }
+
+    /**
+     * Returns the number of bytes toBytes would serialize a node with the keys
+     * of this node from index `from` (inclusive) to `to` (exclusive), and the
+     * children around them, to.
+     */
+    private int serializedSize(int from, int to) {
+        int size = 1 + Integer.BYTES + Long.BYTES * (to - from + 1);
+        if (!metadata.compressesKeys()) {
+            return size + metadata.getKeySchema().getSizeInBytes() * (to - from);
+        }
+        for (int i = from; i < to; ++i) {
+            size += 2 * Short.BYTES + keys.get(i).getString().length();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the page number of the child that `key` belongs in, or of the
+     * leftmost child if `key` is null.
+     */
+    long getChildPageNum(DataBox key) {
+        return children.get(key == null ? 0 : numLessThanEqual(key, keys));
+    }
+
     private BPlusNode getChild(int i) {
         long pageNum = children.get(i);
         return BPlusNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
@@ -195,7 +280,7 @@ class InnerNode extends BPlusNode {
             byte[] bytes = new byte[newBytes.length];
             b.get(bytes);
             if (!Arrays.equals(bytes, newBytes)) {
-                page.getBuffer().put(toBytes());
+                page.getBuffer().put(newBytes);
             }
         } finally {
             page.unpin();
@@ -270,27 +355,33 @@ class InnerNode extends BPlusNode {
      * a, b, c).
      */
     static <T extends Comparable<T>> int numLessThanEqual(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) <= 0) {
-                ++n;
+        // binary search for the first element greater than x
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) <= 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
     }
 
     static <T extends Comparable<T>> int numLessThan(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) < 0) {
-                ++n;
+        // binary search for the first element greater than or equal to x
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) < 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
     }
 
     // Pretty Printing /////////////////////////////////////////////////////////
@@ -371,25 +462,37 @@ class InnerNode extends BPlusNode {
         //
         // represent an inner node with one key (i.e. 1) and two children pointers
         // (i.e. page 3 and page 7).
+        //
+        // If the tree compresses its keys, the children pointers come before
+        // the keys, followed by the offset (2 bytes) in the page of every key,
+        // and every key is stored as its length (2 bytes) and characters,
+        // without padding. The offsets let findChild binary search the keys,
+        // which vary in size.
 
-        // All sizes are in bytes.
-        assert (keys.size() <= 2 * metadata.getOrder());
+        assert (!overflows());
         assert (keys.size() + 1 == children.size());
-        int isLeafSize = 1;
-        int numKeysSize = Integer.BYTES;
-        int keysSize = metadata.getKeySchema().getSizeInBytes() * keys.size();
-        int childrenSize = Long.BYTES * children.size();
-        int size = isLeafSize + numKeysSize + keysSize + childrenSize;
 
-        ByteBuffer buf = ByteBuffer.allocate(size);
+        ByteBuffer buf = ByteBuffer.allocate(serializedSize());
         buf.put((byte) 0);
         buf.putInt(keys.size());
-        for (DataBox key : keys) {
-            buf.put(key.toBytes());
+        if (!metadata.compressesKeys()) {
+            for (DataBox key : keys) {
+                buf.put(key.toBytes());
+            }
+            for (Long child : children) {
+                buf.putLong(child);
+            }
+            return buf.array();
         }
         for (Long child : children) {
             buf.putLong(child);
         }
+        int offsets = buf.position();
+        buf.position(offsets + Short.BYTES * keys.size());
+        for (int i = 0; i < keys.size(); ++i) {
+            buf.putShort(offsets + Short.BYTES * i, (short) buf.position());
+            BPlusNode.putString(buf, keys.get(i).getString());
+        }
         return buf.array();
     }
 
@@ -407,15 +510,65 @@ class InnerNode extends BPlusNode {
         List<DataBox> keys = new ArrayList<>();
         List<Long> children = new ArrayList<>();
         int n = buf.getInt();
-        for (int i = 0; i < n; ++i) {
-            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
-        }
-        for (int i = 0; i < n + 1; ++i) {
-            children.add(buf.getLong());
+        if (metadata.compressesKeys()) {
+            int keySize = metadata.getKeySchema().getSizeInBytes();
+            for (int i = 0; i < n + 1; ++i) {
+                children.add(buf.getLong());
+            }
+            buf.position(buf.position() + Short.BYTES * n);
+            for (int i = 0; i < n; ++i) {
+                keys.add(new StringDataBox(BPlusNode.getString(buf), keySize));
+            }
+        } else {
+            for (int i = 0; i < n; ++i) {
+                keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            }
+            for (int i = 0; i < n + 1; ++i) {
+                children.add(buf.getLong());
+            }
         }
         return new InnerNode(metadata, bufferManager, page, keys, children, treeContext);
     }
 
+    /**
+     * Returns the page number of the child that `key` belongs in (or of the
+     * leftmost child if `key` is null) of the inner node serialized in `buf`.
+     * Unlike fromBytes(...).getChildPageNum(key), this binary searches the
+     * serialized keys, and only loads the keys it compares and the child.
+     */
+    static long findChild(BPlusTreeMetadata metadata, Buffer buf, DataBox key) {
+        assert (buf.get(0) == (byte) 0);
+        int n = buf.getInt(1);
+        int keysStart = 1 + Integer.BYTES;
+        int keySize = metadata.getKeySchema().getSizeInBytes();
+        // the number of keys less than or equal to key
+        int lo = 0;
+        if (key != null) {
+            String s = metadata.compressesKeys() ? key.getString() : null;
+            int offsets = keysStart + Long.BYTES * (n + 1);
+            int hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int c;
+                if (metadata.compressesKeys()) {
+                    c = BPlusNode.compareString(s, buf, buf.getShort(offsets + Short.BYTES * mid));
+                } else {
+                    buf.position(keysStart + mid * keySize);
+                    c = key.compareTo(DataBox.fromBytes(buf, metadata.getKeySchema()));
+                }
+                if (c >= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+        }
+        if (metadata.compressesKeys()) {
+            return buf.getLong(keysStart + Long.BYTES * lo);
+        }
+        return buf.getLong(keysStart + keySize * n + Long.BYTES * lo);
+    }
+
     // Builtins ////////////////////////////////////////////////////////////////
     @Override
     public boolean equals(Object o) {
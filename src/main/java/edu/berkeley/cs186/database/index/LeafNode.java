@@ -4,6 +4,7 @@ import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
@@ -26,6 +27,13 @@ import java.util.*;
  *   +-------+-------+-------+-------+     +-------+-------+-------+-------+
  *   | k0:r0 | k1:r1 | k2:r2 |       | --> | k3:r3 | k4:r4 |       |       |
  *   +-------+-------+-------+-------+     +-------+-------+-------+-------+
+ *
+ * Leaves of trees with string keys prefix compress their keys, and hold as
+ * many entries as fit on their page instead (see BPlusNode#separator).
+ *
+ * Leaves of trees with included columns (see BPlusTreeMetadata#getIncludedSize)
+ * also store the values of the included columns of every entry after its
+ * record id.
  */
 class LeafNode extends BPlusNode {
     // Metadata about the B+ tree that this node belongs to.
@@ -102,6 +110,10 @@ class LeafNode extends BPlusNode {
     private List<DataBox> keys;
     private List<RecordId> rids;
 
+    // The serialized values of the included columns of each entry, which are
+    // empty if the tree has no included columns.
+    private List<byte[]> included;
+
     // If this leaf is the rightmost leaf, then rightSibling is Optional.empty().
     // Otherwise, rightSibling is Optional.of(n) where n is the page number of
     // this leaf's right sibling.
@@ -115,8 +127,20 @@ class LeafNode extends BPlusNode {
      */
     LeafNode(BPlusTreeMetadata metadata, BufferManager bufferManager, List<DataBox> keys,
              List<RecordId> rids, Optional<Long> rightSibling, LockContext treeContext) {
+        this(metadata, bufferManager, keys, rids,
+             Collections.nCopies(keys.size(), new byte[metadata.getIncludedSize()]),
+             rightSibling, treeContext);
+    }
+
+    /**
+     * Same as above, but with the values `included` of the included columns of
+     * the entries.
+     */
+    LeafNode(BPlusTreeMetadata metadata, BufferManager bufferManager, List<DataBox> keys,
+             List<RecordId> rids, List<byte[]> included, Optional<Long> rightSibling,
+             LockContext treeContext) {
         this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getPartNum()),
-             keys, rids,
+             keys, rids, included,
              rightSibling, treeContext);
     }
 
@@ -124,11 +148,11 @@ class LeafNode extends BPlusNode {
      * Construct a leaf node that is persisted to page `page`.
      */
     private LeafNode(BPlusTreeMetadata metadata, BufferManager bufferManager, Page page,
-                     List<DataBox> keys,
-                     List<RecordId> rids, Optional<Long> rightSibling, LockContext treeContext) {
+                     List<DataBox> keys, List<RecordId> rids, List<byte[]> included,
+                     Optional<Long> rightSibling, LockContext treeContext) {
         try {
             assert (keys.size() == rids.size());
-            assert (keys.size() <= 2 * metadata.getOrder());
+            assert (keys.size() == included.size());
 
             this.metadata = metadata;
             this.bufferManager = bufferManager;
@@ -136,7 +160,9 @@ class LeafNode extends BPlusNode {
             this.page = page;
             this.keys = new ArrayList<>(keys);
             this.rids = new ArrayList<>(rids);
+            this.included = new ArrayList<>(included);
             this.rightSibling = rightSibling;
+            assert (!overflows());
 
             sync();
         } finally {
@@ -163,32 +189,47 @@ class LeafNode extends BPlusNode {
     @Override
     public Optional<Pair<DataBox, Long>> put(DataBox key, RecordId rid) {
         // TODO(proj2): implement
-        if (keys.contains(key)){
+        return put(key, rid, new byte[metadata.getIncludedSize()]);
+    }
+
+    /**
+     * Same as put(key, rid), but stores the values `included` of the included
+     * columns with the record id.
+     */
+    Optional<Pair<DataBox, Long>> put(DataBox key, RecordId rid, byte[] included) {
+        assert (included.length == metadata.getIncludedSize());
+        int i = Collections.binarySearch(keys, key);
+        if (i >= 0){
             throw new BPlusTreeException("key is exist");
         }
-        int i = InnerNode.numLessThanEqual(key, keys);
+        i = -i - 1;
         keys.add(i,key);
         rids.add(i,rid);
-        int order = metadata.getOrder();
-        if (keys.size()<= 2*order){
+        this.included.add(i, included);
+        if (!overflows()){
             sync();
             return Optional.empty();
         }
         //溢出
-        assert(keys.size()==2*order+1);
-        List<DataBox> leftKeys = keys.subList(0, order);
-        List<DataBox> rightKeys = keys.subList(order, 2 * order+1);
-        List<RecordId> leftRids = rids.subList(0, order);
-        List<RecordId> rightRids = rids.subList(order, 2 * order+ 1);
-
+        int mid = splitIndex();
+        List<DataBox> leftKeys = keys.subList(0, mid);
+        List<DataBox> rightKeys = keys.subList(mid, keys.size());
+        List<RecordId> leftRids = rids.subList(0, mid);
+        List<RecordId> rightRids = rids.subList(mid, rids.size());
+        List<byte[]> leftIncluded = this.included.subList(0, mid);
+        List<byte[]> rightIncluded = this.included.subList(mid, this.included.size());
+        DataBox splitKey = BPlusNode.separator(metadata, leftKeys.get(mid - 1), rightKeys.get(0));
+
+        LeafNode leafNode = new LeafNode(metadata, bufferManager, rightKeys, rightRids, rightIncluded,
+                                         rightSibling, treeContext);
         keys = leftKeys;
         rids = leftRids;
-        LeafNode leafNode = new LeafNode(metadata, bufferManager, rightKeys, rightRids, rightSibling, treeContext);
+        this.included = leftIncluded;
         long pageNum = leafNode.getPage().getPageNum();
         rightSibling = Optional.of(pageNum);
         sync();
         //返回右边节点最左边的
-        return Optional.of(new Pair<>(rightKeys.get(0),pageNum));
+        return Optional.of(new Pair<>(splitKey,pageNum));
     }
 
     // See BPlusNode.bulkLoad.
@@ -196,46 +237,40 @@ class LeafNode extends BPlusNode {
     public Optional<Pair<DataBox, Long>> bulkLoad(Iterator<Pair<DataBox, RecordId>> data,
             float fillFactor) {
         // TODO(proj2): implement
-        //计算应该向上取整
-        //fillFactor代表了2*阶数个键里面应该有几个键，表示比例
-        //所以fillFactor*2*metadata.getOrder()表示键数
-        int order = metadata.getOrder();
-        int fullFactor =(int) Math.ceil(2*order*fillFactor);
-
-        while(data.hasNext()&&keys.size()<fullFactor) {
+        while (data.hasNext()) {
             Pair<DataBox, RecordId> p = data.next();
             keys.add(p.getFirst());
             rids.add(p.getSecond());
+            included.add(new byte[metadata.getIncludedSize()]);
+            if (overfills(fillFactor)) {
+                //根据后面的键生成右节点
+                keys.remove(keys.size() - 1);
+                rids.remove(rids.size() - 1);
+                included.remove(included.size() - 1);
+                List<DataBox> rightKeys = Collections.singletonList(p.getFirst());
+                List<RecordId> rightRids = Collections.singletonList(p.getSecond());
+                LeafNode leafNode = new LeafNode(metadata, bufferManager, rightKeys, rightRids, rightSibling, treeContext);
+                long pageNum = leafNode.getPage().getPageNum();
+                rightSibling = Optional.of(pageNum);
+                sync();
+                //返回右边节点最左边的
+                DataBox splitKey = BPlusNode.separator(metadata, keys.get(keys.size() - 1), p.getFirst());
+                return Optional.of(new Pair<>(splitKey,pageNum));
+            }
         }
-        //达到最大的键数
-        if(keys.size()>=fullFactor){
-            //根据后面的键生成右节点
-            List<DataBox> rightKeys = new ArrayList<>();
-            List<RecordId> rightRids = new ArrayList<>();
-            Pair<DataBox, RecordId> p = data.next();
-            rightKeys.add(p.getFirst());
-            rightRids.add(p.getSecond());
-            LeafNode leafNode = new LeafNode(metadata, bufferManager, rightKeys, rightRids, rightSibling, treeContext);
-            long pageNum = leafNode.getPage().getPageNum();
-            rightSibling = Optional.of(pageNum);
-            sync();
-            //返回右边节点最左边的
-            return Optional.of(new Pair<>(rightKeys.get(0),pageNum));
-        }
-        else{
-            sync();
-            return Optional.empty();
-        }
+        sync();
+        return Optional.empty();
     }
 
     // See BPlusNode.remove.
     @Override
     public void remove(DataBox key) {
         // TODO(proj2): implement
-        if (keys.contains(key)){
-            int i = keys.indexOf(key);
+        int i = Collections.binarySearch(keys, key);
+        if (i >= 0){
             keys.remove(i);
             rids.remove(i);
+            included.remove(i);
         }
         sync();
     }
@@ -243,8 +278,8 @@ class LeafNode extends BPlusNode {
     // Iterators ///////////////////////////////////////////////////////////////
     /** Return the record id associated with `key`. */
     Optional<RecordId> getKey(DataBox key) {
-        int index = keys.indexOf(key);
-        return index == -1 ? Optional.empty() : Optional.of(rids.get(index));
+        int index = Collections.binarySearch(keys, key);
+        return index < 0 ? Optional.empty() : Optional.of(rids.get(index));
     }
 
     /**
@@ -271,6 +306,118 @@ class LeafNode extends BPlusNode {
         return page;
     }
 
+    @Override
+    boolean isFull() {
+        if (metadata.compressesKeys()) {
+            // A new key can shorten the prefix shared by the keys, which adds
+            // at most the length of the prefix to every key.
+            int keySize = metadata.getKeySchema().getSizeInBytes();
+            int maxEntrySize = 2 * Short.BYTES + keySize + RecordId.getSizeInBytes()
+                               + metadata.getIncludedSize();
+            int maxGrowth = prefixLength() * keys.size() + maxEntrySize;
+            return serializedSize() + maxGrowth > BufferManager.EFFECTIVE_PAGE_SIZE;
+        }
+        return keys.size() >= 2 * metadata.getOrder();
+    }
+
+    /**
+     * Returns whether this leaf has too many entries to fit on its page: more
+     * than 2d, or for a tree that compresses its keys, more than fit.
+     */
+    private boolean overflows() {
+        if (metadata.compressesKeys()) {
+            return serializedSize() > BufferManager.EFFECTIVE_PAGE_SIZE;
+        }
+        return keys.size() > 2 * metadata.getOrder();
+    }
+
+    /**
+     * Returns whether this leaf has more entries than a bulk loaded leaf with
+     * fill factor `fillFactor` gets: more than ceil(2d * fillFactor), or for a
+     * tree that compresses its keys, more than fit in that fraction of a page
+     * (but at least one).
+     */
+    private boolean overfills(float fillFactor) {
+        if (metadata.compressesKeys()) {
+            return keys.size() > 1 && serializedSize() > BufferManager.EFFECTIVE_PAGE_SIZE * fillFactor;
+        }
+        return keys.size() > Math.ceil(2 * metadata.getOrder() * fillFactor);
+    }
+
+    /**
+     * Returns the index of the first entry that moves to the new right leaf
+     * when this leaf splits: the middle entry, or for a tree that compresses
+     * its keys, the entry that splits the bytes of the leaf most evenly (its
+     * entries vary in size, and a new key can shorten the shared prefix).
+     */
+    private int splitIndex() {
+        if (!metadata.compressesKeys()) {
+            return keys.size() / 2;
+        }
+        int best = 1;
+        int bestSize = Integer.MAX_VALUE;
+        for (int i = 1; i < keys.size(); ++i) {
+            int size = Math.max(serializedSize(0, i), serializedSize(i, keys.size()));
+            if (size < bestSize) {
+                best = i;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the length of the prefix shared by the keys of this leaf, if the
+     * tree compresses its keys.
+     */
+    private int prefixLength() {
+        return prefixLength(0, keys.size());
+    }
+
+    /**
+     * Returns the length of the prefix shared by the keys from index `from`
+     * (inclusive) to `to` (exclusive). The keys are sorted, so they share the
+     * prefix that the first and last of them share.
+     */
+    private int prefixLength(int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+        String first = keys.get(from).getString();
+        String last = keys.get(to - 1).getString();
+        return BPlusNode.commonPrefixLength(first, last);
+    }
+
+    /** Returns the number of bytes toBytes serializes this leaf to. */
+    private int serializedSize() {
+        return serializedSize(0, keys.size());
+    }
+
+    /**
+     * Returns the number of bytes toBytes would serialize a leaf with the
+     * entries of this leaf from index `from` (inclusive) to `to` (exclusive)
+     * to.
+     */
+    private int serializedSize(int from, int to) {
+        int headerSize = 1 + Long.BYTES + Integer.BYTES;
+        int ridSize = RecordId.getSizeInBytes() + metadata.getIncludedSize();
+        if (!metadata.compressesKeys()) {
+            int keySize = metadata.getKeySchema().getSizeInBytes();
+            return headerSize + (keySize + ridSize) * (to - from);
+        }
+        int prefixLength = prefixLength(from, to);
+        int size = headerSize + Short.BYTES + prefixLength;
+        for (int i = from; i < to; ++i) {
+            size += 2 * Short.BYTES + keys.get(i).getString().length() - prefixLength + ridSize;
+        }
+        return size;
+    }
+
+    /** Returns the page number of the right sibling of this leaf, if it has one. */
+    Optional<Long> getRightSiblingPageNum() {
+        return rightSibling;
+    }
+
     /** Returns the right sibling of this leaf, if it has one. */
     Optional<LeafNode> getRightSibling() {
         if (!rightSibling.isPresent()) {
@@ -290,31 +437,41 @@ class LeafNode extends BPlusNode {
             byte[] bytes = new byte[newBytes.length];
             b.get(bytes);
             if (!Arrays.equals(bytes, newBytes)) {
-                page.getBuffer().put(toBytes());
+                page.getBuffer().put(newBytes);
             }
         } finally {
             page.unpin();
         }
     }
 
-    // Just for testing.
     List<DataBox> getKeys() {
         return keys;
     }
 
-    // Just for testing.
     List<RecordId> getRids() {
         return rids;
     }
 
+    List<byte[]> getIncluded() {
+        return included;
+    }
+
     /**
      * Returns the largest number d such that the serialization of a LeafNode
      * with 2d entries will fit on a single page.
      */
     static int maxOrder(short pageSize, Type keySchema) {
+        return maxOrder(pageSize, keySchema, 0);
+    }
+
+    /**
+     * Same as above, for a tree that stores includedSize bytes of included
+     * columns with each record id.
+     */
+    static int maxOrder(short pageSize, Type keySchema, int includedSize) {
         // A leaf node with n entries takes up the following number of bytes:
         //
-        //   1 + 8 + 4 + n * (keySize + ridSize)
+        //   1 + 8 + 4 + n * (keySize + ridSize + includedSize)
         //
         // where
         //
@@ -323,20 +480,21 @@ class LeafNode extends BPlusNode {
         //   - 4 is the number of bytes used to store n,
         //   - keySize is the number of bytes used to store a DataBox of type
         //     keySchema, and
-        //   - ridSize is the number of bytes of a RecordId.
+        //   - ridSize is the number of bytes of a RecordId, and
+        //   - includedSize is the number of bytes of the included columns.
         //
         // Solving the following equation
         //
-        //   n * (keySize + ridSize) + 13 <= pageSizeInBytes
+        //   n * (keySize + ridSize + includedSize) + 13 <= pageSizeInBytes
         //
         // we get
         //
-        //   n = (pageSizeInBytes - 13) / (keySize + ridSize)
+        //   n = (pageSizeInBytes - 13) / (keySize + ridSize + includedSize)
         //
         // The order d is half of n.
         int keySize = keySchema.getSizeInBytes();
         int ridSize = RecordId.getSizeInBytes();
-        int n = (pageSize - 13) / (keySize + ridSize);
+        int n = (pageSize - 13) / (keySize + ridSize + includedSize);
         return n / 2;
     }
 
@@ -399,26 +557,46 @@ class LeafNode extends BPlusNode {
         //
         // represent a leaf node with sibling on page 4 and a single (key, rid)
         // pair with key 3 and page id (3, 1).
+        //
+        // If the tree compresses its keys, d. is instead
+        //
+        //   d. the length (2 bytes) and characters of the prefix shared by the
+        //      keys, followed by the offset (2 bytes) in the page of every
+        //      (key, rid) pair, and then the pairs, where every key is stored
+        //      as the length (2 bytes) and characters of the rest of the key,
+        //      without padding.
+        //
+        // For example, a leaf with keys "apple" and "apricot" stores the
+        // prefix "ap", and the keys "ple" and "ricot". The offsets let find
+        // binary search the pairs, which vary in size.
+        //
+        // If the tree has included columns, their values follow every rid.
 
         assert (keys.size() == rids.size());
-        assert (keys.size() <= 2 * metadata.getOrder());
+        assert (!overflows());
 
-        // All sizes are in bytes.
-        int isLeafSize = 1;
-        int siblingSize = Long.BYTES;
-        int lenSize = Integer.BYTES;
-        int keySize = metadata.getKeySchema().getSizeInBytes();
-        int ridSize = RecordId.getSizeInBytes();
-        int entriesSize = (keySize + ridSize) * keys.size();
-        int size = isLeafSize + siblingSize + lenSize + entriesSize;
-
-        ByteBuffer buf = ByteBuffer.allocate(size);
+        ByteBuffer buf = ByteBuffer.allocate(serializedSize());
         buf.put((byte) 1);
         buf.putLong(rightSibling.orElse(-1L));
         buf.putInt(keys.size());
+        if (!metadata.compressesKeys()) {
+            for (int i = 0; i < keys.size(); ++i) {
+                buf.put(keys.get(i).toBytes());
+                buf.put(rids.get(i).toBytes());
+                buf.put(included.get(i));
+            }
+            return buf.array();
+        }
+        int prefixLength = prefixLength();
+        String prefix = keys.isEmpty() ? "" : keys.get(0).getString().substring(0, prefixLength);
+        BPlusNode.putString(buf, prefix);
+        int offsets = buf.position();
+        buf.position(offsets + Short.BYTES * keys.size());
         for (int i = 0; i < keys.size(); ++i) {
-            buf.put(keys.get(i).toBytes());
+            buf.putShort(offsets + Short.BYTES * i, (short) buf.position());
+            BPlusNode.putString(buf, keys.get(i).getString().substring(prefixLength));
             buf.put(rids.get(i).toBytes());
+            buf.put(included.get(i));
         }
         return buf.array();
     }
@@ -447,11 +625,85 @@ class LeafNode extends BPlusNode {
         int n = buf.getInt();
         List<DataBox>keys = new ArrayList<>();
         List<RecordId>rids = new ArrayList<>();
-        for (int i = 0; i < n; i++) {
-            keys.add(DataBox.fromBytes(buf,metadata.getKeySchema()));
-            rids.add(RecordId.fromBytes(buf));
+        List<byte[]> included = new ArrayList<>();
+        if (metadata.compressesKeys()) {
+            int keySize = metadata.getKeySchema().getSizeInBytes();
+            String prefix = BPlusNode.getString(buf);
+            buf.position(buf.position() + Short.BYTES * n);
+            for (int i = 0; i < n; i++) {
+                keys.add(new StringDataBox(prefix + BPlusNode.getString(buf), keySize));
+                rids.add(RecordId.fromBytes(buf));
+                included.add(getIncluded(metadata, buf));
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                keys.add(DataBox.fromBytes(buf,metadata.getKeySchema()));
+                rids.add(RecordId.fromBytes(buf));
+                included.add(getIncluded(metadata, buf));
+            }
+        }
+        return new LeafNode(metadata, bufferManager, page, keys, rids, included, rightSibling, treeContext);
+    }
+
+    private static byte[] getIncluded(BPlusTreeMetadata metadata, Buffer buf) {
+        byte[] bytes = new byte[metadata.getIncludedSize()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the record id associated with `key` in the leaf serialized in
+     * `buf`. Unlike fromBytes(...).getKey(key), this binary searches the
+     * serialized keys, and only loads the keys it compares and the record id.
+     */
+    static Optional<RecordId> find(BPlusTreeMetadata metadata, Buffer buf, DataBox key) {
+        assert (buf.get(0) == (byte) 1);
+        int n = buf.getInt(1 + Long.BYTES);
+        int entriesStart = 1 + Long.BYTES + Integer.BYTES;
+        if (!metadata.compressesKeys()) {
+            int keySize = metadata.getKeySchema().getSizeInBytes();
+            int entrySize = keySize + RecordId.getSizeInBytes() + metadata.getIncludedSize();
+            int lo = 0;
+            int hi = n - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                buf.position(entriesStart + mid * entrySize);
+                int c = key.compareTo(DataBox.fromBytes(buf, metadata.getKeySchema()));
+                if (c == 0) {
+                    return Optional.of(RecordId.fromBytes(buf));
+                } else if (c < 0) {
+                    hi = mid - 1;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return Optional.empty();
+        }
+
+        buf.position(entriesStart);
+        String prefix = BPlusNode.getString(buf);
+        String s = key.getString();
+        if (!s.startsWith(prefix)) {
+            return Optional.empty();
+        }
+        String suffix = s.substring(prefix.length());
+        int offsets = buf.position();
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int offset = buf.getShort(offsets + Short.BYTES * mid);
+            int c = BPlusNode.compareString(suffix, buf, offset);
+            if (c == 0) {
+                buf.position(offset + Short.BYTES + suffix.length());
+                return Optional.of(RecordId.fromBytes(buf));
+            } else if (c < 0) {
+                hi = mid - 1;
+            } else {
+                lo = mid + 1;
+            }
         }
-        return new LeafNode(metadata, bufferManager, page, keys, rids,rightSibling, treeContext); 
+        return Optional.empty();
     }
 
     // Builtins ////////////////////////////////////////////////////////////////
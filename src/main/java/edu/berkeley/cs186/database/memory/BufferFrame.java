@@ -19,7 +19,7 @@ abstract class BufferFrame {
      * Unpin buffer frame.
      */
     void unpin() {
-        if (!isPinned()) {
+        if (pinCount <= 0) {
             throw new IllegalStateException("cannot unpin unpinned frame");
         }
         --pinCount;
@@ -63,6 +63,17 @@ abstract class BufferFrame {
      */
     abstract void writeBytes(short position, short num, byte[] buf);
 
+    /**
+     * Write to the buffer frame without logging the write, and mark frame as
+     * dirtied. Frames that log writes must override this.
+     * @param position position in buffer frame to start writing
+     * @param num number of bytes to write
+     * @param buf input buffer
+     */
+    void writeBytesUnlogged(short position, short num, byte[] buf) {
+        writeBytes(position, num, buf);
+    }
+
     /**
      * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
      * Frame is pinned on return.
@@ -85,4 +96,13 @@ abstract class BufferFrame {
      * @return pageLSN of the page loaded in this frame
      */
     abstract long getPageLSN();
+
+    /**
+     * @return version of the page loaded in this frame, which changes on every
+     * write to the page (see BufferManager#getPageVersion). Frames that track
+     * versions must override this.
+     */
+    long getVersion() {
+        return 0;
+    }
 }
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.memory;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.concurrency.ReadSet;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.recovery.LogManager;
@@ -10,7 +11,12 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiConsumer;
 
 /**
@@ -53,6 +59,24 @@ public class BufferManager implements AutoCloseable {
     // Count of number of I/Os
     private long numIOs = 0;
 
+    // Whether updates by a transaction to a page are coalesced into a single
+    // log record (see setCoalesceUpdates).
+    private volatile boolean coalesceUpdates;
+
+    // Coalesced updates that have not been logged yet, by transaction.
+    private Map<Long, Set<PendingUpdate>> pendingUpdates = new ConcurrentHashMap<>();
+    private AtomicInteger numPendingUpdates = new AtomicInteger();
+
+    // Before-images of writes for snapshot reads, or null if disabled (see
+    // enableVersionStore).
+    private volatile VersionStore versionStore;
+
+    // Source of page versions (see getPageVersion).
+    private final AtomicLong pageWriteClock = new AtomicLong();
+
+    // Latches on pages, by page number (see getPageLatch).
+    private final Map<Long, ReadWriteLock> pageLatches = new ConcurrentHashMap<>();
+
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
      * underlying byte array. Free frames use the index field to create a (singly) linked
@@ -67,6 +91,10 @@ public class BufferManager implements AutoCloseable {
         private boolean dirty;
         private ReentrantLock frameLock;
         private boolean logPage;
+        // Updates to this page that are coalesced but maybe not logged yet.
+        private volatile PendingUpdate pending;
+        // Version of the page, changed on every write (see getPageVersion).
+        private volatile long version;
 
         Frame(byte[] contents, int nextFree) {
             this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
@@ -84,6 +112,9 @@ public class BufferManager implements AutoCloseable {
             this.frameLock = new ReentrantLock();
             int partNum = DiskSpaceManager.getPartNum(pageNum);
             this.logPage = partNum == LogManager.LOG_PARTITION;
+            // a page reloaded into a new frame gets a new version, which may
+            // fail validations spuriously but never misses a write
+            this.version = pageWriteClock.incrementAndGet();
         }
 
         /**
@@ -110,6 +141,17 @@ public class BufferManager implements AutoCloseable {
             this.frameLock.unlock();
         }
 
+        /**
+         * @return whether this frame is pinned. Frames with updates that have
+         * not been logged yet stay pinned until they are, since logging them
+         * while evicting the frame could require space in the log.
+         */
+        @Override
+        boolean isPinned() {
+            PendingUpdate pending = this.pending;
+            return super.isPinned() || (pending != null && !pending.logged);
+        }
+
         /**
          * @return whether this frame is valid
          */
@@ -176,6 +218,7 @@ public class BufferManager implements AutoCloseable {
                 if (!this.isValid()) {
                     return;
                 }
+                logPendingUpdate();
                 if (!this.dirty) {
                     return;
                 }
@@ -205,6 +248,13 @@ public class BufferManager implements AutoCloseable {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
                 System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
+                VersionStore versionStore = BufferManager.this.versionStore;
+                if (versionStore != null && !logPage) {
+                    TransactionContext transaction = TransactionContext.getTransaction();
+                    if (transaction != null && transaction.getSnapshot() != null) {
+                        versionStore.undoInvisibleWrites(transaction.getSnapshot(), pageNum, position, num, buf);
+                    }
+                }
                 BufferManager.this.evictionPolicy.hit(this);
             } finally {
                 this.unpin();
@@ -219,6 +269,21 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void writeBytes(short position, short num, byte[] buf) {
+            writeBytes(position, num, buf, true);
+        }
+
+        /**
+         * Write to the buffer frame without logging the write, and mark frame as dirtied.
+         * @param position position in buffer frame to start writing
+         * @param num number of bytes to write
+         * @param buf input buffer
+         */
+        @Override
+        void writeBytesUnlogged(short position, short num, byte[] buf) {
+            writeBytes(position, num, buf, false);
+        }
+
+        private void writeBytes(short position, short num, byte[] buf, boolean log) {
             this.pin();
             try {
                 if (!this.isValid()) {
@@ -226,11 +291,27 @@ public class BufferManager implements AutoCloseable {
                 }
                 int offset = position + dataOffset();
                 TransactionContext transaction = TransactionContext.getTransaction();
-                if (transaction != null && !logPage) {
+                boolean logged = log && transaction != null && !logPage;
+                boolean coalesce = logged && coalesceUpdates;
+                // Coalesced updates must be logged before any other change to
+                // the page, so that log records stay in the order of the changes.
+                if (pending != null && !(coalesce && pending.transNum == transaction.getTransNum())) {
+                    logPendingUpdate();
+                }
+                VersionStore versionStore = BufferManager.this.versionStore;
+                if (versionStore != null && transaction != null && !logPage) {
+                    versionStore.recordWrite(transaction.getTransNum(), pageNum, position,
+                                             Arrays.copyOfRange(contents, offset, offset + num));
+                }
+                if (logged) {
                     List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
                         int len = range.getSecond();
+                        if (coalesce) {
+                            coalesceUpdate(transaction.getTransNum(), start + position, buf, start, len);
+                            continue;
+                        }
                         byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
                         byte[] after = Arrays.copyOfRange(buf, start, start + len);
                         long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
@@ -240,12 +321,55 @@ public class BufferManager implements AutoCloseable {
                 }
                 System.arraycopy(buf, 0, this.contents, offset, num);
                 this.dirty = true;
+                long oldVersion = version;
+                version = pageWriteClock.incrementAndGet();
+                ReadSet readSet = transaction == null ? null : transaction.getReadSet();
+                if (readSet != null && !logPage) {
+                    readSet.recordWrite(pageNum, oldVersion, version);
+                }
                 BufferManager.this.evictionPolicy.hit(this);
             } finally {
                 this.unpin();
             }
         }
 
+        /**
+         * Adds a write of len bytes of buf (starting at bufOffset) at position
+         * to the coalesced updates of transaction transNum to this page.
+         */
+        private void coalesceUpdate(long transNum, int position, byte[] buf, int bufOffset, int len) {
+            if (pending != null && pending.add(position, buf, bufOffset, len)) {
+                return;
+            }
+            // Either the page has no coalesced updates yet, or they can not
+            // be extended to cover this write without becoming too large for
+            // one log record.
+            logPendingUpdate();
+            if (numPendingUpdates.get() >= frames.length / 4) {
+                // Don't let pages with coalesced updates fill up the buffer.
+                logCoalescedUpdates(transNum);
+            }
+            pending = new PendingUpdate(transNum, pageNum,
+                                        Arrays.copyOfRange(contents, dataOffset(), dataOffset() + EFFECTIVE_PAGE_SIZE));
+            pending.add(position, buf, bufOffset, len);
+        }
+
+        /**
+         * Logs the coalesced updates to this frame, if they have not been logged
+         * yet, and updates the page LSN. The frame must be locked.
+         */
+        private void logPendingUpdate() {
+            PendingUpdate pending = this.pending;
+            if (pending == null) {
+                return;
+            }
+            long LSN = pending.logged ? pending.LSN : pending.log();
+            if (LSN > getPageLSN()) {
+                setPageLSN(LSN);
+            }
+            this.pending = null;
+        }
+
         /**
          * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
          * Page is pinned on return.
@@ -281,6 +405,11 @@ public class BufferManager implements AutoCloseable {
             return ByteBuffer.wrap(this.contents).getLong(8);
         }
 
+        @Override
+        long getVersion() {
+            return version;
+        }
+
         @Override
         public String toString() {
             if (index >= 0) {
@@ -369,6 +498,9 @@ public class BufferManager implements AutoCloseable {
             for (Frame frame : this.frames) {
                 frame.frameLock.lock();
                 try {
+                    if (frame.isValid()) {
+                        frame.logPendingUpdate();
+                    }
                     if (frame.isPinned()) {
                         throw new IllegalStateException("closing buffer manager but frame still pinned");
                     }
@@ -449,6 +581,37 @@ public class BufferManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns the latch of a page, which callers hold to keep a structure
+     * spanning several reads or writes of the page consistent (e.g. a B+ tree
+     * node, see BPlusTree). Latches are independent of pins, which only
+     * protect a single read or write: a page is not pinned while latched
+     * unless the caller pins it, and pinning a page does not latch it.
+     *
+     * @param pageNum page number
+     * @return the latch of the page
+     */
+    public ReadWriteLock getPageLatch(long pageNum) {
+        return pageLatches.computeIfAbsent(pageNum, p -> new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Returns the version of a page, which changes every time the page is
+     * written to, or loaded into memory. Optimistic transactions compare the
+     * versions of the pages they read at commit (see ReadSet).
+     *
+     * @param pageNum page number
+     * @return current version of the page
+     */
+    public long getPageVersion(long pageNum) {
+        Frame frame = fetchPageFrame(pageNum);
+        try {
+            return frame.version;
+        } finally {
+            frame.unpin();
+        }
+    }
+
     /**
      * Fetches the specified page, with a loaded and pinned buffer frame.
      *
@@ -476,6 +639,30 @@ public class BufferManager implements AutoCloseable {
         }
     }
 
+    /**
+     * @return the recovery manager writes to pages are logged with
+     */
+    public RecoveryManager getRecoveryManager() {
+        return recoveryManager;
+    }
+
+    /**
+     * Fetches a buffer frame for a new page with a specific page number. Pins
+     * the buffer frame. Cannot be used outside the package.
+     *
+     * @param pageNum page number of the new page
+     * @return buffer frame for the new page
+     */
+    Frame fetchNewPageFrame(long pageNum) {
+        this.diskSpaceManager.allocPage(pageNum);
+        this.managerLock.lock();
+        try {
+            return fetchPageFrame(pageNum);
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
     /**
      * Fetches a new page, with a loaded and pinned buffer frame.
      *
@@ -488,6 +675,19 @@ public class BufferManager implements AutoCloseable {
         return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
     }
 
+    /**
+     * Fetches a new page with a specific page number, with a loaded and pinned
+     * buffer frame.
+     *
+     * @param parentContext parent lock context of the new page
+     * @param pageNum       page number of the new page
+     * @return the new page
+     */
+    public Page fetchNewPage(LockContext parentContext, long pageNum) {
+        Frame newFrame = this.fetchNewPageFrame(pageNum);
+        return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
+    }
+
     /**
      * Frees a page - evicts the page from cache, and tells the disk space manager
      * that the page is no longer needed. Page must be pinned before this call,
@@ -509,11 +709,52 @@ public class BufferManager implements AutoCloseable {
 
             this.frames[frameIndex] = new Frame(frame);
             diskSpaceManager.freePage(page.getPageNum());
+            pageLatches.remove(page.getPageNum());
         } finally {
             this.managerLock.unlock();
         }
     }
 
+    /**
+     * Frees a page without reading it from disk - evicts the page from cache
+     * if it is loaded (without flushing it), and tells the disk space manager
+     * that the page is no longer needed. The page must not be pinned.
+     *
+     * @param pageNum page number of page to free
+     * @return false if the page was not allocated, true otherwise
+     */
+    public boolean freePage(long pageNum) {
+        this.managerLock.lock();
+        try {
+            if (!diskSpaceManager.pageAllocated(pageNum)) {
+                return false;
+            }
+            Integer frameIndex = this.pageToFrame.get(pageNum);
+            if (frameIndex != null) {
+                Frame frame = this.frames[frameIndex];
+                this.pageToFrame.remove(pageNum, frameIndex);
+                evictionPolicy.cleanup(frame);
+                frame.setFree();
+                this.frames[frameIndex] = new Frame(frame);
+            }
+            diskSpaceManager.freePage(pageNum);
+            pageLatches.remove(pageNum);
+            return true;
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether a page is allocated, without reading it from disk.
+     *
+     * @param pageNum page number of page to check
+     * @return true if the page is allocated, false otherwise
+     */
+    public boolean pageAllocated(long pageNum) {
+        return diskSpaceManager.pageAllocated(pageNum);
+    }
+
     /**
      * Frees a partition - evicts all relevant pages from cache, and tells the disk space manager
      * that the partition is no longer needed. No pages in the partition may be pinned before this call,
@@ -536,6 +777,7 @@ public class BufferManager implements AutoCloseable {
             }
 
             diskSpaceManager.freePart(partNum);
+            pageLatches.keySet().removeIf(pageNum -> DiskSpaceManager.getPartNum(pageNum) == partNum);
         } finally {
             this.managerLock.unlock();
         }
@@ -562,6 +804,9 @@ public class BufferManager implements AutoCloseable {
         Frame frame = frames[i];
         frame.frameLock.lock();
         try {
+            if (frame.isValid()) {
+                frame.logPendingUpdate();
+            }
             if (frame.isValid() && !frame.isPinned()) {
                 this.pageToFrame.remove(frame.pageNum, frame.index);
                 evictionPolicy.cleanup(frame);
@@ -585,6 +830,142 @@ public class BufferManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Updates by a transaction to a page that have been coalesced into a
+     * single log record, which is appended once (see log): before the page is
+     * flushed or changed by anything else, when the transaction ends, commits,
+     * sets a savepoint or rolls back, or when the updates would not fit in one
+     * log record anymore.
+     */
+    private class PendingUpdate {
+        private final long transNum;
+        private final long pageNum;
+        // page data before the first update, and after the last one
+        private final byte[] before;
+        private final byte[] after;
+        // range of bytes changed by the updates
+        private int start = Integer.MAX_VALUE;
+        private int end = Integer.MIN_VALUE;
+        // LSN of the log record, once logged
+        private volatile long LSN;
+        private volatile boolean logged;
+
+        PendingUpdate(long transNum, long pageNum, byte[] data) {
+            this.transNum = transNum;
+            this.pageNum = pageNum;
+            this.before = data;
+            this.after = data.clone();
+            pendingUpdates.computeIfAbsent(transNum, t -> ConcurrentHashMap.newKeySet()).add(this);
+            numPendingUpdates.incrementAndGet();
+        }
+
+        /**
+         * Adds a write of len bytes of buf (starting at bufOffset) at position.
+         * @return false if the updates are already logged or would not fit in
+         * one log record with the write, in which case nothing is added
+         */
+        synchronized boolean add(int position, byte[] buf, int bufOffset, int len) {
+            int newStart = Math.min(start, position);
+            int newEnd = Math.max(end, position + len);
+            if (logged || newEnd - newStart > EFFECTIVE_PAGE_SIZE / 2) {
+                return false;
+            }
+            System.arraycopy(buf, bufOffset, after, position, len);
+            start = newStart;
+            end = newEnd;
+            return true;
+        }
+
+        /**
+         * Appends the log record for the updates, if not done already.
+         * @return LSN of the log record
+         */
+        synchronized long log() {
+            if (!logged) {
+                LSN = recoveryManager.logPageWrite(transNum, pageNum, (short) start,
+                                                   Arrays.copyOfRange(before, start, end),
+                                                   Arrays.copyOfRange(after, start, end));
+                logged = true;
+                Set<PendingUpdate> updates = pendingUpdates.get(transNum);
+                if (updates != null) {
+                    updates.remove(this);
+                }
+                numPendingUpdates.decrementAndGet();
+            }
+            return LSN;
+        }
+    }
+
+    /**
+     * Starts keeping the before-images of writes by transactions, so that
+     * transactions with a snapshot (see TransactionContext#getSnapshot) read
+     * pages as of the moment the snapshot was taken. Must be called before
+     * any transaction writes to a page.
+     * @return the version store
+     */
+    public synchronized VersionStore enableVersionStore() {
+        if (versionStore == null) {
+            versionStore = new VersionStore();
+        }
+        return versionStore;
+    }
+
+    /**
+     * @return the version store, or null if snapshot reads are not enabled
+     */
+    public VersionStore getVersionStore() {
+        return versionStore;
+    }
+
+    /**
+     * Sets whether the updates that a transaction makes to a page are coalesced
+     * into a single log record, rather than logged as they happen. The record
+     * covers every byte changed in between, so coalescing works best for
+     * updates that are close together, such as updates of many records on the
+     * same page.
+     */
+    public void setCoalesceUpdates(boolean coalesceUpdates) {
+        this.coalesceUpdates = coalesceUpdates;
+    }
+
+    /**
+     * Logs the coalesced updates of a transaction that have not been logged
+     * yet. Called by the recovery manager before the transaction commits,
+     * ends, sets a savepoint, or rolls back.
+     * @param transNum transaction whose updates to log
+     */
+    public void logCoalescedUpdates(long transNum) {
+        Set<PendingUpdate> updates = pendingUpdates.remove(transNum);
+        if (updates == null) {
+            return;
+        }
+        for (PendingUpdate update : updates) {
+            update.log();
+        }
+    }
+
+    /**
+     * Logs the coalesced updates to a page that have not been logged yet.
+     * Called by the recovery manager before logging a change to the page that
+     * is not made through the buffer manager's own logging.
+     * @param pageNum page whose updates to log
+     */
+    public void logCoalescedPageUpdates(long pageNum) {
+        PendingUpdate pending = null;
+        managerLock.lock();
+        try {
+            Integer frameIndex = pageToFrame.get(pageNum);
+            if (frameIndex != null) {
+                pending = frames[frameIndex].pending;
+            }
+        } finally {
+            managerLock.unlock();
+        }
+        if (pending != null) {
+            pending.log();
+        }
+    }
+
     /**
      * Calls the passed in method with the page number of every loaded page.
      * @param process method to consume page numbers. The first parameter is the page number,
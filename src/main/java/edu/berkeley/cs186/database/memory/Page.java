@@ -6,6 +6,8 @@ import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
+import edu.berkeley.cs186.database.concurrency.ReadSet;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.io.PageException;
 
 /**
@@ -19,6 +21,9 @@ public class Page {
     // buffer manager frame for this page's data (potentially invalidated)
     private BufferFrame frame;
 
+    // whether writes through this page handle are logged
+    private boolean logWrites = true;
+
     /**
      * Create a page handle with the given buffer frame
      *
@@ -38,6 +43,7 @@ public class Page {
     protected Page(Page page) {
         this.lockContext = page.lockContext;
         this.frame = page.frame;
+        this.logWrites = page.logWrites;
     }
 
     /**
@@ -47,6 +53,15 @@ public class Page {
         this.lockContext = new DummyLockContext("_dummyPage");
     }
 
+    /**
+     * Disables logging of writes through this page handle. The caller is
+     * responsible for logging its changes some other way (e.g. with a
+     * physiological log record) and setting the pageLSN accordingly.
+     */
+    public void disableLogging() {
+        this.logWrites = false;
+    }
+
     /**
      * Gets a Buffer object for more convenient access to the page.
      *
@@ -74,6 +89,13 @@ public class Page {
             throw new PageException("num bytes to read is longer than buffer");
         }
 
+        TransactionContext transaction = TransactionContext.getTransaction();
+        ReadSet readSet = transaction == null ? null : transaction.getReadSet();
+        if (readSet != null) {
+            // the version is taken before reading, so that a concurrent write
+            // fails validation
+            readSet.recordRead(lockContext, frame.getPageNum(), frame.getVersion());
+        }
         this.frame.readBytes((short) position, (short) num, buf);
     }
 
@@ -108,7 +130,11 @@ public class Page {
             throw new PageException("writeBytes would go out of bounds");
         }
 
-        this.frame.writeBytes((short) position, (short) num, buf);
+        if (logWrites) {
+            this.frame.writeBytes((short) position, (short) num, buf);
+        } else {
+            this.frame.writeBytesUnlogged((short) position, (short) num, buf);
+        }
     }
 
     /**
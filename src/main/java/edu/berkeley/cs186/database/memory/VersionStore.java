@@ -0,0 +1,211 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the before-image of every write to a page made by a transaction, for
+ * as long as some snapshot might need it, so that read-only transactions can
+ * read pages as of the moment they began (see Snapshot) without taking locks.
+ *
+ * A snapshot sees the changes of every transaction that ended before the
+ * snapshot was taken, and of the snapshot's own transaction. To read a page,
+ * the buffer manager copies the current bytes and then undoes the writes of
+ * every other transaction, newest first, by copying their before-images back.
+ * Since writers hold X locks until they end, the changes of transactions that
+ * are visible to a snapshot never overlap those of transactions that are not.
+ *
+ * Before-images are kept in memory until their transaction ends, and past
+ * that while a snapshot taken before it ended is still open.
+ */
+public class VersionStore {
+    /**
+     * A transaction with before-images in the store.
+     */
+    private static class Writer {
+        private final long transNum;
+        // position of the transaction's end in the order of ends and
+        // snapshots, or Long.MAX_VALUE while it is running
+        private volatile long endSeq = Long.MAX_VALUE;
+        // pages the transaction wrote to
+        private final Set<Long> pages = ConcurrentHashMap.newKeySet();
+
+        private Writer(long transNum) {
+            this.transNum = transNum;
+        }
+
+        private boolean isVisibleTo(Snapshot snapshot) {
+            return transNum == snapshot.transNum || endSeq <= snapshot.seq;
+        }
+    }
+
+    /**
+     * The before-image of a write of before.length bytes at position.
+     */
+    private static class Version {
+        private final Writer writer;
+        private final int position;
+        private final byte[] before;
+
+        private Version(Writer writer, int position, byte[] before) {
+            this.writer = writer;
+            this.position = position;
+            this.before = before;
+        }
+    }
+
+    /**
+     * A view of the database as of the moment it was taken, for a read-only
+     * transaction. Must be closed when the transaction ends.
+     */
+    public class Snapshot implements AutoCloseable {
+        private final long transNum;
+        private final long seq;
+
+        private Snapshot(long transNum, long seq) {
+            this.transNum = transNum;
+            this.seq = seq;
+        }
+
+        /**
+         * @return the transaction reading from this snapshot
+         */
+        public long getTransNum() {
+            return transNum;
+        }
+
+        @Override
+        public void close() {
+            closeSnapshot(this);
+        }
+    }
+
+    // before-images of each page, oldest first
+    private final Map<Long, List<Version>> pageVersions = new ConcurrentHashMap<>();
+    // transactions with before-images in the store
+    private final Map<Long, Writer> writers = new ConcurrentHashMap<>();
+
+    // The fields below are guarded by this.
+    // incremented every time a writer ends
+    private long clock = 0;
+    // open snapshots
+    private final List<Snapshot> snapshots = new ArrayList<>();
+    // ended writers whose before-images an open snapshot may need
+    private final List<Writer> retained = new ArrayList<>();
+
+    /**
+     * Records that transaction transNum is about to overwrite the bytes of
+     * page pageNum starting at position with different contents.
+     * @param before the current contents of the bytes
+     */
+    void recordWrite(long transNum, long pageNum, int position, byte[] before) {
+        Writer writer = writers.computeIfAbsent(transNum, Writer::new);
+        writer.pages.add(pageNum);
+        Version version = new Version(writer, position, before);
+        pageVersions.compute(pageNum, (p, versions) -> {
+            if (versions == null) {
+                versions = new ArrayList<>();
+            }
+            synchronized (versions) {
+                versions.add(version);
+            }
+            return versions;
+        });
+    }
+
+    /**
+     * Undoes the writes to page pageNum that are not visible to snapshot in
+     * buf, which holds num bytes of the page starting at position.
+     */
+    void undoInvisibleWrites(Snapshot snapshot, long pageNum, int position, int num, byte[] buf) {
+        List<Version> versions = pageVersions.get(pageNum);
+        if (versions == null) {
+            return;
+        }
+        Version[] copy;
+        synchronized (versions) {
+            copy = versions.toArray(new Version[0]);
+        }
+        for (int i = copy.length - 1; i >= 0; --i) {
+            Version version = copy[i];
+            if (version.writer.isVisibleTo(snapshot)) {
+                continue;
+            }
+            int start = Math.max(position, version.position);
+            int end = Math.min(position + num, version.position + version.before.length);
+            if (start < end) {
+                System.arraycopy(version.before, start - version.position, buf, start - position, end - start);
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot for the read-only transaction transNum.
+     */
+    public synchronized Snapshot openSnapshot(long transNum) {
+        Snapshot snapshot = new Snapshot(transNum, clock);
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    private synchronized void closeSnapshot(Snapshot snapshot) {
+        if (!snapshots.remove(snapshot)) {
+            return;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (Snapshot s : snapshots) {
+            oldest = Math.min(oldest, s.seq);
+        }
+        Iterator<Writer> iter = retained.iterator();
+        while (iter.hasNext()) {
+            Writer writer = iter.next();
+            if (writer.endSeq <= oldest) {
+                iter.remove();
+                discard(writer);
+            }
+        }
+    }
+
+    /**
+     * Records that transaction transNum ended (committed, or finished
+     * rolling back), so that its changes are visible to later snapshots.
+     */
+    public synchronized void transactionEnded(long transNum) {
+        Writer writer = writers.get(transNum);
+        if (writer == null) {
+            return;
+        }
+        writer.endSeq = ++clock;
+        if (snapshots.isEmpty()) {
+            discard(writer);
+        } else {
+            // every open snapshot was taken before the transaction ended
+            retained.add(writer);
+        }
+    }
+
+    private void discard(Writer writer) {
+        for (long pageNum : writer.pages) {
+            pageVersions.computeIfPresent(pageNum, (p, versions) -> {
+                synchronized (versions) {
+                    versions.removeIf(v -> v.writer == writer);
+                    return versions.isEmpty() ? null : versions;
+                }
+            });
+        }
+        writers.remove(writer.transNum);
+    }
+
+    /**
+     * @return number of before-images in the store
+     */
+    public int getNumVersions() {
+        int numVersions = 0;
+        for (List<Version> versions : pageVersions.values()) {
+            synchronized (versions) {
+                numVersions += versions.size();
+            }
+        }
+        return numVersions;
+    }
+}
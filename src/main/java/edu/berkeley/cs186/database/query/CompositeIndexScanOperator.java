@@ -0,0 +1,231 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.index.CompositeKey;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An index scan over a composite index (see CompositeKey) that uses a prefix
+ * of the index's key: it returns the records whose first columns are equal
+ * to given values, and optionally whose next column satisfies a range
+ * predicate. For example, the index on (tenant_id, created_at) can scan for
+ *
+ *   tenant_id = 7 AND created_at >= 100
+ *
+ * by scanning the index from the key (7, 100), and stopping at the first
+ * record with a different tenant_id.
+ *
+ * Scans of single-column indices work the same way, with a prefix of (only)
+ * an equality predicate, or no prefix and a range predicate; see
+ * IndexOnlyScanOperator, which scans both kinds of index.
+ */
+class CompositeIndexScanOperator extends QueryOperator {
+    protected TransactionContext transaction;
+    protected String tableName;
+    // name of the index, its columns separated by commas
+    protected String indexName;
+    protected List<String> columnNames;
+    // values of the first prefix.size() columns of the index
+    protected List<DataBox> prefix;
+    // range predicate on the next column, or null
+    protected PredicateOperator predicate;
+    protected DataBox value;
+
+    private List<Integer> columnIndices;
+
+    /**
+     * A composite index scan operator.
+     *
+     * @param transaction the transaction containing this operator
+     * @param tableName the table to iterate over
+     * @param indexName the columns of the index, separated by commas
+     * @param prefix values that the first columns of the index must equal
+     * @param predicate a range predicate (<, <=, > or >=) on the column after
+     *                  the prefix, or null to only scan for the prefix
+     * @param value the value of the range predicate
+     */
+    CompositeIndexScanOperator(TransactionContext transaction,
+                               String tableName,
+                               String indexName,
+                               List<DataBox> prefix,
+                               PredicateOperator predicate,
+                               DataBox value) {
+        super(OperatorType.INDEX_SCAN);
+        this.transaction = transaction;
+        this.tableName = tableName;
+        this.indexName = indexName;
+        this.columnNames = CompositeKey.columns(indexName);
+        this.prefix = prefix;
+        this.predicate = predicate;
+        this.value = value;
+        this.setOutputSchema(this.computeSchema());
+        this.columnIndices = new ArrayList<>();
+        for (String columnName : columnNames) {
+            this.columnIndices.add(this.getSchema().findField(columnName));
+        }
+        this.stats = this.estimateStats();
+    }
+
+    @Override
+    public boolean isIndexScan() {
+        return true;
+    }
+
+    @Override
+    public String str() {
+        return String.format("Index Scan for %s on %s(%s) (cost=%d)",
+            this.conditions(), this.tableName, this.indexName,
+            this.estimateIOCost());
+    }
+
+    /**
+     * @return the predicates that the scan answers, e.g.
+     * "tenant_id=7 AND created_at>=100"
+     */
+    String conditions() {
+        List<String> conditions = new ArrayList<>();
+        for (int i = 0; i < prefix.size(); ++i) {
+            conditions.add(columnNames.get(i) + "=" + prefix.get(i));
+        }
+        if (predicate != null) {
+            conditions.add(columnNames.get(prefix.size()) + predicate.toSymbol() + value);
+        }
+        return conditions.isEmpty() ? "*" : String.join(" AND ", conditions);
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        TableStats stats = this.transaction.getStats(this.tableName);
+        Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+        for (int i = 0; i < prefix.size(); ++i) {
+            stats = stats.copyWithPredicate(schema.findField(columnNames.get(i)),
+                                            PredicateOperator.EQUALS, prefix.get(i));
+        }
+        if (predicate != null) {
+            stats = stats.copyWithPredicate(schema.findField(columnNames.get(prefix.size())),
+                                            predicate, value);
+        }
+        return stats;
+    }
+
+    @Override
+    public int estimateIOCost() {
+        int height = transaction.getTreeHeight(tableName, indexName);
+        int order = transaction.getTreeOrder(tableName, indexName);
+        int count = this.stats.getNumRecords();
+        // as for IndexScanOperator, leaf nodes are assumed to be 75% full
+        return (int) (height + Math.ceil(count / (1.5 * order)) + count);
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new CompositeIndexScanIterator();
+    }
+
+    /**
+     * @return the records of the index with keys greater than or equal to
+     * `startKey`, or all of them if it is null
+     */
+    Iterator<Record> scanFrom(DataBox startKey) {
+        if (startKey == null) {
+            return transaction.sortedScan(tableName, indexName);
+        }
+        return transaction.sortedScanFrom(tableName, indexName, startKey);
+    }
+
+    @Override
+    public Schema computeSchema() {
+        return this.transaction.getFullyQualifiedSchema(this.tableName);
+    }
+
+    @Override
+    public List<String> sortedBy() {
+        // records have the same values for the prefix, and are sorted by the
+        // column after it
+        return columnNames.subList(0, Math.min(prefix.size() + 1, columnNames.size()));
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     */
+    private class CompositeIndexScanIterator implements Iterator<Record> {
+        private Iterator<Record> sourceIterator;
+        private Record nextRecord;
+        private boolean done;
+
+        private CompositeIndexScanIterator() {
+            Schema schema = transaction.getSchema(tableName);
+            List<Type> types = new ArrayList<>();
+            for (String columnName : columnNames) {
+                types.add(schema.getFieldType(schema.findField(columnName)));
+            }
+            // start at the first key with the prefix, or for a lower bound on
+            // the next column, the first key with the prefix and the bound
+            List<DataBox> start = new ArrayList<>(prefix);
+            if (predicate == PredicateOperator.GREATER_THAN ||
+                    predicate == PredicateOperator.GREATER_THAN_EQUALS) {
+                start.add(value);
+            }
+            if (columnNames.size() > 1) {
+                this.sourceIterator = scanFrom(CompositeKey.of(types, start));
+            } else {
+                // single-column indices are keyed on the column itself
+                this.sourceIterator = scanFrom(start.isEmpty() ? null : start.get(0));
+            }
+            this.nextRecord = null;
+            this.done = false;
+        }
+
+        /**
+         * @return true if this iterator has another record to yield, otherwise
+         * false
+         */
+        @Override
+        public boolean hasNext() {
+            while (this.nextRecord == null && !this.done && this.sourceIterator.hasNext()) {
+                Record r = this.sourceIterator.next();
+                for (int i = 0; i < prefix.size(); ++i) {
+                    if (r.getValue(columnIndices.get(i)).compareTo(prefix.get(i)) != 0) {
+                        // past the records with the prefix
+                        this.done = true;
+                        return false;
+                    }
+                }
+                if (predicate == null ||
+                        predicate.evaluate(r.getValue(columnIndices.get(prefix.size())), value)) {
+                    this.nextRecord = r;
+                } else if (predicate == PredicateOperator.LESS_THAN ||
+                           predicate == PredicateOperator.LESS_THAN_EQUALS) {
+                    // past the upper bound
+                    this.done = true;
+                }
+                // otherwise, the record is equal to a strict lower bound
+            }
+            return this.nextRecord != null;
+        }
+
+        /**
+         * @return the next record from this iterator
+         * @throws NoSuchElementException if there are no more records to yield
+         */
+        @Override
+        public Record next() {
+            if (this.hasNext()) {
+                Record r = this.nextRecord;
+                this.nextRecord = null;
+                return r;
+            }
+            throw new NoSuchElementException();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An index-only scan of a covering index: an index scan (see
+ * CompositeIndexScanOperator) that reads the values it returns from the
+ * index itself, instead of fetching the record of every matching record id
+ * from the table. A covering index stores the values of its key columns and
+ * of its included columns (see Transaction#createIndex), so the scan only
+ * returns those columns, in the order of the table's schema.
+ *
+ * The scan reads the matching leaves of the index and no pages of the table,
+ * where an IndexScanOperator does a random read per matching record.
+ */
+class IndexOnlyScanOperator extends CompositeIndexScanOperator {
+    /**
+     * An index-only scan operator.
+     *
+     * @param transaction the transaction containing this operator
+     * @param tableName the table to iterate over
+     * @param indexName the columns of the index, separated by commas
+     * @param prefix values that the first columns of the index must equal
+     * @param predicate a range predicate (<, <=, > or >=) on the column after
+     *                  the prefix, or null to only scan for the prefix
+     * @param value the value of the range predicate
+     */
+    IndexOnlyScanOperator(TransactionContext transaction,
+                          String tableName,
+                          String indexName,
+                          List<DataBox> prefix,
+                          PredicateOperator predicate,
+                          DataBox value) {
+        super(transaction, tableName, indexName, prefix, predicate, value);
+    }
+
+    @Override
+    public String str() {
+        return String.format("Index Only Scan for %s on %s(%s) (cost=%d)",
+            this.conditions(), this.tableName, this.indexName,
+            this.estimateIOCost());
+    }
+
+    /**
+     * @return the columns stored in the index: its key columns, followed by
+     * its included columns
+     */
+    private List<String> indexColumns() {
+        List<String> columns = new ArrayList<>(columnNames);
+        columns.addAll(transaction.getIncludedColumns(tableName, indexName));
+        return columns;
+    }
+
+    /**
+     * @return the indices of the columns stored in the index in the schema of
+     * the table, in ascending order
+     */
+    private List<Integer> tableColumns() {
+        Schema schema = transaction.getFullyQualifiedSchema(tableName);
+        List<Integer> columns = new ArrayList<>();
+        for (String column : indexColumns()) {
+            columns.add(schema.findField(column));
+        }
+        Collections.sort(columns);
+        return columns;
+    }
+
+    @Override
+    public Schema computeSchema() {
+        Schema schema = transaction.getFullyQualifiedSchema(tableName);
+        Schema result = new Schema();
+        for (int i : tableColumns()) {
+            result.add(schema.getFieldName(i), schema.getFieldType(i));
+        }
+        return result;
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        return super.estimateStats().copyWithColumns(tableColumns());
+    }
+
+    @Override
+    public int estimateIOCost() {
+        int height = transaction.getTreeHeight(tableName, indexName);
+        int order = transaction.getTreeOrder(tableName, indexName);
+        int count = this.stats.getNumRecords();
+        // the matching entries are read from leaves, assumed to be 75% full,
+        // and no records are fetched
+        return (int) (height + Math.ceil(count / (1.5 * order)));
+    }
+
+    @Override
+    Iterator<Record> scanFrom(DataBox startKey) {
+        // The index returns the values of its columns in the order of
+        // indexColumns; reorder them to the order of the table
+        Schema schema = transaction.getFullyQualifiedSchema(tableName);
+        List<String> indexColumns = indexColumns();
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < indexColumns.size(); ++i) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingInt(i -> schema.findField(indexColumns.get(i))));
+
+        Iterator<Record> entries = transaction.indexOnlyScanFrom(tableName, indexName, startKey);
+        return new Iterator<Record>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Record next() {
+                Record entry = entries.next();
+                List<DataBox> values = new ArrayList<>();
+                for (int i : order) {
+                    values.add(entry.getValue(i));
+                }
+                return new Record(values);
+            }
+        };
+    }
+}
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.query;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.index.CompositeKey;
 import edu.berkeley.cs186.database.query.expr.Expression;
 import edu.berkeley.cs186.database.query.join.BNLJOperator;
 import edu.berkeley.cs186.database.query.join.SNLJOperator;
@@ -527,6 +528,101 @@ public class QueryPlan {
         return result;
     }
 
+    /**
+     * Gets the select predicates that a scan of the composite index on
+     * `columns` of the given table can use: equality predicates on the first
+     * columns of the index (at most one per column), followed by at most one
+     * range predicate (<, <=, > or >=) on the next column.
+     *
+     * @return a list of indices of the predicates in this.selectPredicates,
+     * in the order of the index's columns. Empty if there is no predicate on
+     * the first column of the index.
+     */
+    private List<Integer> getCompositeIndexPredicates(String table, List<String> columns) {
+        List<Integer> result = new ArrayList<>();
+        for (String column : columns) {
+            int equality = findIndexPredicate(table, column, true);
+            if (equality == -1) {
+                int range = findIndexPredicate(table, column, false);
+                if (range != -1) result.add(range);
+                break;
+            }
+            result.add(equality);
+        }
+        return result;
+    }
+
+    /**
+     * @return the index of an equality predicate (if equality is true) or a
+     * range predicate (otherwise) on table.column in this.selectPredicates,
+     * or -1 if there is none
+     */
+    private int findIndexPredicate(String table, String column, boolean equality) {
+        for (int i = 0; i < this.selectPredicates.size(); i++) {
+            SelectPredicate p = this.selectPredicates.get(i);
+            if (!p.tableName.equals(table) || !p.column.equalsIgnoreCase(column)) continue;
+            if (equality == (p.operator == PredicateOperator.EQUALS) &&
+                    p.operator != PredicateOperator.NOT_EQUALS) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the columns of `table` that the query uses, in lower case, or
+     * null if they are not known (e.g. when the query projects expressions)
+     */
+    private Set<String> getReferencedColumns(String table) {
+        if (this.projectFunctions != null) return null;
+        Set<String> result = new HashSet<>();
+        try {
+            if (this.projectColumns.isEmpty()) {
+                // SELECT *
+                for (String column : this.transaction.getSchema(table).getFieldNames()) {
+                    addReferencedColumn(result, table, table + "." + column);
+                }
+            }
+            for (String column : this.projectColumns) addReferencedColumn(result, table, column);
+            for (String column : this.groupByColumns) addReferencedColumn(result, table, column);
+            if (this.sortColumn != null) addReferencedColumn(result, table, this.sortColumn);
+            for (JoinPredicate p : this.joinPredicates) {
+                addReferencedColumn(result, table, p.leftColumn);
+                addReferencedColumn(result, table, p.rightColumn);
+            }
+        } catch (RuntimeException err) {
+            // e.g. an aggregate, which is not a column
+            return null;
+        }
+        for (SelectPredicate p : this.selectPredicates) {
+            if (p.tableName.equals(table)) result.add(p.column.toLowerCase());
+        }
+        return result;
+    }
+
+    private void addReferencedColumn(Set<String> columns, String table, String column) {
+        String columnTable;
+        if (column.contains(".")) {
+            columnTable = column.split("\\.")[0];
+            column = column.split("\\.")[1];
+        } else columnTable = resolveColumn(column);
+        if (columnTable.equals(table)) columns.add(column.toLowerCase());
+    }
+
+    /**
+     * @return whether the index on `indexName` of the given table stores all of
+     * the columns in `columns` (see IndexOnlyScanOperator)
+     */
+    private boolean isCoveringIndex(String table, String indexName, Set<String> columns) {
+        if (columns == null) return false;
+        Set<String> indexColumns = new HashSet<>();
+        for (String column : CompositeKey.columns(indexName)) indexColumns.add(column.toLowerCase());
+        for (String column : this.transaction.getIncludedColumns(table, indexName)) {
+            indexColumns.add(column.toLowerCase());
+        }
+        return indexColumns.containsAll(columns);
+    }
+
     /**
      * Applies all eligible select predicates to a given source, except for the
      * predicate at index except. The purpose of except is because there might
@@ -541,8 +637,16 @@ public class QueryPlan {
      * @return a new query operator after select predicates have been applied
      */
     private QueryOperator addEligibleSelections(QueryOperator source, int except) {
+        return addEligibleSelections(source, Collections.singletonList(except));
+    }
+
+    /**
+     * Same as above, but skips each of the selections in `except`, which were
+     * all used by a scan of a composite index.
+     */
+    private QueryOperator addEligibleSelections(QueryOperator source, List<Integer> except) {
         for (int i = 0; i < this.selectPredicates.size(); i++) {
-            if (i == except) continue;
+            if (except.contains(i)) continue;
             SelectPredicate curr = this.selectPredicates.get(i);
             try {
                 String colName = source.getSchema().matchFieldName(curr.tableName + "." + curr.column);
@@ -564,7 +668,11 @@ public class QueryPlan {
      * eligible select predicates.
      *
      * If an index scan was chosen, exclude the redundant select predicate when
-     * pushing down selects. This method will be called during the first pass of
+     * pushing down selects. Composite indices are scanned for a prefix of their
+     * key (see CompositeIndexScanOperator), and may make several select
+     * predicates redundant. Indices that store every column the query uses
+     * are also scanned without reading the table (see IndexOnlyScanOperator),
+     * with or without predicates to answer. This method will be called during the first pass of
      * the search algorithm to determine the most efficient way to access each
      * table.
      *
@@ -593,8 +701,38 @@ public class QueryPlan {
                 expect = index;
             }
         }
+        List<Integer> except = Collections.singletonList(expect);
+        Set<String> referencedColumns = getReferencedColumns(table);
+        for (String indexName : transaction.getIndexedColumns(table)) {
+            List<String> columns = CompositeKey.columns(indexName);
+            boolean covering = isCoveringIndex(table, indexName, referencedColumns);
+            if (columns.size() == 1 && !covering) continue;
+            List<Integer> used = getCompositeIndexPredicates(table, columns);
+            if (used.isEmpty() && !covering) continue;
+            List<DataBox> prefix = new ArrayList<>();
+            PredicateOperator operator = null;
+            DataBox value = null;
+            for (int index : used) {
+                SelectPredicate selectPredicate = selectPredicates.get(index);
+                if (selectPredicate.operator == PredicateOperator.EQUALS) {
+                    prefix.add(selectPredicate.value);
+                } else {
+                    operator = selectPredicate.operator;
+                    value = selectPredicate.value;
+                }
+            }
+            QueryOperator records = covering
+                ? new IndexOnlyScanOperator(transaction, table, indexName, prefix, operator, value)
+                : new CompositeIndexScanOperator(transaction, table, indexName, prefix, operator, value);
+            int IO = records.estimateIOCost();
+            if (IO < minIO) {
+                minIO = IO;
+                minOp = records;
+                except = used;
+            }
+        }
         //对任何涉及表的选择谓词进行下推
-        return addEligibleSelections(minOp,expect);
+        return addEligibleSelections(minOp, except);
     }
 
     // Task 6: Join Selection //////////////////////////////////////////////////
@@ -1,16 +1,22 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
-import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Implementation of ARIES.
@@ -34,11 +40,89 @@ public class ARIESRecoveryManager implements RecoveryManager {
     // true if redo phase of restart has terminated, false otherwise. Used
     // to prevent DPT entries from being flushed during restartRedo.
     boolean redoComplete;
+    // LSN of the begin checkpoint record of the last complete checkpoint.
+    volatile long lastCheckpointLSN;
+    // Background log flusher, if commits are asynchronous (see setAsyncCommit).
+    private volatile ScheduledExecutorService logFlusher;
+    // Whether before/after images of page updates are compressed in the log.
+    private volatile boolean compressLog;
+    // Maximum number of log records cached per transaction (see
+    // TransactionTableEntry#cacheRecord).
+    private volatile int maxCachedRecords = TransactionTableEntry.MAX_CACHED_RECORDS;
 
     public ARIESRecoveryManager(Function<Long, Transaction> newTransaction) {
         this.newTransaction = newTransaction;
     }
 
+    /**
+     * Sets whether commits are asynchronous. With asynchronous commits, commit
+     * returns as soon as the commit record is appended, without flushing the
+     * log, and a background thread flushes the log every maxDelayMillis
+     * milliseconds instead. A crash may then lose transactions that committed
+     * up to roughly maxDelayMillis milliseconds before it, but never leaves the
+     * database in an inconsistent state.
+     *
+     * @param maxDelayMillis maximum time in milliseconds between a commit and
+     *                       the log flush that makes it durable, or 0 to make
+     *                       every commit flush the log
+     */
+    public synchronized void setAsyncCommit(long maxDelayMillis) {
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("commit delay must not be negative");
+        }
+        stopLogFlusher();
+        if (maxDelayMillis > 0) {
+            logFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "log-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            logFlusher.scheduleAtFixedRate(() -> logManager.flushToLSN(logManager.getLastLSN()),
+                    maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return true if commits are asynchronous (see setAsyncCommit)
+     */
+    public boolean isAsyncCommit() {
+        return logFlusher != null;
+    }
+
+    /**
+     * Sets whether the before and after images of page updates are compressed
+     * in the log. Compression trades some CPU time on every page write (and
+     * on every read of the record) for less log to write, and only applies to
+     * records that it makes smaller.
+     */
+    public void setLogCompression(boolean compressLog) {
+        this.compressLog = compressLog;
+    }
+
+    /**
+     * Sets the maximum number of log records cached for each transaction
+     * started from now on, to roll it back without reading the log.
+     */
+    void setMaxCachedRecords(int maxCachedRecords) {
+        this.maxCachedRecords = maxCachedRecords;
+    }
+
+    /**
+     * Stops the background log flusher, if any, and flushes the log so that
+     * every commit so far is durable.
+     */
+    private void stopLogFlusher() {
+        if (logFlusher == null) return;
+        logFlusher.shutdown();
+        try {
+            logFlusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logFlusher = null;
+        logManager.flushToLSN(logManager.getLastLSN());
+    }
+
     /**
      * Initializes the log; only called the first time the database is set up.
      * The master record should be added to the log, and a checkpoint should be
@@ -78,7 +162,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public synchronized void startTransaction(Transaction transaction) {
-        this.transactionTable.put(transaction.getTransNum(), new TransactionTableEntry(transaction));
+        TransactionTableEntry entry = new TransactionTableEntry(transaction, maxCachedRecords);
+        // Every record the transaction writes comes after the current end of the log.
+        entry.firstLSN = logManager.getLastLSN();
+        this.transactionTable.put(transaction.getTransNum(), entry);
     }
 
     /**
@@ -86,14 +173,30 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *
      * A commit record should be appended, the log should be flushed,
      * and the transaction table and the transaction status should be updated.
+     * If commits are asynchronous, the log is left for the background flusher.
      *
      * @param transNum transaction being committed
      * @return LSN of the commit record
      */
     @Override
     public long commit(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        bufferManager.logCoalescedUpdates(transNum);
+        long LSN;
+        synchronized (transactionEntry) {
+            LogRecord record = new CommitTransactionLogRecord(transNum, transactionEntry.lastLSN);
+            LSN = logManager.appendToLog(record);
+            transactionEntry.lastLSN = LSN;
+        }
+        // A committed transaction is never rolled back.
+        transactionEntry.clearCachedRecords();
+        if (!isAsyncCommit()) {
+            logManager.flushToLSN(LSN);
+        }
+        transactionEntry.transaction.setStatus(Transaction.Status.COMMITTING);
+        return LSN;
     }
 
     /**
@@ -108,8 +211,18 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long abort(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long LSN;
+        synchronized (transactionEntry) {
+            LogRecord record = new AbortTransactionLogRecord(transNum, transactionEntry.lastLSN);
+            LSN = logManager.appendToLog(record);
+            transactionEntry.lastLSN = LSN;
+            transactionEntry.cacheRecord(record);
+        }
+        transactionEntry.transaction.setStatus(Transaction.Status.ABORTING);
+        return LSN;
     }
 
     /**
@@ -126,8 +239,22 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long end(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        Transaction transaction = transactionEntry.transaction;
+        if (transaction.getStatus() == Transaction.Status.ABORTING) {
+            rollbackToLSN(transNum, 0L);
+        }
+        bufferManager.logCoalescedUpdates(transNum);
+        long LSN;
+        synchronized (transactionEntry) {
+            LogRecord record = new EndTransactionLogRecord(transNum, transactionEntry.lastLSN);
+            LSN = logManager.appendToLog(record);
+        }
+        transactionTable.remove(transNum);
+        transaction.setStatus(Transaction.Status.COMPLETE);
+        return LSN;
     }
 
     /**
@@ -149,12 +276,60 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     private void rollbackToLSN(long transNum, long LSN) {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
-        LogRecord lastRecord = logManager.fetchLogRecord(transactionEntry.lastLSN);
+        bufferManager.logCoalescedUpdates(transNum);
+        LogRecord lastRecord = fetchTransactionRecord(transactionEntry, transactionEntry.lastLSN);
         long lastRecordLSN = lastRecord.getLSN();
         // Small optimization: if the last record is a CLR we can start rolling
         // back from the next record that hasn't yet been undone.
         long currentLSN = lastRecord.getUndoNextLSN().orElse(lastRecordLSN);
-        // TODO(proj5) implement the rollback logic described above
+        while (currentLSN > LSN) {
+            LogRecord record = fetchTransactionRecord(transactionEntry, currentLSN);
+            // Once undone, a record is skipped by the undoNextLSN of its CLR,
+            // so it can make room in the cache for the CLR.
+            transactionEntry.uncacheRecord(currentLSN);
+            if (record.isUndoable()) {
+                LogRecord clr;
+                synchronized (transactionEntry) {
+                    clr = record.undo(transactionEntry.lastLSN);
+                    transactionEntry.lastLSN = logManager.appendToLog(clr);
+                    transactionEntry.cacheRecord(clr);
+                }
+                redoCLR(clr);
+            }
+            currentLSN = nextUndoLSN(record);
+        }
+    }
+
+    /**
+     * Performs the undo described by a CLR that was just appended. The CLR is
+     * the only log record of the undo, so its page writes are made outside of
+     * any transaction: logged again as updates of the transaction, they would
+     * be redone after a crash, and never undone.
+     */
+    private void redoCLR(LogRecord clr) {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            TransactionContext.unsetTransaction();
+        }
+        try {
+            clr.redo(this, diskSpaceManager, bufferManager);
+        } finally {
+            if (transaction != null) {
+                TransactionContext.setTransaction(transaction);
+            }
+        }
+    }
+
+    /**
+     * Fetches a log record written by a transaction, from the transaction's
+     * cache of recent records if possible, and from the log otherwise.
+     */
+    private LogRecord fetchTransactionRecord(TransactionTableEntry transactionEntry, long LSN) {
+        LogRecord record = transactionEntry.getCachedRecord(LSN);
+        if (record == null) {
+            record = logManager.fetchLogRecord(LSN);
+        }
+        return record;
     }
 
     /**
@@ -204,8 +379,96 @@ public class ARIESRecoveryManager implements RecoveryManager {
                              byte[] after) {
         assert (before.length == after.length);
         assert (before.length <= BufferManager.EFFECTIVE_PAGE_SIZE / 2);
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long LSN;
+        synchronized (transactionEntry) {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new UpdatePageLogRecord(transNum, pageNum, prevLSN, pageOffset, before, after,
+                                                       compressLog);
+            LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+            ++transactionEntry.numLogRecords;
+            transactionEntry.cacheRecord(record);
+        }
+        dirtyPage(pageNum, LSN);
+        return LSN;
+    }
+
+    /**
+     * Called when a record is inserted into a slot of a data page.
+     *
+     * The appropriate log record should be appended, and the transaction
+     * table and dirty page table should be updated accordingly.
+     *
+     * @param transNum transaction inserting the record
+     * @param pageNum page number of the data page
+     * @param bitmapOffset offset into page of the slot bitmap
+     * @param slot slot of the record, or -1 if the page has no bitmap
+     * @param offset offset into page of the record
+     * @param record bytes of the record
+     * @return LSN of the record written to log
+     */
+    @Override
+    public long logInsertRecord(long transNum, long pageNum, short bitmapOffset, short slot, short offset,
+                                byte[] record) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        // Coalesced updates to the page must be logged first.
+        bufferManager.logCoalescedPageUpdates(pageNum);
+        long LSN;
+        synchronized (transactionEntry) {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord logRecord = new InsertRecordLogRecord(transNum, pageNum, prevLSN, bitmapOffset, slot, offset,
+                    record);
+            LSN = logManager.appendToLog(logRecord);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+            ++transactionEntry.numLogRecords;
+            transactionEntry.cacheRecord(logRecord);
+        }
+        dirtyPage(pageNum, LSN);
+        return LSN;
+    }
+
+    /**
+     * Called when the record in a slot of a data page is deleted.
+     *
+     * The appropriate log record should be appended, and the transaction
+     * table and dirty page table should be updated accordingly.
+     *
+     * @param transNum transaction deleting the record
+     * @param pageNum page number of the data page
+     * @param bitmapOffset offset into page of the slot bitmap
+     * @param slot slot of the record
+     * @param offset offset into page of the record
+     * @param record bytes of the deleted record
+     * @return LSN of the record written to log
+     */
+    @Override
+    public long logDeleteRecord(long transNum, long pageNum, short bitmapOffset, short slot, short offset,
+                                byte[] record) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        // Coalesced updates to the page must be logged first.
+        bufferManager.logCoalescedPageUpdates(pageNum);
+        long LSN;
+        synchronized (transactionEntry) {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord logRecord = new DeleteRecordLogRecord(transNum, pageNum, prevLSN, bitmapOffset, slot, offset,
+                    record);
+            LSN = logManager.appendToLog(logRecord);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+            ++transactionEntry.numLogRecords;
+            transactionEntry.cacheRecord(logRecord);
+        }
+        dirtyPage(pageNum, LSN);
+        return LSN;
     }
 
     /**
@@ -228,11 +491,16 @@ public class ARIESRecoveryManager implements RecoveryManager {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
 
-        long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new AllocPartLogRecord(transNum, partNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
-        // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN;
+        synchronized (transactionEntry) {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new AllocPartLogRecord(transNum, partNum, prevLSN);
+            LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+            ++transactionEntry.numLogRecords;
+            transactionEntry.cacheRecord(record);
+        }
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -259,11 +527,16 @@ public class ARIESRecoveryManager implements RecoveryManager {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
 
-        long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new FreePartLogRecord(transNum, partNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
-        // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN;
+        synchronized (transactionEntry) {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new FreePartLogRecord(transNum, partNum, prevLSN);
+            LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+            ++transactionEntry.numLogRecords;
+            transactionEntry.cacheRecord(record);
+        }
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -290,11 +563,16 @@ public class ARIESRecoveryManager implements RecoveryManager {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
 
-        long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new AllocPageLogRecord(transNum, pageNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
-        // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN;
+        synchronized (transactionEntry) {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new AllocPageLogRecord(transNum, pageNum, prevLSN);
+            LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+            ++transactionEntry.numLogRecords;
+            transactionEntry.cacheRecord(record);
+        }
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -321,11 +599,16 @@ public class ARIESRecoveryManager implements RecoveryManager {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
 
-        long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new FreePageLogRecord(transNum, pageNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
-        // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN;
+        synchronized (transactionEntry) {
+            long prevLSN = transactionEntry.lastLSN;
+            LogRecord record = new FreePageLogRecord(transNum, pageNum, prevLSN);
+            LSN = logManager.appendToLog(record);
+            // Update lastLSN
+            transactionEntry.lastLSN = LSN;
+            ++transactionEntry.numLogRecords;
+            transactionEntry.cacheRecord(record);
+        }
         dirtyPageTable.remove(pageNum);
         // Flush log
         logManager.flushToLSN(LSN);
@@ -347,6 +630,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
     public void savepoint(long transNum, String name) {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
+        bufferManager.logCoalescedUpdates(transNum);
         transactionEntry.addSavepoint(name);
     }
 
@@ -379,9 +663,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         // All of the transaction's changes strictly after the record at LSN should be undone.
         long savepointLSN = transactionEntry.getSavepoint(name);
-
-        // TODO(proj5): implement
-        return;
+        rollbackToLSN(transNum, savepointLSN);
     }
 
     /**
@@ -407,7 +689,23 @@ public class ARIESRecoveryManager implements RecoveryManager {
         Map<Long, Long> chkptDPT = new HashMap<>();
         Map<Long, Pair<Transaction.Status, Long>> chkptTxnTable = new HashMap<>();
 
-        // TODO(proj5): generate end checkpoint record(s) for DPT and transaction table
+        for (Map.Entry<Long, Long> entry : dirtyPageTable.entrySet()) {
+            if (!EndCheckpointLogRecord.fitsInOneRecord(chkptDPT.size() + 1, chkptTxnTable.size())) {
+                logManager.appendToLog(new EndCheckpointLogRecord(chkptDPT, chkptTxnTable));
+                chkptDPT.clear();
+            }
+            chkptDPT.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+            if (!EndCheckpointLogRecord.fitsInOneRecord(chkptDPT.size(), chkptTxnTable.size() + 1)) {
+                logManager.appendToLog(new EndCheckpointLogRecord(chkptDPT, chkptTxnTable));
+                chkptDPT.clear();
+                chkptTxnTable.clear();
+            }
+            TransactionTableEntry transactionEntry = entry.getValue();
+            chkptTxnTable.put(entry.getKey(), new Pair<>(transactionEntry.transaction.getStatus(),
+                    transactionEntry.lastLSN));
+        }
 
         // Last end checkpoint record
         LogRecord endRecord = new EndCheckpointLogRecord(chkptDPT, chkptTxnTable);
@@ -418,6 +716,49 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // Update master record
         MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
         logManager.rewriteMasterRecord(masterRecord);
+        lastCheckpointLSN = beginLSN;
+
+        truncateLog(beginLSN);
+    }
+
+    /**
+     * Frees the log pages that are no longer needed after a checkpoint: the
+     * log is kept from the smallest of the begin checkpoint LSN (for
+     * analysis), the recLSNs in the DPT (for redo), and the first LSNs of the
+     * transactions in the transaction table (for undo).
+     *
+     * @param beginLSN LSN of the begin checkpoint record just written to the
+     *                 master record
+     * @return number of log pages freed
+     */
+    long truncateLog(long beginLSN) {
+        long LSN = beginLSN;
+        for (long recLSN : dirtyPageTable.values()) {
+            LSN = Math.min(LSN, recLSN);
+        }
+        for (TransactionTableEntry entry : transactionTable.values()) {
+            LSN = Math.min(LSN, entry.firstLSN);
+        }
+        // Freeing pages on behalf of a transaction would log their contents,
+        // so log pages are always freed outside of any transaction.
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            TransactionContext.unsetTransaction();
+        }
+        try {
+            return logManager.truncate(LSN);
+        } finally {
+            if (transaction != null) {
+                TransactionContext.setTransaction(transaction);
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes of log space freed by truncation since startup
+     */
+    public long getReclaimedLogSpace() {
+        return logManager.getNumReclaimedPages() * DiskSpaceManager.PAGE_SIZE;
     }
 
     /**
@@ -432,6 +773,12 @@ public class ARIESRecoveryManager implements RecoveryManager {
         this.logManager.flushToLSN(LSN);
     }
 
+    @Override
+    public long getNumLogRecords(long transNum) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        return transactionEntry == null ? 0 : transactionEntry.numLogRecords;
+    }
+
     @Override
     public void dirtyPage(long pageNum, long LSN) {
         dirtyPageTable.putIfAbsent(pageNum, LSN);
@@ -440,9 +787,23 @@ public class ARIESRecoveryManager implements RecoveryManager {
         dirtyPageTable.computeIfPresent(pageNum, (k, v) -> Math.min(LSN,v));
     }
 
+    /**
+     * Shuts down the recovery manager. If no transaction is running and no
+     * page is dirty after the final checkpoint (i.e. the buffer manager was
+     * flushed first), the master record is marked as a clean shutdown, so
+     * that the next restart can skip recovery entirely.
+     */
     @Override
     public void close() {
+        synchronized (this) {
+            stopLogFlusher();
+        }
         this.checkpoint();
+        synchronized (this) {
+            if (transactionTable.isEmpty() && dirtyPageTable.isEmpty()) {
+                logManager.rewriteMasterRecord(new MasterLogRecord(lastCheckpointLSN, true));
+            }
+        }
         this.logManager.close();
     }
 
@@ -450,8 +811,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     /**
      * Called whenever the database starts up, and performs restart recovery.
-     * Recovery is complete when the Runnable returned is run to termination.
-     * New transactions may be started once this method returns.
+     * Recovery is complete when this method returns.
      *
      * This should perform the three phases of recovery, and also clean the
      * dirty page table of non-dirty pages (pages that aren't dirty in the
@@ -460,6 +820,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public void restart() {
+        if (this.restartFromCleanShutdown()) return;
         this.restartAnalysis();
         this.restartRedo();
         this.redoComplete = true;
@@ -468,6 +829,56 @@ public class ARIESRecoveryManager implements RecoveryManager {
         this.checkpoint();
     }
 
+    /**
+     * Performs the analysis and redo passes of restart recovery, and defers
+     * the undo pass so that new transactions can run while it is in progress.
+     *
+     * Between redo and undo, X locks are reacquired on behalf of each
+     * RECOVERY_ABORTING transaction on every page it still needs to undo (see
+     * reacquireUndoLocks), so new transactions block on exactly the data the
+     * background undo pass has yet to roll back. Transactions that cannot be
+     * protected by locks are rolled back before this method returns.
+     *
+     * The returned Runnable performs the undo pass for the remaining
+     * transactions followed by a checkpoint.
+     */
+    @Override
+    public Runnable restartWithDeferredUndo(Function<Long, LockContext> pageLockContext) {
+        if (this.restartFromCleanShutdown()) return () -> {};
+        this.restartAnalysis();
+        this.restartRedo();
+        this.redoComplete = true;
+        this.cleanDPT();
+        Set<Long> deferred = this.reacquireUndoLocks(pageLockContext);
+        this.restartUndo(transNum -> !deferred.contains(transNum));
+        return () -> {
+            this.restartUndo(deferred::contains);
+            this.checkpoint();
+        };
+    }
+
+    /**
+     * Checks the master record for a clean shutdown (see close). After a clean
+     * shutdown, the last checkpoint has an empty DPT and transaction table and
+     * is the end of the log, so the analysis, redo, and undo passes would all
+     * do nothing and are skipped. The mark is cleared before returning, so
+     * that a crash from here on is recovered from as usual.
+     *
+     * @return true if the database was shut down cleanly
+     */
+    boolean restartFromCleanShutdown() {
+        LogRecord record = logManager.fetchLogRecord(0L);
+        assert (record != null && record.getType() == LogType.MASTER);
+        MasterLogRecord masterRecord = (MasterLogRecord) record;
+        if (!masterRecord.cleanShutdown) {
+            return false;
+        }
+        lastCheckpointLSN = masterRecord.lastCheckpointLSN;
+        logManager.rewriteMasterRecord(new MasterLogRecord(lastCheckpointLSN));
+        redoComplete = true;
+        return true;
+    }
+
     /**
      * This method performs the analysis pass of restart recovery.
      *
@@ -517,10 +928,108 @@ public class ARIESRecoveryManager implements RecoveryManager {
         MasterLogRecord masterRecord = (MasterLogRecord) record;
         // Get start checkpoint LSN
         long LSN = masterRecord.lastCheckpointLSN;
+        lastCheckpointLSN = LSN;
         // Set of transactions that have completed
         Set<Long> endedTransactions = new HashSet<>();
-        // TODO(proj5): implement
-        return;
+
+        // Only end checkpoint records have to be deserialized here.
+        LogCursor cursor = logManager.cursorFrom(LSN);
+        while (cursor.next()) {
+            if (cursor.hasTransNum()) {
+                long transNum = cursor.getTransNum();
+                if (!transactionTable.containsKey(transNum)) {
+                    startTransaction(newTransaction.apply(transNum));
+                    // the transaction may have records before the checkpoint
+                    transactionTable.get(transNum).firstLSN = 0;
+                }
+                transactionTable.get(transNum).lastLSN = cursor.getLSN();
+            }
+
+            if (cursor.hasPageNum()) {
+                long pageNum = cursor.getPageNum();
+                switch (cursor.getType()) {
+                case UPDATE_PAGE:
+                case UNDO_UPDATE_PAGE:
+                case INSERT_RECORD:
+                case DELETE_RECORD:
+                case UNDO_INSERT_RECORD:
+                case UNDO_DELETE_RECORD:
+                    dirtyPage(pageNum, cursor.getLSN());
+                    break;
+                case FREE_PAGE:
+                case UNDO_ALLOC_PAGE:
+                    dirtyPageTable.remove(pageNum);
+                    break;
+                default:
+                    break;
+                }
+            }
+
+            switch (cursor.getType()) {
+            case COMMIT_TRANSACTION:
+                transactionTable.get(cursor.getTransNum()).transaction
+                        .setStatus(Transaction.Status.COMMITTING);
+                break;
+            case ABORT_TRANSACTION:
+                transactionTable.get(cursor.getTransNum()).transaction
+                        .setStatus(Transaction.Status.RECOVERY_ABORTING);
+                break;
+            case END_TRANSACTION: {
+                long transNum = cursor.getTransNum();
+                Transaction transaction = transactionTable.get(transNum).transaction;
+                transaction.cleanup();
+                transaction.setStatus(Transaction.Status.COMPLETE);
+                transactionTable.remove(transNum);
+                endedTransactions.add(transNum);
+                break;
+            }
+            case END_CHECKPOINT:
+                record = cursor.getRecord();
+                dirtyPageTable.putAll(record.getDirtyPageTable());
+                for (Map.Entry<Long, Pair<Transaction.Status, Long>> entry :
+                        record.getTransactionTable().entrySet()) {
+                    long transNum = entry.getKey();
+                    if (endedTransactions.contains(transNum)) continue;
+                    if (!transactionTable.containsKey(transNum)) {
+                        startTransaction(newTransaction.apply(transNum));
+                        transactionTable.get(transNum).firstLSN = 0;
+                    }
+                    TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+                    transactionEntry.lastLSN = Math.max(transactionEntry.lastLSN, entry.getValue().getSecond());
+                    Transaction.Status status = entry.getValue().getFirst();
+                    if (status == Transaction.Status.ABORTING) {
+                        status = Transaction.Status.RECOVERY_ABORTING;
+                    }
+                    if (canTransition(transactionEntry.transaction.getStatus(), status)) {
+                        transactionEntry.transaction.setStatus(status);
+                    }
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+            long transNum = entry.getKey();
+            TransactionTableEntry transactionEntry = entry.getValue();
+            Transaction transaction = transactionEntry.transaction;
+            switch (transaction.getStatus()) {
+            case COMMITTING:
+                transaction.cleanup();
+                transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, transactionEntry.lastLSN));
+                transactionTable.remove(transNum);
+                break;
+            case RUNNING:
+                transaction.setStatus(Transaction.Status.RECOVERY_ABORTING);
+                transactionEntry.lastLSN = logManager.appendToLog(
+                        new AbortTransactionLogRecord(transNum, transactionEntry.lastLSN));
+                break;
+            default:
+                break;
+            }
+        }
     }
 
     /**
@@ -536,8 +1045,48 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *   the pageLSN is checked, and the record is redone if needed.
      */
     void restartRedo() {
-        // TODO(proj5): implement
-        return;
+        if (dirtyPageTable.isEmpty()) return;
+        long startLSN = Collections.min(dirtyPageTable.values());
+
+        // Records are only deserialized if they have to be redone.
+        LogCursor cursor = logManager.cursorFrom(startLSN);
+        while (cursor.next()) {
+            switch (cursor.getType()) {
+            case ALLOC_PART:
+            case FREE_PART:
+            case UNDO_ALLOC_PART:
+            case UNDO_FREE_PART:
+            case ALLOC_PAGE:
+            case UNDO_FREE_PAGE:
+                cursor.getRecord().redo(this, diskSpaceManager, bufferManager);
+                break;
+            case UPDATE_PAGE:
+            case UNDO_UPDATE_PAGE:
+            case INSERT_RECORD:
+            case DELETE_RECORD:
+            case UNDO_INSERT_RECORD:
+            case UNDO_DELETE_RECORD:
+            case FREE_PAGE:
+            case UNDO_ALLOC_PAGE: {
+                long pageNum = cursor.getPageNum();
+                Long recLSN = dirtyPageTable.get(pageNum);
+                if (recLSN == null || cursor.getLSN() < recLSN) break;
+                Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+                long pageLSN;
+                try {
+                    pageLSN = page.getPageLSN();
+                } finally {
+                    page.unpin();
+                }
+                if (pageLSN < cursor.getLSN()) {
+                    cursor.getRecord().redo(this, diskSpaceManager, bufferManager);
+                }
+                break;
+            }
+            default:
+                break;
+            }
+        }
     }
 
     /**
@@ -554,8 +1103,144 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *   and remove from transaction table.
      */
     void restartUndo() {
-        // TODO(proj5): implement
-        return;
+        restartUndo(transNum -> true);
+    }
+
+    /**
+     * Performs the undo pass of restart recovery for the RECOVERY_ABORTING
+     * transactions whose transaction number matches `include`.
+     */
+    private void restartUndo(Predicate<Long> include) {
+        PriorityQueue<Pair<Long, Long>> toUndo = new PriorityQueue<>(new PairFirstReverseComparator<>());
+        for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+            if (entry.getValue().transaction.getStatus() == Transaction.Status.RECOVERY_ABORTING &&
+                    include.test(entry.getKey())) {
+                toUndo.add(new Pair<>(entry.getValue().lastLSN, entry.getKey()));
+            }
+        }
+
+        while (!toUndo.isEmpty()) {
+            Pair<Long, Long> next = toUndo.poll();
+            long transNum = next.getSecond();
+            TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+            LogRecord record = logManager.fetchLogRecord(next.getFirst());
+            if (record.isUndoable()) {
+                LogRecord clr;
+                synchronized (transactionEntry) {
+                    clr = record.undo(transactionEntry.lastLSN);
+                    transactionEntry.lastLSN = logManager.appendToLog(clr);
+                }
+                redoCLR(clr);
+            }
+
+            long nextLSN = nextUndoLSN(record);
+            if (nextLSN == 0L) {
+                Transaction transaction = transactionEntry.transaction;
+                transaction.cleanup();
+                transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, transactionEntry.lastLSN));
+                transactionTable.remove(transNum);
+            } else {
+                toUndo.add(new Pair<>(nextLSN, transNum));
+            }
+        }
+    }
+
+    /**
+     * Reacquires the locks needed to defer the undo pass. For each
+     * RECOVERY_ABORTING transaction, the chain of records still to be undone
+     * is walked to find the pages the undo pass will modify, and an X lock is
+     * acquired on behalf of the transaction on the lock context protecting
+     * each of them.
+     *
+     * A transaction is excluded (and must be undone before new transactions
+     * are admitted) if it still has to undo a partition-level operation, if
+     * one of its pages has no lock context, or if it shares a lock context
+     * with another RECOVERY_ABORTING transaction.
+     *
+     * @param pageLockContext function from page number to lock context
+     * @return transaction numbers of the transactions that are now protected
+     * by locks
+     */
+    Set<Long> reacquireUndoLocks(Function<Long, LockContext> pageLockContext) {
+        Map<Long, Set<LockContext>> undoContexts = new HashMap<>();
+        Map<ResourceName, Long> owners = new HashMap<>();
+        Set<Long> excluded = new HashSet<>();
+        for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+            long transNum = entry.getKey();
+            TransactionTableEntry transactionEntry = entry.getValue();
+            if (transactionEntry.transaction.getStatus() != Transaction.Status.RECOVERY_ABORTING) continue;
+
+            Set<LockContext> contexts = new HashSet<>();
+            long currentLSN = transactionEntry.lastLSN;
+            while (currentLSN > 0L && !excluded.contains(transNum)) {
+                LogRecord record = logManager.fetchLogRecord(currentLSN);
+                if (record.isUndoable()) {
+                    LockContext context = record.getPageNum().map(pageLockContext).orElse(null);
+                    if (context == null) {
+                        excluded.add(transNum);
+                    } else if (contexts.add(context)) {
+                        Long owner = owners.putIfAbsent(context.getResourceName(), transNum);
+                        if (owner != null) {
+                            excluded.add(transNum);
+                            excluded.add(owner);
+                        }
+                    }
+                }
+                currentLSN = nextUndoLSN(record);
+            }
+            undoContexts.put(transNum, contexts);
+        }
+
+        Set<Long> deferred = new HashSet<>();
+        for (Map.Entry<Long, Set<LockContext>> entry : undoContexts.entrySet()) {
+            if (excluded.contains(entry.getKey())) continue;
+            TransactionContext transaction = transactionTable.get(entry.getKey()).transaction
+                                             .getTransactionContext();
+            TransactionContext.setTransaction(transaction);
+            try {
+                for (LockContext context : entry.getValue()) {
+                    LockUtil.ensureSufficientLockHeld(context, LockType.X);
+                }
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+            deferred.add(entry.getKey());
+        }
+        return deferred;
+    }
+
+    /**
+     * Flushes every page in the DPT whose recLSN is less than `LSN`, so that
+     * the redo pass of a future restart does not have to start before `LSN`.
+     * Entries for pages that turn out not to be dirty are removed.
+     *
+     * @param LSN LSN before which no recLSN should remain in the DPT
+     * @return number of pages flushed
+     */
+    int flushDirtyPagesBefore(long LSN) {
+        int numFlushed = 0;
+        for (Map.Entry<Long, Long> entry : dirtyPageTable.entrySet()) {
+            if (entry.getValue() >= LSN) continue;
+            long pageNum = entry.getKey();
+            Page page;
+            try {
+                page = bufferManager.fetchPage(new DummyLockContext("_dummyCheckpointFlush"), pageNum);
+            } catch (PageException e) {
+                // page was freed concurrently
+                continue;
+            }
+            // No writes can happen while the page is pinned, so anything left
+            // in the DPT after the flush is stale.
+            try {
+                page.flush();
+                dirtyPageTable.remove(pageNum);
+            } finally {
+                page.unpin();
+            }
+            ++numFlushed;
+        }
+        return numFlushed;
     }
 
     /**
@@ -577,6 +1262,31 @@ public class ARIESRecoveryManager implements RecoveryManager {
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
+    /**
+     * Returns the LSN of the next record of the same transaction that needs
+     * to be undone after `record`: the undoNextLSN if `record` is a CLR, and
+     * the prevLSN otherwise.
+     */
+    private static long nextUndoLSN(LogRecord record) {
+        return record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
+    }
+
+    /**
+     * Returns whether a transaction can move from status `from` to status `to`
+     * while the analysis pass replays a checkpoint.
+     */
+    private static boolean canTransition(Transaction.Status from, Transaction.Status to) {
+        switch (from) {
+        case RUNNING:
+            return to != Transaction.Status.RUNNING;
+        case COMMITTING:
+        case RECOVERY_ABORTING:
+            return to == Transaction.Status.COMPLETE;
+        default:
+            return false;
+        }
+    }
+
     /**
      * Comparator for Pair<A, B> comparing only on the first element (type A),
      * in reverse order.
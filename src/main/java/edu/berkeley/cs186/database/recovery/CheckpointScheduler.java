@@ -0,0 +1,129 @@
+package edu.berkeley.cs186.database.recovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically takes fuzzy checkpoints on behalf of an ARIESRecoveryManager,
+ * so that the amount of work done by restart recovery stays bounded.
+ *
+ * Recovery time is driven by two things: how far back analysis has to start
+ * (the amount of log since the last checkpoint), and how far back redo has to
+ * start (the oldest recLSN in the DPT), as well as how many pages redo might
+ * touch (the size of the DPT). Each tick of the scheduler:
+ *   - flushes every dirty page whose recLSN is more than maxRedoLogPages log
+ *     pages behind the end of the log,
+ *   - if the DPT still has more than maxDirtyPages entries, flushes the
+ *     pages with the oldest recLSNs until it does not,
+ *   - takes a checkpoint if more than maxCheckpointLogPages log pages were
+ *     written since the last checkpoint, or if any page was flushed (so that
+ *     the smaller DPT is recorded in the log).
+ */
+public class CheckpointScheduler implements AutoCloseable {
+    private final ARIESRecoveryManager recoveryManager;
+    private final ScheduledExecutorService executor;
+
+    // Recovery time targets, in log pages / pages.
+    private volatile long maxCheckpointLogPages = 64;
+    private volatile long maxRedoLogPages = 256;
+    private volatile int maxDirtyPages = 1024;
+
+    /**
+     * Creates a scheduler for recoveryManager. Nothing runs until start is
+     * called; run may also be called directly.
+     */
+    public CheckpointScheduler(ARIESRecoveryManager recoveryManager) {
+        this.recoveryManager = recoveryManager;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts running the scheduler every periodMillis milliseconds.
+     */
+    public void start(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("checkpoint period must be positive");
+        }
+        executor.scheduleWithFixedDelay(this::run, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the number of log pages that may be written after a checkpoint
+     * before another checkpoint is taken. Bounds the analysis pass.
+     */
+    public void setMaxCheckpointLogPages(long maxCheckpointLogPages) {
+        this.maxCheckpointLogPages = maxCheckpointLogPages;
+    }
+
+    /**
+     * Sets how many log pages behind the end of the log the recLSN of a dirty
+     * page may be before the page is flushed. Bounds where the redo pass starts.
+     */
+    public void setMaxRedoLogPages(long maxRedoLogPages) {
+        this.maxRedoLogPages = maxRedoLogPages;
+    }
+
+    /**
+     * Sets the number of entries the DPT may have before the pages with the
+     * oldest recLSNs are flushed. Bounds the pages the redo pass may touch.
+     */
+    public void setMaxDirtyPages(int maxDirtyPages) {
+        this.maxDirtyPages = maxDirtyPages;
+    }
+
+    /**
+     * Runs one tick of the scheduler.
+     * @return true if a checkpoint was taken
+     */
+    synchronized boolean run() {
+        long lastLSN = recoveryManager.logManager.getLastLSN();
+        long lastPage = LogManager.getLSNPage(lastLSN);
+
+        int numFlushed = 0;
+        long redoPage = lastPage - maxRedoLogPages;
+        if (redoPage > 0) {
+            numFlushed += recoveryManager.flushDirtyPagesBefore(LogManager.makeLSN(redoPage, 0));
+        }
+
+        int excess = recoveryManager.dirtyPageTable.size() - maxDirtyPages;
+        if (excess > 0) {
+            List<Long> recLSNs = new ArrayList<>(recoveryManager.dirtyPageTable.values());
+            Collections.sort(recLSNs);
+            if (excess < recLSNs.size()) {
+                // Flush everything strictly older than the recLSN of the
+                // oldest page we are allowed to keep.
+                numFlushed += recoveryManager.flushDirtyPagesBefore(recLSNs.get(excess));
+            } else {
+                numFlushed += recoveryManager.flushDirtyPagesBefore(Long.MAX_VALUE);
+            }
+        }
+
+        long checkpointPage = LogManager.getLSNPage(recoveryManager.lastCheckpointLSN);
+        if (numFlushed > 0 || lastPage - checkpointPage > maxCheckpointLogPages) {
+            recoveryManager.checkpoint();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stops the scheduler, waiting for a tick in progress to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 
 public class DummyRecoveryManager implements RecoveryManager {
     private Map<Long, Transaction> runningTransactions = new HashMap<>();
@@ -45,12 +47,29 @@ public class DummyRecoveryManager implements RecoveryManager {
     @Override
     public void diskIOHook(long pageNum) {}
 
+    @Override
+    public long getNumLogRecords(long transNum) {
+        return 0L;
+    }
+
     @Override
     public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
                              byte[] after) {
         return 0L;
     }
 
+    @Override
+    public long logInsertRecord(long transNum, long pageNum, short bitmapOffset, short slot, short offset,
+                                byte[] record) {
+        return 0L;
+    }
+
+    @Override
+    public long logDeleteRecord(long transNum, long pageNum, short bitmapOffset, short slot, short offset,
+                                byte[] record) {
+        return 0L;
+    }
+
     @Override
     public long logAllocPart(long transNum, int partNum) {
         return 0L;
@@ -100,6 +119,11 @@ public class DummyRecoveryManager implements RecoveryManager {
     @Override
     public void restart() {}
 
+    @Override
+    public Runnable restartWithDeferredUndo(Function<Long, LockContext> pageLockContext) {
+        return () -> {};
+    }
+
     @Override
     public void close() {}
 }
@@ -0,0 +1,244 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.records.*;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Forward cursor over the log that decodes the header fields of each record
+ * (type, LSN, transaction number, and page number) in place, and only
+ * deserializes the whole LogRecord when getRecord is called. Scans that only
+ * look at most records' headers, such as the analysis pass, avoid creating a
+ * LogRecord (and copying its contents) for every record this way.
+ *
+ * Each log page is copied once into a buffer that is reused for every page,
+ * so records appended to a page after the cursor moved onto it are not seen.
+ *
+ * Usage:
+ *   LogCursor cursor = logManager.cursorFrom(LSN);
+ *   while (cursor.next()) {
+ *       ... cursor.getType(), cursor.getLSN(), cursor.getRecord() ...
+ *   }
+ */
+public class LogCursor {
+    private final BufferManager bufferManager;
+    private final byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+    private final Buffer buf = ByteBuffer.wrap(page);
+    // log page loaded into `page`, or -1 once the end of the log is reached
+    private long pageNum;
+    // offset of the current record, and of the record after it
+    private int offset;
+    private int nextOffset;
+    // type of the current record, or null before the first call to next
+    private LogType type;
+    // the current record, once deserialized
+    private LogRecord record;
+
+    LogCursor(BufferManager bufferManager, long LSN) {
+        this.bufferManager = bufferManager;
+        this.pageNum = LogManager.getLSNPage(LSN);
+        this.nextOffset = LogManager.getLSNIndex(LSN);
+        if (!loadPage(pageNum)) {
+            pageNum = -1;
+        }
+    }
+
+    /**
+     * Moves the cursor to the next record in the log (to the first record,
+     * on the first call).
+     * @return false if there are no more records
+     */
+    public boolean next() {
+        record = null;
+        type = null;
+        offset = nextOffset;
+        while (pageNum >= 0) {
+            if (offset < DiskSpaceManager.PAGE_SIZE && page[offset] != 0) {
+                type = page[offset] == (LogType.MASTER.getValue() | MasterLogRecord.CLEAN_SHUTDOWN_FLAG)
+                       ? LogType.MASTER : LogType.fromInt(page[offset]);
+                nextOffset = offset + getSize();
+                return true;
+            }
+            // end of this page, skip to the next one
+            if (!loadPage(pageNum + 1)) {
+                pageNum = -1;
+                return false;
+            }
+            ++pageNum;
+            offset = 0;
+        }
+        return false;
+    }
+
+    /**
+     * @return type of the current record
+     */
+    public LogType getType() {
+        checkValid();
+        return type;
+    }
+
+    /**
+     * @return LSN of the current record
+     */
+    public long getLSN() {
+        checkValid();
+        return LogManager.makeLSN(pageNum, offset);
+    }
+
+    /**
+     * @return whether the current record has a transaction number
+     */
+    public boolean hasTransNum() {
+        switch (getType()) {
+        case MASTER:
+        case BEGIN_CHECKPOINT:
+        case END_CHECKPOINT:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * @return transaction number of the current record
+     * @throws NoSuchElementException if the record has no transaction number
+     */
+    public long getTransNum() {
+        if (!hasTransNum()) {
+            throw new NoSuchElementException("record has no transaction number: " + type);
+        }
+        // every record with a transaction number starts with it
+        return buf.getLong(offset + 1);
+    }
+
+    /**
+     * @return whether the current record has a page number
+     */
+    public boolean hasPageNum() {
+        switch (getType()) {
+        case ALLOC_PAGE:
+        case UPDATE_PAGE:
+        case FREE_PAGE:
+        case UNDO_ALLOC_PAGE:
+        case UNDO_UPDATE_PAGE:
+        case UNDO_FREE_PAGE:
+        case INSERT_RECORD:
+        case DELETE_RECORD:
+        case UNDO_INSERT_RECORD:
+        case UNDO_DELETE_RECORD:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return page number of the current record
+     * @throws NoSuchElementException if the record has no page number
+     */
+    public long getPageNum() {
+        if (!hasPageNum()) {
+            throw new NoSuchElementException("record has no page number: " + type);
+        }
+        // every record with a page number has it right after the transaction number
+        return buf.getLong(offset + 1 + Long.BYTES);
+    }
+
+    /**
+     * Deserializes the current record.
+     * @return the current record, with its LSN set
+     */
+    public LogRecord getRecord() {
+        checkValid();
+        if (record == null) {
+            buf.position(offset);
+            record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
+            record.setLSN(getLSN());
+        }
+        return record;
+    }
+
+    private void checkValid() {
+        if (type == null) {
+            throw new NoSuchElementException("cursor is not on a record");
+        }
+    }
+
+    /**
+     * Computes the serialized size of the current record from its header,
+     * using the size of each record type's toBytes layout.
+     */
+    private int getSize() {
+        switch (type) {
+        case MASTER:
+            return MasterLogRecord.getRecordSize();
+        case BEGIN_CHECKPOINT:
+            return BeginCheckpointLogRecord.getRecordSize();
+        case END_CHECKPOINT:
+            return EndCheckpointLogRecord.getRecordSize(buf, offset);
+        case COMMIT_TRANSACTION:
+            return CommitTransactionLogRecord.getRecordSize();
+        case ABORT_TRANSACTION:
+            return AbortTransactionLogRecord.getRecordSize();
+        case END_TRANSACTION:
+            return EndTransactionLogRecord.getRecordSize();
+        case ALLOC_PART:
+            return AllocPartLogRecord.getRecordSize();
+        case FREE_PART:
+            return FreePartLogRecord.getRecordSize();
+        case UNDO_ALLOC_PART:
+            return UndoAllocPartLogRecord.getRecordSize();
+        case UNDO_FREE_PART:
+            return UndoFreePartLogRecord.getRecordSize();
+        case ALLOC_PAGE:
+            return AllocPageLogRecord.getRecordSize();
+        case FREE_PAGE:
+            return FreePageLogRecord.getRecordSize();
+        case UNDO_ALLOC_PAGE:
+            return UndoAllocPageLogRecord.getRecordSize();
+        case UNDO_FREE_PAGE:
+            return UndoFreePageLogRecord.getRecordSize();
+        case UPDATE_PAGE:
+            return UpdatePageLogRecord.getRecordSize(buf, offset);
+        case UNDO_UPDATE_PAGE:
+            return UndoUpdatePageLogRecord.getRecordSize(buf, offset);
+        case INSERT_RECORD:
+            return InsertRecordLogRecord.getRecordSize(buf, offset);
+        case DELETE_RECORD:
+            return DeleteRecordLogRecord.getRecordSize(buf, offset);
+        case UNDO_INSERT_RECORD:
+            return UndoInsertRecordLogRecord.getRecordSize();
+        case UNDO_DELETE_RECORD:
+            return UndoDeleteRecordLogRecord.getRecordSize(buf, offset);
+        default:
+            throw new UnsupportedOperationException("bad log type: " + type);
+        }
+    }
+
+    /**
+     * Copies a log page into the cursor's buffer.
+     * @return false if the page does not exist
+     */
+    private boolean loadPage(long pageNum) {
+        Page logPage;
+        try {
+            logPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), pageNum);
+        } catch (PageException e) {
+            return false;
+        }
+        try {
+            logPage.getBuffer().get(page);
+        } finally {
+            logPage.unpin();
+        }
+        return true;
+    }
+}
@@ -16,8 +16,9 @@ import java.util.*;
 
 /**
  * The LogManager is responsible for interfacing with the log itself. The log is stored
- * on its own partition (partition 0). Since log pages are never deleted, the page number
- * is always increasing, so we assign LSNs as follow:
+ * on its own partition (partition 0). Log pages are always allocated at the page after
+ * the current end of the log, even when earlier pages have been freed by truncation, so
+ * the page number is always increasing, and we assign LSNs as follow:
  * - page 1: [ LSN 10000, LSN 10040, LSN 10080, ...]
  * - page 2: [ LSN 20000, LSN 20030, LSN 20055, ...]
  * - page 3: [ LSN 30000, LSN 30047, LSN 30090, ...]
@@ -28,6 +29,11 @@ import java.util.*;
  * by an empty begin and end checkpoint record. The master record is the only record in the
  * entire log that may be rewritten.
  *
+ * Once nothing needs the beginning of the log anymore, it can be truncated: pages that
+ * only contain records before a given LSN are freed (see truncate). Page 0 is never freed,
+ * and the remaining log pages are always contiguous. A scan of the whole log skips the
+ * freed pages, from the master record to the first page that was kept.
+ *
  * The LogManager is also responsible for writing pageLSNs onto pages and flushing the log
  * when pages are flushed, and therefore has a few methods that must be called by the buffer
  * manager when pages are fetched and evicted (fetchPageHook, fetchNewPageHook, and pageEvictHook).
@@ -41,6 +47,13 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     private Buffer logTailBuffer;
     private boolean logTailPinned = false;
     private long flushedLSN;
+    private long lastLSN;
+    // page number of the next log page to allocate
+    private long nextLogPage;
+    // number of log pages freed by truncate
+    private long numReclaimedPages;
+    // first log page after page 0 that was not freed by truncate
+    private volatile long firstLogPage;
 
     public static final int LOG_PARTITION = 0;
 
@@ -48,12 +61,51 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         this.bufferManager = bufferManager;
         this.unflushedLogTail = new ArrayDeque<>();
 
-        this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
+        this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), findLogEnd());
+        this.nextLogPage = this.logTail.getPageNum() + 1L;
         this.unflushedLogTail.add(this.logTail);
         this.logTailBuffer = this.logTail.getBuffer();
         this.logTail.unpin();
 
         this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
+        this.lastLSN = this.flushedLSN;
+
+        this.firstLogPage = 1L;
+        while (this.firstLogPage < this.nextLogPage - 1L && !bufferManager.pageAllocated(this.firstLogPage)) {
+            ++this.firstLogPage;
+        }
+    }
+
+    /**
+     * Finds the page number after the last log page on disk. Truncation never
+     * frees pages at or after the last checkpoint, so the log pages from the
+     * last checkpoint to the end of the log are all allocated.
+     * @return page number of the first unallocated page after the log
+     */
+    private long findLogEnd() {
+        long pageNum = 0L;
+        try {
+            Page firstPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
+            try {
+                Optional<LogRecord> record = LogRecord.fromBytes(firstPage.getBuffer());
+                if (record.isPresent() && record.get() instanceof MasterLogRecord) {
+                    pageNum = getLSNPage(((MasterLogRecord) record.get()).lastCheckpointLSN);
+                }
+            } finally {
+                firstPage.unpin();
+            }
+        } catch (PageException e) {
+            // no log yet
+            return 0L;
+        }
+        while (isLogPageAllocated(pageNum)) {
+            ++pageNum;
+        }
+        return pageNum;
+    }
+
+    private boolean isLogPageAllocated(long pageNum) {
+        return bufferManager.pageAllocated(pageNum);
     }
 
     /**
@@ -81,7 +133,8 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         do {
             if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
                 logTailPinned = true;
-                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
+                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), nextLogPage);
+                ++nextLogPage;
                 unflushedLogTail.add(logTail);
                 logTailBuffer = logTail.getBuffer();
             } else {
@@ -97,6 +150,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
             logTailBuffer.put(bytes);
             long LSN = makeLSN(unflushedLogTail.getLast().getPageNum(), pos);
             record.LSN = LSN;
+            lastLSN = LSN;
             return LSN;
         } finally {
             logTail.unpin();
@@ -152,6 +206,41 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         }
     }
 
+    /**
+     * Frees every log page that only contains records before LSN, except for
+     * the page holding the master record. LSN must not be after the begin
+     * checkpoint record of the last checkpoint written to the master record,
+     * and the log must already be flushed up to LSN.
+     *
+     * Pages before the end of the freed range must already have been freed, so
+     * we stop at the first unallocated page. Pages are freed without being read.
+     * Their records can no longer be fetched or scanned from; a scan of the
+     * whole log (see iterator) continues from page 0 to the first page kept.
+     *
+     * @param LSN LSN of the first record that must be kept
+     * @return number of log pages freed
+     */
+    public synchronized long truncate(long LSN) {
+        long numFreed = 0;
+        for (long pageNum = getLSNPage(LSN) - 1L; pageNum > 0L; --pageNum) {
+            if (!bufferManager.freePage(pageNum)) {
+                // everything before this page has already been freed
+                break;
+            }
+            ++numFreed;
+        }
+        numReclaimedPages += numFreed;
+        firstLogPage = Math.max(firstLogPage, getLSNPage(LSN));
+        return numFreed;
+    }
+
+    /**
+     * @return number of log pages freed by truncation since the log manager was created
+     */
+    public synchronized long getNumReclaimedPages() {
+        return numReclaimedPages;
+    }
+
     /**
      * @return flushedLSN
      */
@@ -159,6 +248,14 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         return flushedLSN;
     }
 
+    /**
+     * @return LSN of the last record appended to the log, or flushedLSN if no
+     * record has been appended since the log manager was created
+     */
+    public synchronized long getLastLSN() {
+        return lastLSN;
+    }
+
     /**
      * Generates LSN from log page number and index
      * @param pageNum page number of log page
@@ -197,7 +294,8 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     }
 
     /**
-     * Scan forward in the log from LSN.
+     * Scan forward in the log from LSN. The scan is empty if LSN is on a page
+     * freed by truncate.
      * @param LSN LSN to start scanning from
      * @return iterator over log entries from LSN
      */
@@ -206,8 +304,20 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     }
 
     /**
-     * Scan forward in the log from the first record.
-     * @return iterator over all log entries
+     * Opens a cursor over the log from LSN, which deserializes records only on
+     * demand (see LogCursor).
+     * @param LSN LSN to start scanning from
+     * @return cursor positioned before the record at LSN
+     */
+    public LogCursor cursorFrom(long LSN) {
+        return new LogCursor(bufferManager, LSN);
+    }
+
+    /**
+     * Scan forward in the log from the first record. Pages freed by truncate
+     * are skipped: the scan continues from the master record to the first log
+     * page that was kept.
+     * @return iterator over all log entries that were not truncated
      */
     @Override
     public Iterator<LogRecord> iterator() {
@@ -313,7 +423,8 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
 
                 nextIter = null;
                 do {
-                    ++nextIndex;
+                    // skip the pages freed by truncate
+                    nextIndex = Math.max(nextIndex + 1, firstLogPage);
                     try {
                         Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
                         nextIter = new LogPageIterator(page, 0);
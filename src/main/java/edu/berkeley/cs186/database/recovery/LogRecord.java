@@ -184,6 +184,9 @@ public abstract class LogRecord {
         if (type == 0) {
             return Optional.empty();
         }
+        if (type == (LogType.MASTER.getValue() | MasterLogRecord.CLEAN_SHUTDOWN_FLAG)) {
+            return MasterLogRecord.fromBytes(buf, true);
+        }
         switch (LogType.fromInt(type)) {
         case MASTER:
             return MasterLogRecord.fromBytes(buf);
@@ -217,6 +220,14 @@ public abstract class LogRecord {
             return UndoAllocPartLogRecord.fromBytes(buf);
         case UNDO_FREE_PART:
             return UndoFreePartLogRecord.fromBytes(buf);
+        case INSERT_RECORD:
+            return InsertRecordLogRecord.fromBytes(buf);
+        case DELETE_RECORD:
+            return DeleteRecordLogRecord.fromBytes(buf);
+        case UNDO_INSERT_RECORD:
+            return UndoInsertRecordLogRecord.fromBytes(buf);
+        case UNDO_DELETE_RECORD:
+            return UndoDeleteRecordLogRecord.fromBytes(buf);
         default:
             throw new UnsupportedOperationException("bad log type");
         }
@@ -33,7 +33,15 @@ public enum LogType {
     // compensation log record for undoing a partition alloc
     UNDO_ALLOC_PART,
     // compensation log record for undoing a partition free
-    UNDO_FREE_PART;
+    UNDO_FREE_PART,
+    // log record for inserting a record into a slot of a data page
+    INSERT_RECORD,
+    // log record for deleting the record in a slot of a data page
+    DELETE_RECORD,
+    // compensation log record for undoing a record insert
+    UNDO_INSERT_RECORD,
+    // compensation log record for undoing a record delete
+    UNDO_DELETE_RECORD;
 
     private static LogType[] values = LogType.values();
 
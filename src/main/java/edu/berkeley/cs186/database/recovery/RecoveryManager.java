@@ -1,9 +1,12 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 
+import java.util.function.Function;
+
 /**
  * Interface for a recovery manager.
  */
@@ -81,6 +84,38 @@ public interface RecoveryManager extends AutoCloseable {
     long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
                       byte[] after);
 
+    /**
+     * Called when a record is inserted into a slot of a data page, instead of
+     * logging the bytes written with logPageWrite. The caller makes the change
+     * without logging it and sets the pageLSN to the returned LSN.
+     *
+     * @param transNum transaction inserting the record
+     * @param pageNum page number of the data page
+     * @param bitmapOffset offset into page of the slot bitmap
+     * @param slot slot of the record, or -1 if the page has no bitmap
+     * @param offset offset into page of the record
+     * @param record bytes of the record
+     * @return LSN of the record written to log
+     */
+    long logInsertRecord(long transNum, long pageNum, short bitmapOffset, short slot, short offset,
+                         byte[] record);
+
+    /**
+     * Called when the record in a slot of a data page is deleted, instead of
+     * logging the bytes written with logPageWrite. The caller makes the change
+     * without logging it and sets the pageLSN to the returned LSN.
+     *
+     * @param transNum transaction deleting the record
+     * @param pageNum page number of the data page
+     * @param bitmapOffset offset into page of the slot bitmap
+     * @param slot slot of the record
+     * @param offset offset into page of the record
+     * @param record bytes of the deleted record
+     * @return LSN of the record written to log
+     */
+    long logDeleteRecord(long transNum, long pageNum, short bitmapOffset, short slot, short offset,
+                         byte[] record);
+
     /**
      * Called when a new partition is allocated. A log flush is necessary,
      * since changes are visible on disk immediately after this returns.
@@ -180,6 +215,29 @@ public interface RecoveryManager extends AutoCloseable {
      */
     void restart();
 
+    /**
+     * Called whenever the database starts up, and performs the analysis and
+     * redo passes of restart recovery. X locks are reacquired on behalf of every
+     * transaction that must be rolled back, using `pageLockContext` to find the
+     * lock context protecting each page the rollback will modify. New
+     * transactions may be started once this method returns; recovery is complete
+     * when the Runnable returned (the undo pass) is run to termination.
+     *
+     * @param pageLockContext function from page number to the lock context that
+     *                        protects the page, or null if the page cannot be
+     *                        protected by a lock
+     * @return the deferred undo pass
+     */
+    Runnable restartWithDeferredUndo(Function<Long, LockContext> pageLockContext);
+
+    /**
+     * Returns the number of changes a running transaction has logged so far,
+     * i.e. roughly the amount of work that rolling it back would undo.
+     * @param transNum transaction number
+     * @return number of log records written for changes by the transaction
+     */
+    long getNumLogRecords(long transNum);
+
     /**
      * Clean up: log flush, checkpointing, etc. Called when the database is closed.
      */
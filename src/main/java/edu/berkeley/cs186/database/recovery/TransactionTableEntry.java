@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.recovery;
 import edu.berkeley.cs186.database.Transaction;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
@@ -12,11 +13,58 @@ class TransactionTableEntry {
     Transaction transaction;
     // lastLSN of transaction, or 0 if no log entries for the transaction exist.
     long lastLSN = 0;
+    // LSN before which the transaction has no log entries, or 0 if unknown.
+    // The log is never truncated past this point while the transaction runs.
+    long firstLSN = 0;
+    // number of changes the transaction logged (and would have to undo)
+    volatile long numLogRecords = 0;
     // map of transaction's savepoints
     private Map<String, Long> savepoints = new HashMap<>();
+    // most recent log records of the transaction (LSN -> record), used to roll
+    // back without reading the log. The oldest records are dropped first.
+    // Guarded by this entry's monitor.
+    private final Map<Long, LogRecord> cachedRecords = new LinkedHashMap<Long, LogRecord>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, LogRecord> eldest) {
+            return size() > maxCachedRecords;
+        }
+    };
+    // maximum number of log records cached for the transaction
+    private final int maxCachedRecords;
+
+    // default maximum number of log records cached per transaction
+    static final int MAX_CACHED_RECORDS = 64;
 
     TransactionTableEntry(Transaction transaction) {
+        this(transaction, MAX_CACHED_RECORDS);
+    }
+
+    TransactionTableEntry(Transaction transaction, int maxCachedRecords) {
         this.transaction = transaction;
+        this.maxCachedRecords = maxCachedRecords;
+    }
+
+    /**
+     * Caches a record the transaction appended to the log. The record's LSN
+     * must already be set.
+     */
+    synchronized void cacheRecord(LogRecord record) {
+        cachedRecords.put(record.getLSN(), record);
+    }
+
+    /**
+     * @return the cached record with the given LSN, or null if it is not cached
+     */
+    synchronized LogRecord getCachedRecord(long LSN) {
+        return cachedRecords.get(LSN);
+    }
+
+    synchronized void uncacheRecord(long LSN) {
+        cachedRecords.remove(LSN);
+    }
+
+    synchronized void clearCachedRecords() {
+        cachedRecords.clear();
     }
 
     void addSavepoint(String name) {
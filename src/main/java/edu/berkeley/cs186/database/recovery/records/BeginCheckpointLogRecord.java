@@ -15,11 +15,18 @@ public class BeginCheckpointLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[1];
+        byte[] b = new byte[getRecordSize()];
         ByteBuffer.wrap(b).put((byte) getType().getValue());
         return b;
     }
 
+    /**
+     * @return size of the serialized record in bytes (see toBytes)
+     */
+    public static int getRecordSize() {
+        return 1;
+    }
+
     public static Optional<LogRecord> fromBytes(Buffer buf) {
         return Optional.of(new BeginCheckpointLogRecord());
     }
@@ -30,7 +30,7 @@ public class CommitTransactionLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[1 + Long.BYTES + Long.BYTES];
+        byte[] b = new byte[getRecordSize()];
         ByteBuffer.wrap(b)
         .put((byte) getType().getValue())
         .putLong(transNum)
@@ -38,6 +38,13 @@ public class CommitTransactionLogRecord extends LogRecord {
         return b;
     }
 
+    /**
+     * @return size of the serialized record in bytes (see toBytes)
+     */
+    public static int getRecordSize() {
+        return 1 + Long.BYTES + Long.BYTES;
+    }
+
     public static Optional<LogRecord> fromBytes(Buffer buf) {
         long transNum = buf.getLong();
         long prevLSN = buf.getLong();
@@ -0,0 +1,178 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.LogRecord;
+import edu.berkeley.cs186.database.recovery.LogType;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Physiological log record for deleting the record in a slot of a data page:
+ * bit `slot` of the bitmap starting at `bitmapOffset` is cleared. The bytes of
+ * the record are left in place, but the slot may be reused by an insert before
+ * the delete is undone, so the record also holds the deleted record's bytes at
+ * `offset`, which undoing the delete writes back before setting the bit again.
+ */
+public class DeleteRecordLogRecord extends LogRecord {
+    private long transNum; // transaction that deleted the record
+    private long pageNum; // page the record was deleted from
+    private long prevLSN; // previous log's LSN
+    public short bitmapOffset; // position of the page's slot bitmap
+    public short slot; // slot of the record
+    public short offset; // position of the record
+    public byte[] record; // bytes of the deleted record
+
+    /**
+     * @param transNum transaction number of transaction that deleted the record
+     * @param pageNum the page the record was deleted from
+     * @param prevLSN previous log's LSN
+     * @param bitmapOffset position of the slot bitmap
+     * @param slot slot of the record
+     * @param offset position of the record
+     * @param record bytes of the deleted record
+     */
+    public DeleteRecordLogRecord(long transNum, long pageNum, long prevLSN, short bitmapOffset, short slot,
+                                 short offset, byte[] record) {
+        super(LogType.DELETE_RECORD);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.bitmapOffset = bitmapOffset;
+        this.slot = slot;
+        this.offset = offset;
+        this.record = record;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public boolean isUndoable() { return true; }
+
+    @Override
+    public boolean isRedoable() { return true; }
+
+    @Override
+    public LogRecord undo(long lastLSN) {
+        return new UndoDeleteRecordLogRecord(transNum, pageNum, lastLSN, prevLSN, bitmapOffset, slot, offset,
+                                             record);
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyDeleteRecordRecord"), pageNum);
+        try {
+            page.disableLogging();
+            InsertRecordLogRecord.setSlot(page, bitmapOffset, slot, Bits.Bit.ZERO);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[getRecordSize(record.length)];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putShort(bitmapOffset)
+        .putShort(slot)
+        .putShort(offset)
+        .putShort((short) record.length)
+        .put(record);
+        return b;
+    }
+
+    /**
+     * @return size of the serialized record in bytes (see toBytes), for a
+     * deleted record of `recordLength` bytes
+     */
+    public static int getRecordSize(int recordLength) {
+        return 33 + recordLength;
+    }
+
+    /**
+     * @return size in bytes of the serialized record that starts at `offset`
+     * in `buf`
+     */
+    public static int getRecordSize(Buffer buf, int offset) {
+        // the record's length follows the type, transNum, pageNum, prevLSN,
+        // bitmapOffset, slot and offset
+        return getRecordSize(buf.getShort(offset + 31));
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        short bitmapOffset = buf.getShort();
+        short slot = buf.getShort();
+        short offset = buf.getShort();
+        byte[] record = new byte[buf.getShort()];
+        buf.get(record);
+        return Optional.of(new DeleteRecordLogRecord(transNum, pageNum, prevLSN, bitmapOffset, slot, offset,
+                           record));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        DeleteRecordLogRecord that = (DeleteRecordLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               bitmapOffset == that.bitmapOffset &&
+               slot == that.slot &&
+               offset == that.offset &&
+               Arrays.equals(record, that.record);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, bitmapOffset, slot, offset);
+        result = 31 * result + Arrays.hashCode(record);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DeleteRecordLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", bitmapOffset=" + bitmapOffset +
+               ", slot=" + slot +
+               ", offset=" + offset +
+               ", record=" + Arrays.toString(record) +
+               ", prevLSN=" + prevLSN +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
@@ -63,6 +63,14 @@ public class EndCheckpointLogRecord extends LogRecord {
         return 5 + 16 * numDPTRecords + 17 * numTxnTableRecords;
     }
 
+    /**
+     * @return size in bytes of the serialized record that starts at `offset`
+     * in `buf`
+     */
+    public static int getRecordSize(Buffer buf, int offset) {
+        return getRecordSize(buf.getShort(offset + 1), buf.getShort(offset + 3));
+    }
+
     /**
      * @return boolean indicating whether information for
      * the log record can fit in one record on a page
@@ -0,0 +1,193 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.LogRecord;
+import edu.berkeley.cs186.database.recovery.LogType;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Physiological log record for inserting a record into a slot of a data page:
+ * the record's bytes are written at `offset`, and bit `slot` of the bitmap
+ * starting at `bitmapOffset` is set. Pages with a single slot have no bitmap,
+ * which is indicated by a negative slot.
+ *
+ * Unlike an UpdatePageLogRecord, no before image is needed: undoing the insert
+ * only clears the slot's bit.
+ */
+public class InsertRecordLogRecord extends LogRecord {
+    private long transNum; // transaction that inserted the record
+    private long pageNum; // page the record was inserted into
+    private long prevLSN; // previous log's LSN
+    public short bitmapOffset; // position of the page's slot bitmap
+    public short slot; // slot of the record, or -1 if the page has no bitmap
+    public short offset; // position of the record
+    public byte[] record; // bytes of the record
+
+    /**
+     * @param transNum transaction number of transaction that inserted the record
+     * @param pageNum the page the record was inserted into
+     * @param prevLSN previous log's LSN
+     * @param bitmapOffset position of the slot bitmap
+     * @param slot slot of the record, or -1 if the page has no bitmap
+     * @param offset position of the record
+     * @param record bytes of the record
+     */
+    public InsertRecordLogRecord(long transNum, long pageNum, long prevLSN, short bitmapOffset, short slot,
+                                 short offset, byte[] record) {
+        super(LogType.INSERT_RECORD);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.bitmapOffset = bitmapOffset;
+        this.slot = slot;
+        this.offset = offset;
+        this.record = record;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public boolean isUndoable() { return true; }
+
+    @Override
+    public boolean isRedoable() { return true; }
+
+    @Override
+    public LogRecord undo(long lastLSN) {
+        return new UndoInsertRecordLogRecord(transNum, pageNum, lastLSN, prevLSN, bitmapOffset, slot);
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyInsertRecordRecord"), pageNum);
+        try {
+            page.disableLogging();
+            page.getBuffer().position(offset).put(record);
+            setSlot(page, bitmapOffset, slot, Bits.Bit.ONE);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Sets bit `slot` of the bitmap starting at `bitmapOffset` on the page. Does
+     * nothing if slot is negative (the page has no bitmap).
+     */
+    static void setSlot(Page page, short bitmapOffset, short slot, Bits.Bit bit) {
+        if (slot < 0) return;
+        Buffer buf = page.getBuffer();
+        byte[] bits = new byte[1];
+        buf.position(bitmapOffset + slot / 8).get(bits);
+        Bits.setBit(bits, slot % 8, bit);
+        buf.position(bitmapOffset + slot / 8).put(bits);
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[getRecordSize(record.length)];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putShort(bitmapOffset)
+        .putShort(slot)
+        .putShort(offset)
+        .putShort((short) record.length)
+        .put(record);
+        return b;
+    }
+
+    /**
+     * @return size of the serialized record in bytes (see toBytes), for a
+     * record of `recordLength` bytes
+     */
+    public static int getRecordSize(int recordLength) {
+        return 33 + recordLength;
+    }
+
+    /**
+     * @return size in bytes of the serialized record that starts at `offset`
+     * in `buf`
+     */
+    public static int getRecordSize(Buffer buf, int offset) {
+        // the record's length follows the type, transNum, pageNum, prevLSN,
+        // bitmapOffset, slot and offset
+        return getRecordSize(buf.getShort(offset + 31));
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        short bitmapOffset = buf.getShort();
+        short slot = buf.getShort();
+        short offset = buf.getShort();
+        byte[] record = new byte[buf.getShort()];
+        buf.get(record);
+        return Optional.of(new InsertRecordLogRecord(transNum, pageNum, prevLSN, bitmapOffset, slot, offset,
+                           record));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        InsertRecordLogRecord that = (InsertRecordLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               bitmapOffset == that.bitmapOffset &&
+               slot == that.slot &&
+               offset == that.offset &&
+               Arrays.equals(record, that.record);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, bitmapOffset, slot, offset);
+        result = 31 * result + Arrays.hashCode(record);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "InsertRecordLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", bitmapOffset=" + bitmapOffset +
+               ", slot=" + slot +
+               ", offset=" + offset +
+               ", record=" + Arrays.toString(record) +
+               ", prevLSN=" + prevLSN +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
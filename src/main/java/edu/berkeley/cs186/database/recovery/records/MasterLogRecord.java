@@ -9,22 +9,48 @@ import java.util.Objects;
 import java.util.Optional;
 
 public class MasterLogRecord extends LogRecord {
+    /**
+     * Set in the type byte of a master record written by a clean shutdown.
+     * The master record is rewritten in place, so this keeps its size fixed.
+     */
+    public static final int CLEAN_SHUTDOWN_FLAG = 0x40;
+
     public long lastCheckpointLSN;
+    // true if the database was shut down cleanly after the last checkpoint,
+    // so that restart recovery has nothing to do
+    public boolean cleanShutdown;
 
     public MasterLogRecord(long lastCheckpointLSN) {
+        this(lastCheckpointLSN, false);
+    }
+
+    public MasterLogRecord(long lastCheckpointLSN, boolean cleanShutdown) {
         super(LogType.MASTER);
         this.lastCheckpointLSN = lastCheckpointLSN;
+        this.cleanShutdown = cleanShutdown;
     }
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[1 + Long.BYTES];
-        ByteBuffer.wrap(b).put((byte) getType().getValue()).putLong(lastCheckpointLSN);
+        byte[] b = new byte[getRecordSize()];
+        int type = getType().getValue() | (cleanShutdown ? CLEAN_SHUTDOWN_FLAG : 0);
+        ByteBuffer.wrap(b).put((byte) type).putLong(lastCheckpointLSN);
         return b;
     }
 
+    /**
+     * @return size of the serialized record in bytes (see toBytes)
+     */
+    public static int getRecordSize() {
+        return 1 + Long.BYTES;
+    }
+
     public static Optional<LogRecord> fromBytes(Buffer buf) {
-        return Optional.of(new MasterLogRecord(buf.getLong()));
+        return fromBytes(buf, false);
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf, boolean cleanShutdown) {
+        return Optional.of(new MasterLogRecord(buf.getLong(), cleanShutdown));
     }
 
     @Override
@@ -33,18 +59,19 @@ public class MasterLogRecord extends LogRecord {
         if (o == null || getClass() != o.getClass()) { return false; }
         if (!super.equals(o)) { return false; }
         MasterLogRecord that = (MasterLogRecord) o;
-        return lastCheckpointLSN == that.lastCheckpointLSN;
+        return lastCheckpointLSN == that.lastCheckpointLSN && cleanShutdown == that.cleanShutdown;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), lastCheckpointLSN);
+        return Objects.hash(super.hashCode(), lastCheckpointLSN, cleanShutdown);
     }
 
     @Override
     public String toString() {
         return "MasterLogRecord{" +
                "lastCheckpointLSN=" + lastCheckpointLSN +
+               ", cleanShutdown=" + cleanShutdown +
                ", LSN=" + LSN +
                '}';
     }
@@ -74,7 +74,7 @@ public class UndoUpdatePageLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[(after.length == BufferManager.EFFECTIVE_PAGE_SIZE ? 36 : 37) + after.length];
+        byte[] b = new byte[getRecordSize(after.length)];
         Buffer buf = ByteBuffer.wrap(b)
                      .put((byte) getType().getValue())
                      .putLong(transNum)
@@ -91,6 +91,26 @@ public class UndoUpdatePageLogRecord extends LogRecord {
         return b;
     }
 
+    /**
+     * @return size of the serialized record in bytes (see toBytes), for an
+     * after image of `length` bytes
+     */
+    public static int getRecordSize(int length) {
+        // full page images are marked by a single -1 byte instead of a length
+        return (length == BufferManager.EFFECTIVE_PAGE_SIZE ? 36 : 37) + length;
+    }
+
+    /**
+     * @return size in bytes of the serialized record that starts at `offset`
+     * in `buf`
+     */
+    public static int getRecordSize(Buffer buf, int offset) {
+        // the length follows the type, transNum, pageNum, prevLSN,
+        // undoNextLSN and offset
+        short length = buf.getShort(offset + 35);
+        return getRecordSize(length < 0 ? BufferManager.EFFECTIVE_PAGE_SIZE : length);
+    }
+
     public static Optional<LogRecord> fromBytes(Buffer buf) {
         long transNum = buf.getLong();
         long pageNum = buf.getLong();
@@ -15,12 +15,20 @@ import java.util.Objects;
 import java.util.Optional;
 
 public class UpdatePageLogRecord extends LogRecord {
+    // Set in the serialized length of the before image if the images are
+    // compressed: the before image is then stored zero-run encoded, and the
+    // after image is stored as the zero-run encoded XOR of the two images.
+    private static final short COMPRESSED_FLAG = (short) 0x8000;
+    // Images shorter than this are never compressed.
+    static final int MIN_COMPRESSED_LENGTH = 32;
+
     private long transNum; // transaction that updated the page
     private long pageNum; // page that was updated
     private long prevLSN; // previous log's LSN
     public short offset; // position of first changed byte
     public byte[] before; // old bytes (before update)
     public byte[] after; // new bytes (after update)
+    private boolean compress; // whether to compress the images when serialized
 
     /**
      * @param transNum transaction number of transaction that updated the page
@@ -32,6 +40,21 @@ public class UpdatePageLogRecord extends LogRecord {
      */
     public UpdatePageLogRecord(long transNum, long pageNum, long prevLSN, short offset, byte[] before,
                         byte[] after) {
+        this(transNum, pageNum, prevLSN, offset, before, after, false);
+    }
+
+    /**
+     * @param transNum transaction number of transaction that updated the page
+     * @param pageNum the page that was updated
+     * @param prevLSN previous log's LSNS
+     * @param offset position of first changed byte
+     * @param before old bytes (before update)
+     * @param after new bytes (after update)
+     * @param compress whether to compress the images in the log, when that
+     *                 makes the record smaller
+     */
+    public UpdatePageLogRecord(long transNum, long pageNum, long prevLSN, short offset, byte[] before,
+                        byte[] after, boolean compress) {
         super(LogType.UPDATE_PAGE);
         this.transNum = transNum;
         this.pageNum = pageNum;
@@ -39,6 +62,7 @@ public class UpdatePageLogRecord extends LogRecord {
         this.offset = offset;
         this.before = before;
         this.after = after;
+        this.compress = compress;
     }
 
     @Override
@@ -85,29 +109,75 @@ public class UpdatePageLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[31 + before.length + after.length];
+        byte[] storedBefore = before;
+        byte[] storedAfter = after;
+        short flag = 0;
+        if (compress && before.length == after.length && before.length >= MIN_COMPRESSED_LENGTH) {
+            byte[] delta = new byte[after.length];
+            for (int i = 0; i < delta.length; ++i) {
+                delta[i] = (byte) (before[i] ^ after[i]);
+            }
+            byte[] encodedBefore = ZeroRunCodec.encode(before);
+            byte[] encodedDelta = ZeroRunCodec.encode(delta);
+            if (encodedBefore.length + encodedDelta.length < before.length + after.length) {
+                storedBefore = encodedBefore;
+                storedAfter = encodedDelta;
+                flag = COMPRESSED_FLAG;
+            }
+        }
+
+        byte[] b = new byte[getRecordSize(storedBefore.length, storedAfter.length)];
         ByteBuffer.wrap(b)
         .put((byte) getType().getValue())
         .putLong(transNum)
         .putLong(pageNum)
         .putLong(prevLSN)
         .putShort(offset)
-        .putShort((short) before.length)
-        .putShort((short) after.length)
-        .put(before)
-        .put(after);
+        .putShort((short) (storedBefore.length | flag))
+        .putShort((short) storedAfter.length)
+        .put(storedBefore)
+        .put(storedAfter);
         return b;
     }
 
+    /**
+     * @return size of the serialized record in bytes (see toBytes), for
+     * stored (possibly compressed) images of the given lengths
+     */
+    public static int getRecordSize(int storedBeforeLength, int storedAfterLength) {
+        return 31 + storedBeforeLength + storedAfterLength;
+    }
+
+    /**
+     * @return size in bytes of the serialized record that starts at `offset`
+     * in `buf`
+     */
+    public static int getRecordSize(Buffer buf, int offset) {
+        // the lengths of the images follow the type, transNum, pageNum,
+        // prevLSN and offset; the before length carries the compressed flag
+        return getRecordSize(buf.getShort(offset + 27) & ~COMPRESSED_FLAG, buf.getShort(offset + 29));
+    }
+
     public static Optional<LogRecord> fromBytes(Buffer buf) {
         long transNum = buf.getLong();
         long pageNum = buf.getLong();
         long prevLSN = buf.getLong();
         short offset = buf.getShort();
-        byte[] before = new byte[buf.getShort()];
+        short beforeLength = buf.getShort();
+        boolean compressed = (beforeLength & COMPRESSED_FLAG) != 0;
+        byte[] before = new byte[beforeLength & ~COMPRESSED_FLAG];
         byte[] after = new byte[buf.getShort()];
         buf.get(before).get(after);
-        return Optional.of(new UpdatePageLogRecord(transNum, pageNum, prevLSN, offset, before, after));
+        if (compressed) {
+            before = ZeroRunCodec.decode(before);
+            byte[] delta = ZeroRunCodec.decode(after);
+            after = new byte[delta.length];
+            for (int i = 0; i < after.length; ++i) {
+                after[i] = (byte) (before[i] ^ delta[i]);
+            }
+        }
+        return Optional.of(new UpdatePageLogRecord(transNum, pageNum, prevLSN, offset, before, after,
+                                                   compressed));
     }
 
     @Override
@@ -0,0 +1,68 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compresses byte arrays by run-length encoding runs of zero bytes, which
+ * make up most of the XOR of a before image and an after image (every byte
+ * that the update did not change), and much of a page image in general
+ * (unused space, padding of fixed-length strings).
+ *
+ * The encoded form is a sequence of tokens, each starting with a control
+ * byte c (read as unsigned):
+ *   - c < 128: c + 1 literal bytes follow,
+ *   - c >= 128: c - 127 zero bytes.
+ */
+class ZeroRunCodec {
+    private static final int MAX_RUN = 128;
+    // Shorter runs of zeros are cheaper to leave in a literal.
+    private static final int MIN_ZERO_RUN = 3;
+
+    static byte[] encode(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        int literalStart = 0;
+        int i = 0;
+        while (i < data.length) {
+            int run = 0;
+            while (i + run < data.length && data[i + run] == 0 && run < MAX_RUN) {
+                ++run;
+            }
+            if (run >= MIN_ZERO_RUN) {
+                writeLiterals(out, data, literalStart, i);
+                out.write(127 + run);
+                i += run;
+                literalStart = i;
+            } else {
+                i += Math.max(run, 1);
+            }
+        }
+        writeLiterals(out, data, literalStart, data.length);
+        return out.toByteArray();
+    }
+
+    private static void writeLiterals(ByteArrayOutputStream out, byte[] data, int start, int end) {
+        while (start < end) {
+            int len = Math.min(end - start, MAX_RUN);
+            out.write(len - 1);
+            out.write(data, start, len);
+            start += len;
+        }
+    }
+
+    static byte[] decode(byte[] encoded) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length * 2);
+        int i = 0;
+        while (i < encoded.length) {
+            int c = encoded[i++] & 0xFF;
+            if (c < 128) {
+                out.write(encoded, i, c + 1);
+                i += c + 1;
+            } else {
+                for (int j = 0; j < c - 127; ++j) {
+                    out.write(0);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+}
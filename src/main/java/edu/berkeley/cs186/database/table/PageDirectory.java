@@ -13,6 +13,7 @@ import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -48,7 +49,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             HEADER_HEADER_SIZE) / DataPageEntry.SIZE;
 
     // size of the header in data pages
-    private static final short DATA_HEADER_SIZE = 10;
+    static final short DATA_HEADER_SIZE = 10;
 
     // effective page size
     public static final short EFFECTIVE_PAGE_SIZE = BufferManager.EFFECTIVE_PAGE_SIZE -
@@ -100,10 +101,28 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
     }
 
+    /**
+     * @return the recovery manager that changes to this heap file are logged with
+     */
+    RecoveryManager getRecoveryManager() {
+        return bufferManager.getRecoveryManager();
+    }
+
     public Page getPage(long pageNum) {
         return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum));
     }
 
+    /**
+     * Gets a data page without locking it. The caller is responsible for
+     * holding locks covering everything it reads and writes on the page (e.g.
+     * locks on records of the page).
+     */
+    public Page getPageUnlocked(long pageNum) {
+        Page page = this.bufferManager.fetchPage(lockContext, pageNum);
+        page.disableLocking();
+        return new DataPage(pageDirectoryId, page);
+    }
+
     public Page getPageWithSpace(short requiredSpace) {
         if (requiredSpace <= 0) {
             throw new IllegalArgumentException("cannot request nonpositive amount of space");
@@ -367,7 +386,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         private void updateSpace(Page dataPage, short index, short newFreeSpace) {
             this.page.pin();
             try {
-                if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+                // Empty pages are kept while snapshot reads are enabled, since
+                // snapshots taken before the page became empty may still read it.
+                if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize ||
+                        bufferManager.getVersionStore() != null) {
                     // write new free space to disk
                     Buffer b = this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
@@ -403,6 +425,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                 HeaderPage.this.page.pin();
                 try {
                     Buffer b = HeaderPage.this.page.getBuffer();
+                    if (b.get() != (byte) 1) {
+                        // header page added after the snapshot being read
+                        return HEADER_ENTRY_COUNT;
+                    }
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * ++currentIndex);
                     for (int i = currentIndex; i < HEADER_ENTRY_COUNT; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(b);
@@ -171,6 +171,21 @@ public class TableStats {
         return new TableStats(this.schema, this.numRecordsPerPage, numRecords, copyHistograms);
     }
 
+    /**
+     * Creates a new TableStats which is the statistics for the table that
+     * results from keeping only the columns at indices `columns` (in that
+     * order) of this one, like an index-only scan does.
+     */
+    public TableStats copyWithColumns(List<Integer> columns) {
+        Schema copySchema = new Schema();
+        List<Histogram> copyHistograms = new ArrayList<>();
+        for (int column : columns) {
+            copySchema.add(schema.getFieldName(column), schema.getFieldType(column));
+            copyHistograms.add(histograms.get(column));
+        }
+        return new TableStats(copySchema, this.numRecordsPerPage, this.numRecords, copyHistograms);
+    }
+
     /**
      * Creates a new TableStats which is the statistics for the table
      * that results from this TableStats joined with the given TableStats.
@@ -23,6 +23,7 @@ import java.util.Iterator;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -306,4 +307,61 @@ public class TestDatabase {
             assertFalse(iter.hasNext());
         }
     }
+
+    private static int sumOfIds(Transaction t, String tableName) {
+        int sum = 0;
+        Iterator<Record> iter = t.query(tableName).execute();
+        while (iter.hasNext()) {
+            sum += iter.next().getValue(0).getInt();
+        }
+        return sum;
+    }
+
+    @Test
+    public void testSnapshotReads() throws Exception {
+        // snapshot reads have to be enabled before any transaction begins
+        this.db.close();
+        this.db = new Database(tempFolder.newFolder("testSnapshotReads").getAbsolutePath(), 32);
+        this.db.setWorkMem(4);
+        this.db.enableSnapshotReads();
+
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(new Schema().add("id", Type.intType()), "table1");
+            for (int i = 1; i <= 10; ++i) {
+                t1.insert("table1", i);
+            }
+        }
+
+        // t2 changes every record, deletes one, and inserts enough records
+        // to fill new pages, without committing
+        Transaction t2 = db.beginTransaction();
+        t2.update("table1", "id", (DataBox x) -> new IntDataBox(x.getInt() * 2),
+                  "id", PredicateOperator.GREATER_THAN, new IntDataBox(0));
+        t2.delete("table1", "id", PredicateOperator.EQUALS, new IntDataBox(2));
+        for (int i = 0; i < 2000; ++i) {
+            t2.insert("table1", 1);
+        }
+        TransactionContext.unsetTransaction();
+
+        // t3 reads past t2's X locks, as of before t2's changes
+        Transaction t3 = db.beginReadOnlyTransaction();
+        assertEquals(55, sumOfIds(t3, "table1"));
+        try {
+            t3.insert("table1", 11);
+            fail();
+        } catch (DatabaseException e) { /* do nothing */ }
+        TransactionContext.unsetTransaction();
+
+        TransactionContext.setTransaction(t2.getTransactionContext());
+        t2.commit();
+
+        // t3 does not see t2's changes even after t2 commits, t4 does
+        TransactionContext.setTransaction(t3.getTransactionContext());
+        assertEquals(55, sumOfIds(t3, "table1"));
+        t3.commit();
+        try (Transaction t4 = db.beginReadOnlyTransaction()) {
+            assertEquals(108 + 2000, sumOfIds(t4, "table1"));
+        }
+        assertEquals(0, db.getBufferManager().getVersionStore().getNumVersions());
+    }
 }
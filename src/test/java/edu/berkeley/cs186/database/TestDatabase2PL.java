@@ -4,6 +4,8 @@ import edu.berkeley.cs186.database.categories.Proj4Part2Tests;
 import edu.berkeley.cs186.database.categories.Proj4Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.concurrency.LoggingLockManager;
+import edu.berkeley.cs186.database.concurrency.ValidationException;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -20,6 +22,7 @@ import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @Category({Proj4Tests.class, Proj4Part2Tests.class})
 public class TestDatabase2PL {
@@ -312,4 +315,93 @@ public class TestDatabase2PL {
             ), removeMetadataLogs(lockManager.log));
         }
     }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testRecordLocking() {
+        String tableName = "testTable1";
+        this.db.setRecordLocking(true);
+        List<RecordId> rids = createTable(tableName, 1);
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        lockManager.startLog();
+        Transaction t1 = beginTransaction();
+        // Read and update the first record
+        t1.getTransactionContext().getRecord(tableName, rids.get(0));
+        t1.getTransactionContext().updateRecord(tableName, rids.get(0), input);
+        assertEquals(prepare(t1.getTransNum(),
+                "acquire %s database IS",
+                "acquire %s database/testtable1 IS",
+                "acquire %s database/testtable1/30000000001 IS",
+                "acquire %s database/testtable1/30000000001/0 S",
+                "promote %s database IX",
+                "promote %s database/testtable1 IX",
+                "promote %s database/testtable1/30000000001 IX",
+                "promote %s database/testtable1/30000000001/0 X"
+        ), removeMetadataLogs(lockManager.log));
+        TransactionContext.unsetTransaction();
+
+        // Another record on the same page can be updated at the same time
+        lockManager.log.clear();
+        try(Transaction t2 = beginTransaction()) {
+            t2.getTransactionContext().updateRecord(tableName, rids.get(1), input);
+            assertEquals(prepare(t2.getTransNum(),
+                    "acquire %s database IX",
+                    "acquire %s database/testtable1 IX",
+                    "acquire %s database/testtable1/30000000001 IX",
+                    "acquire %s database/testtable1/30000000001/1 X"
+            ), removeMetadataLogs(lockManager.log));
+        }
+
+        TransactionContext.setTransaction(t1.getTransactionContext());
+        t1.close();
+    }
+
+    @Test
+    public void testOptimisticTransaction() throws Exception {
+        // failed transactions are rolled back, which needs recovery
+        this.db.close();
+        this.db = new Database(tempFolder.newFolder("testOptimisticTransaction").getAbsolutePath(), 128, this.lockManager, new ClockEvictionPolicy(), true);
+        this.db.setWorkMem(32);
+        this.db.waitAllTransactions();
+
+        String tableName = "testTable1";
+        List<RecordId> rids = createTable(tableName, 2);
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        // t1 reads without taking any locks
+        lockManager.startLog();
+        Transaction t1 = db.beginOptimisticTransaction();
+        t1.getTransactionContext().getRecord(tableName, rids.get(0));
+        t1.getTransactionContext().getRecord(tableName, rids.get(rids.size() - 1));
+        assertEquals(Collections.emptyList(), removeMetadataLogs(lockManager.log));
+        TransactionContext.unsetTransaction();
+
+        // t2 updates a record t1 read, so t1 fails validation
+        try(Transaction t2 = beginTransaction()) {
+            t2.getTransactionContext().updateRecord(tableName, rids.get(0), input);
+        }
+        TransactionContext.setTransaction(t1.getTransactionContext());
+        try {
+            t1.commit();
+            fail();
+        } catch (ValidationException e) { /* do nothing */ }
+        assertEquals(Transaction.Status.COMPLETE, t1.getStatus());
+
+        // t3's own writes don't fail its validation, which S-locks the pages
+        // it only read
+        lockManager.log.clear();
+        Transaction t3 = db.beginOptimisticTransaction();
+        t3.getTransactionContext().getRecord(tableName, rids.get(0));
+        t3.getTransactionContext().updateRecord(tableName, rids.get(0), input);
+        t3.getTransactionContext().getRecord(tableName, rids.get(rids.size() - 1));
+        t3.commit();
+        assertEquals(Transaction.Status.COMPLETE, t3.getStatus());
+        assertEquals(prepare(t3.getTransNum(),
+                "acquire %s database IX",
+                "acquire %s database/testtable1 IX",
+                "acquire %s database/testtable1/30000000001 X",
+                "acquire %s database/testtable1/30000000002 S"
+        ), removeMetadataLogs(lockManager.log).subList(0, 4));
+    }
 }
@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
 import org.junit.Before;
 import org.junit.ClassRule;
@@ -20,6 +21,8 @@ import org.junit.rules.Timeout;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -253,6 +256,73 @@ public class TestDatabaseRecoveryIntegration {
         assertEquals(oldRecords, newRecords);
     }
 
+    @Test
+    public void testRollbackDeleteReinsert() {
+        /**
+         * Deletes a record and inserts a new one into the slot it freed, then
+         * rolls back. Undoing the insert only clears the slot, so undoing the
+         * delete must restore the deleted record's bytes.
+         */
+        try (Transaction t = db.beginTransaction()) {
+            Schema schema = new Schema().add("id", Type.intType()).add("name", Type.stringType(8));
+            t.createTable(schema, "people");
+            t.insert("people", 1, "alice");
+            t.insert("people", 2, "bob");
+        }
+
+        try (Transaction t = db.beginTransaction()) {
+            t.delete("people", "id", PredicateOperator.EQUALS, DataBox.fromObject(1));
+            t.insert("people", 3, "carol");
+            // carol took alice's slot
+            assertEquals(new Record(3, "carol"), t.query("people").execute().next());
+            t.rollback();
+        }
+
+        List<Record> records = new ArrayList<>();
+        try (Transaction t = db.beginTransaction()) {
+            t.query("people").execute().forEachRemaining(records::add);
+        }
+        assertEquals(Arrays.asList(new Record(1, "alice"), new Record(2, "bob")), records);
+    }
+
+    @Test
+    public void testRollbackCoalescedUpdatesUnderRecordLocks() {
+        /**
+         * T1 updates records 0 and 2 of a page while T2 updates record 1 under
+         * its own record lock and commits. Rolling back T1 must not restore
+         * record 1, even though updates to the page are coalesced.
+         */
+        db.setCoalesceUpdates(true);
+        db.setRecordLocking(true);
+        List<RecordId> rids = new ArrayList<>();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(new Schema().add("int", Type.intType()), "ints");
+            for (int i = 1; i <= 5; ++i) {
+                rids.add(t.getTransactionContext().addRecord("ints", new Record(i)));
+            }
+        }
+
+        Transaction t1 = db.beginTransaction();
+        t1.getTransactionContext().updateRecord("ints", rids.get(0), new Record(100));
+        t1.getTransactionContext().updateRecord("ints", rids.get(2), new Record(300));
+        TransactionContext.unsetTransaction();
+
+        try (Transaction t2 = db.beginTransaction()) {
+            t2.getTransactionContext().updateRecord("ints", rids.get(1), new Record(200));
+        }
+
+        TransactionContext.setTransaction(t1.getTransactionContext());
+        t1.rollback();
+        t1.close();
+
+        List<Record> records = new ArrayList<>();
+        try (Transaction t = db.beginTransaction()) {
+            t.query("ints").execute().forEachRemaining(records::add);
+        }
+        assertEquals(Arrays.asList(new Record(1), new Record(200), new Record(3), new Record(4),
+                                   new Record(5)), records);
+    }
+
     @Test
     public void testRollbackDeletePartial() {
         /**
@@ -406,6 +476,109 @@ public class TestDatabaseRecoveryIntegration {
         this.db.close();
     }
 
+    @Test
+    public void testRebootInsert() {
+        /**
+         * Same as above, but T1 inserts records into `Students`, filling up
+         * freed slots and new pages, and never commits.
+         */
+        List<Record> oldRecords = new ArrayList<>();
+        List<Record> newRecords = new ArrayList<>();
+
+        Transaction t0 = db.beginTransaction();
+        t0.delete("Students", "gpa", PredicateOperator.GREATER_THAN_EQUALS, DataBox.fromObject(1.86));
+        t0.commit();
+
+        // Do a full scan of `Students`
+        try (Transaction t1 = db.beginTransaction()) {
+            Iterator<Record> records = t1.query("Students").execute();
+            while (records.hasNext()) oldRecords.add(records.next());
+        }
+
+        Transaction t1 = db.beginTransaction();
+        for (int i = 0; i < 300; i++) {
+            t1.insert("Students", i, "Jane Doe", "Computer Science", 4.0f);
+        }
+        db.getBufferManager().evictAll();
+
+        // Note: Changes flushed, but T1 never commits!
+        reloadDatabase(false);
+        try (Transaction t2 = db.beginTransaction()) {
+            Iterator<Record> records2 = t2.query("Students").execute();
+            while (records2.hasNext()) newRecords.add(records2.next());
+        }
+        assertEquals(oldRecords, newRecords);
+        this.db.close();
+    }
+
+    @Test
+    public void testRebootAfterRollbackToSavepoint() {
+        /**
+         * T1 updates a record and rolls the update back to a savepoint, then
+         * the database crashes while T1 is still running. The page write that
+         * undoes the update must only be logged as a CLR: restart recovery
+         * redoes the CLR and then rolls back T1's remaining records, and must
+         * find the original record.
+         */
+        try (Transaction t0 = db.beginTransaction()) {
+            t0.createTable(new Schema().add("int", Type.intType()), "ints");
+            t0.insert("ints", 1);
+        }
+
+        Transaction t1 = db.beginTransaction();
+        t1.savepoint("before");
+        t1.update("ints", "int", (Record r) -> DataBox.fromObject(2));
+        t1.rollbackToSavepoint("before");
+        TransactionContext.unsetTransaction();
+
+        // T2's commit flushes the log, including T1's records
+        try (Transaction t2 = db.beginTransaction()) {
+            t2.createTable(new Schema().add("int", Type.intType()), "other");
+        }
+        db.getBufferManager().evictAll();
+
+        // Note: T1 never commits!
+        reloadDatabase(false);
+        List<Record> records = new ArrayList<>();
+        try (Transaction t3 = db.beginTransaction()) {
+            t3.query("ints").execute().forEachRemaining(records::add);
+        }
+        assertEquals(Collections.singletonList(new Record(1)), records);
+        this.db.close();
+    }
+
+    @Test
+    public void testInstantRestartPartialDelete() {
+        /**
+         * Same as testRebootPartialDelete, but the database is reopened with
+         * instant restart, so T1 is rolled back in the background. T2's scan
+         * of `Students` must block on T1's reacquired locks until the rollback
+         * finishes, and then see all of the original records.
+         */
+        List<Record> oldRecords = new ArrayList<>();
+        List<Record> newRecords = new ArrayList<>();
+
+        // Do a full scan of `Students`
+        Transaction t1 = db.beginTransaction();
+        Iterator<Record> records = t1.query("Students").execute();
+        while (records.hasNext()) oldRecords.add(records.next());
+
+        t1.delete("Students", "gpa", PredicateOperator.GREATER_THAN_EQUALS, DataBox.fromObject(1.86));
+        db.getBufferManager().evictAll();
+
+        // Note: Changes flushed, but T1 never commits!
+        TransactionContext.unsetTransaction();
+        this.lockManager = new LockManager();
+        this.db = new Database(this.filename, 128, this.lockManager, new ClockEvictionPolicy(), true, true);
+        this.db.setWorkMem(32);
+        try (Transaction t2 = db.beginTransaction()) {
+            Iterator<Record> records2 = t2.query("Students").execute();
+            while (records2.hasNext()) newRecords.add(records2.next());
+        }
+        assertEquals(oldRecords, newRecords);
+        this.db.close();
+    }
+
     @Test
     public void testRebootCreateTable() {
         // Creates tables, commits, and then reboots
@@ -0,0 +1,88 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the lock/unlock throughput of the LockManager with several threads,
+ * each running its own transaction. Every iteration acquires an IX lock on the
+ * database, an IX lock on one of the thread's tables, and an X lock on a page
+ * of that table, then releases all three, as a transaction writing a page
+ * would. Only the database lock is shared between threads.
+ *
+ * This is not run as part of the test suite. To run it:
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *       edu.berkeley.cs186.database.concurrency.LockManagerBenchmark [maxThreads] [iterations]
+ */
+public class LockManagerBenchmark {
+    private static final int NUM_TABLES = 16;
+    private static final int NUM_PAGES = 64;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        // warm up
+        run(maxThreads, iterations / 10);
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+            long nanos = run(numThreads, iterations);
+            // 3 acquires and 3 releases per iteration
+            double opsPerSecond = 6.0 * iterations * numThreads / (nanos / 1e9);
+            System.out.printf("%2d threads: %,.0f lock operations/s%n", numThreads, opsPerSecond);
+        }
+    }
+
+    /**
+     * Runs `iterations` iterations on each of `numThreads` threads.
+     * @return elapsed time in nanoseconds
+     */
+    private static long run(int numThreads, int iterations) throws InterruptedException {
+        LockManager lockman = new LockManager();
+        // only used by the transactions to log blocking, which this workload never does
+        LoggingLockManager blockLog = new LoggingLockManager();
+        ResourceName db = new ResourceName("database");
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; ++i) {
+            TransactionContext transaction = new DummyTransactionContext(blockLog, i);
+            ResourceName[] tables = new ResourceName[NUM_TABLES];
+            ResourceName[][] pages = new ResourceName[NUM_TABLES][NUM_PAGES];
+            for (int j = 0; j < NUM_TABLES; ++j) {
+                ResourceName table = new ResourceName(db, "t" + i + "_" + j);
+                tables[j] = table;
+                for (int k = 0; k < NUM_PAGES; ++k) {
+                    pages[j][k] = new ResourceName(table, Integer.toString(k));
+                }
+            }
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int n = 0; n < iterations; ++n) {
+                    ResourceName table = tables[n % NUM_TABLES];
+                    ResourceName page = pages[n % NUM_TABLES][n % NUM_PAGES];
+                    lockman.acquire(transaction, db, LockType.IX);
+                    lockman.acquire(transaction, table, LockType.IX);
+                    lockman.acquire(transaction, page, LockType.X);
+                    lockman.release(transaction, page);
+                    lockman.release(transaction, table);
+                    lockman.release(transaction, db);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - startTime;
+    }
+}
@@ -324,6 +324,36 @@ public class TestLockContext {
         assertFalse(TestLockManager.holds(lockManager, t1, r3.getResourceName(), LockType.S));
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testEscalateDescendants() {
+        TransactionContext t1 = transactions[1];
+
+        // locks below the children (here a record of a page) are released too
+        LockContext r0 = tableLockContext;
+        LockContext r1 = pageLockContext;
+        LockContext r2 = pageLockContext.childContext("record1");
+        LockContext r3 = pageLockContext.childContext("record2");
+
+        dbLockContext.acquire(t1, LockType.IX);
+        r0.acquire(t1, LockType.IX);
+        r1.acquire(t1, LockType.IX);
+        r2.acquire(t1, LockType.X);
+        r3.acquire(t1, LockType.S);
+
+        assertEquals(2, r1.getNumChildren(t1));
+        r0.escalate(t1);
+        assertEquals(0, r0.getNumChildren(t1));
+        assertEquals(0, r1.getNumChildren(t1));
+
+        assertEquals(Arrays.asList(
+                new Lock(dbLockContext.getResourceName(), LockType.IX, 1L),
+                new Lock(r0.getResourceName(), LockType.X, 1L)
+        ), lockManager.getLocks(t1));
+        assertEquals(LockType.X, r2.getEffectiveLockType(t1));
+        assertEquals(LockType.NL, r2.getExplicitLockType(t1));
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testGetLockType() {
@@ -406,4 +436,59 @@ public class TestLockContext {
         assertEquals(0, dbLockContext.getNumChildren(t1));
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testResourceNames() {
+        // pages looked up by number and by name are the same resource
+        LockContext page10 = tableLockContext.childContext(10L);
+        assertSame(page10, tableLockContext.childContext("10"));
+        assertSame(page10, tableLockContext.childContext(10L));
+        ResourceName name = new ResourceName(new ResourceName(new ResourceName("database"), "table1"), "10");
+        assertEquals(name, page10.getResourceName());
+        assertEquals(name.hashCode(), page10.getResourceName().hashCode());
+        assertEquals(Arrays.asList("database", "table1", "10"), name.getNames());
+        assertEquals("database/table1/10", name.toString());
+
+        assertTrue(name.isDescendantOf(tableLockContext.getResourceName()));
+        assertTrue(name.isDescendantOf(dbLockContext.getResourceName()));
+        assertFalse(name.isDescendantOf(name));
+        assertFalse(name.isDescendantOf(pageLockContext.getResourceName()));
+        assertEquals(tableLockContext.getResourceName(), name.parent());
+        assertNotEquals(name, tableLockContext.childContext("010").getResourceName());
+        assertNotEquals(name, dbLockContext.childContext("table2").childContext(10L).getResourceName());
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testLockTypeCache() {
+        TransactionContext t1 = transactions[1];
+        dbLockContext.acquire(t1, LockType.IS);
+        tableLockContext.acquire(t1, LockType.S);
+        assertEquals(LockType.S, pageLockContext.getEffectiveLockType(t1));
+
+        // cached lock types are dropped when the transaction's locks change,
+        // even if they are changed directly through the lock manager
+        lockManager.release(t1, tableLockContext.getResourceName());
+        assertEquals(LockType.NL, tableLockContext.getExplicitLockType(t1));
+        assertEquals(LockType.NL, pageLockContext.getEffectiveLockType(t1));
+        lockManager.promote(t1, dbLockContext.getResourceName(), LockType.X);
+        assertEquals(LockType.X, pageLockContext.getEffectiveLockType(t1));
+        // each transaction has its own cache
+        assertEquals(LockType.NL, pageLockContext.getEffectiveLockType(transactions[2]));
+
+        // repeated lookups don't go to the lock manager
+        int[] numLookups = new int[1];
+        LockManager countingLockManager = new LockManager() {
+            @Override
+            public LockType getLockType(TransactionContext transaction, ResourceName name) {
+                ++numLookups[0];
+                return super.getLockType(transaction, name);
+            }
+        };
+        LockContext pageContext = countingLockManager.databaseContext().childContext("table1").childContext(1L);
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(LockType.NL, pageContext.getEffectiveLockType(t1));
+        }
+        assertEquals(3, numLookups[0]);
+    }
 }
@@ -756,5 +756,214 @@ public class TestLockManager {
         runner.joinAll();
     }
 
-}
+    @Test
+    @Category(PublicTests.class)
+    public void testFastPathIntentionLocks() {
+        /**
+         * Transaction 0 acquires an IS lock on dbResource and promotes it to IX
+         * Transaction 1 acquires an IS lock on dbResource
+         * Transaction 2 attempts to acquire an X lock on dbResource, and
+         *    blocks due to a conflict with the intention locks
+         */
+        DeterministicRunner runner = new DeterministicRunner(4);
+        runner.run(0, () -> {
+            lockman.acquire(transactions[0], dbResource, LockType.IS);
+            lockman.promote(transactions[0], dbResource, LockType.IX);
+        });
+        runner.run(1, () -> lockman.acquire(transactions[1], dbResource, LockType.IS));
+        assertEquals(LockType.IX, lockman.getLockType(transactions[0], dbResource));
+        assertEquals(Collections.singletonList(new Lock(dbResource, LockType.IX, 0L)),
+                     lockman.getLocks(transactions[0]));
+
+        runner.run(2, () -> lockman.acquire(transactions[2], dbResource, LockType.X));
+        assertTrue(transactions[2].getBlocked());
+        assertEquals(new HashSet<>(Arrays.asList(new Lock(dbResource, LockType.IX, 0L),
+                     new Lock(dbResource, LockType.IS, 1L))), new HashSet<>(lockman.getLocks(dbResource)));
+
+        /**
+         * Transaction 3 attempts to acquire an IS lock on dbResource, and
+         *    blocks behind Transaction 2
+         * Transactions 0 and 1 release their locks, and Transaction 2 unblocks
+         */
+        runner.run(3, () -> lockman.acquire(transactions[3], dbResource, LockType.IS));
+        assertTrue(transactions[3].getBlocked());
+        runner.run(0, () -> lockman.release(transactions[0], dbResource));
+        runner.run(1, () -> lockman.release(transactions[1], dbResource));
+        assertFalse(transactions[2].getBlocked());
+        assertTrue(transactions[3].getBlocked());
+        assertEquals(Collections.singletonList(new Lock(dbResource, LockType.X, 2L)),
+                     lockman.getLocks(dbResource));
 
+        /**
+         * Transaction 2 releases its X lock, Transaction 3 unblocks, and once
+         *    it releases its IS lock, intention locks use the fast path again
+         */
+        runner.run(2, () -> lockman.release(transactions[2], dbResource));
+        assertFalse(transactions[3].getBlocked());
+        runner.run(3, () -> lockman.release(transactions[3], dbResource));
+        assertEquals(Collections.emptyList(), lockman.getLocks(dbResource));
+        runner.run(0, () -> lockman.acquire(transactions[0], dbResource, LockType.IX));
+        assertEquals(LockType.IX, lockman.getLockType(transactions[0], dbResource));
+        runner.run(0, () -> lockman.release(transactions[0], dbResource));
+        assertEquals(Collections.emptyList(), lockman.getLocks(transactions[0]));
+
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testLockWaitTimeout() {
+        /**
+         * Transaction 0 acquires an X lock on table0
+         * Transaction 1 attempts to acquire an X lock on table0, and gives up
+         *    once the lock wait timeout runs out
+         */
+        DeterministicRunner runner = new DeterministicRunner(2);
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        lockman.setLockWaitTimeout(50);
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> {
+            try {
+                lockman.acquire(transactions[1], tables[0], LockType.X);
+            } catch (LockTimeoutException e) {
+                timedOut.set(true);
+            }
+        });
+        assertTrue(timedOut.get());
+
+        // Transaction 1 should not be queued or blocked anymore, and should
+        // have to roll back
+        assertFalse(transactions[1].getBlocked());
+        assertTrue(transactions[1].isRollbackOnly());
+        assertEquals(Collections.singletonList(new Lock(tables[0], LockType.X, 0L)),
+                     lockman.getLocks(tables[0]));
+
+        // Transaction 2 can still queue up behind Transaction 0
+        lockman.setLockWaitTimeout(0);
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[0], LockType.S));
+        assertEquals(LockType.S, lockman.getLockType(transactions[1], tables[0]));
+
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testLockWaitStats() {
+        /**
+         * Transaction 0 acquires an X lock on table0
+         * Transaction 1 attempts to acquire an S lock on table0 (blocks)
+         * Transaction 2 attempts to acquire an X lock on table0 (blocks)
+         * Transaction 0 releases its lock, Transaction 1 gets its lock
+         * Transaction 1 releases its lock, Transaction 2 gets its lock
+         */
+        DeterministicRunner runner = new DeterministicRunner(3);
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[0], LockType.S));
+        runner.run(2, () -> lockman.acquire(transactions[2], tables[0], LockType.X));
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        runner.run(1, () -> lockman.release(transactions[1], tables[0]));
+        assertEquals(LockType.X, lockman.getLockType(transactions[2], tables[0]));
+
+        // only requests that had to wait are counted
+        List<LockWaitStats> stats = lockman.getLockWaitStats();
+        assertEquals(2, stats.size());
+        for (LockWaitStats s : stats) {
+            assertEquals(tables[0], s.getResourceName());
+            assertEquals(1, s.getNumWaits());
+            assertTrue(s.getMaxWaitMillis() <= s.getTotalWaitMillis());
+            // Transaction 2 queued up behind Transaction 1
+            assertEquals(s.getLockType() == LockType.S ? 1 : 2, s.getMaxQueueLength());
+        }
+
+        lockman.resetLockWaitStats();
+        assertTrue(lockman.getLockWaitStats().isEmpty());
+
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testDeadlockDetector() {
+        /**
+         * Transaction 0 acquires an X lock on table0
+         * Transaction 1 acquires an X lock on table1
+         * Transaction 0 attempts to acquire an X lock on table1 (blocks)
+         * Transaction 1 attempts to acquire an X lock on table0 (blocks)
+         * The deadlock detector aborts Transaction 1, the younger of the two
+         *    (both have the same cost)
+         */
+        DeterministicRunner runner = new DeterministicRunner(2);
+        DeadlockDetector detector = new DeadlockDetector(lockman, transNum -> 0L);
+        AtomicBoolean deadlocked = new AtomicBoolean(false);
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[1], LockType.X));
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[1], LockType.X));
+        runner.run(1, () -> {
+            try {
+                lockman.acquire(transactions[1], tables[0], LockType.X);
+            } catch (DeadlockException e) {
+                deadlocked.set(true);
+            }
+        });
+        assertTrue(transactions[0].getBlocked());
+        assertTrue(transactions[1].getBlocked());
+
+        assertEquals(1, detector.run());
+        // nothing left to break
+        assertEquals(0, detector.run());
+        detector.close();
+
+        // Transaction 1 gives up its locks once it learns it was aborted
+        runner.run(1, () -> lockman.release(transactions[1], tables[1]));
+        assertTrue(deadlocked.get());
+        assertTrue(transactions[1].isRollbackOnly());
+        assertFalse(transactions[0].isRollbackOnly());
+        assertFalse(transactions[0].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], tables[1]));
+        assertEquals(LockType.NL, lockman.getLockType(transactions[1], tables[0]));
+
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentAcquireRelease() throws Exception {
+        /**
+         * Each transaction repeatedly acquires an IX lock on dbResource, an X
+         * lock on one of two tables (contended with the other transactions),
+         * and an X lock on a resource of its own, and releases all three.
+         * Every lock should be released at the end, and no transaction should
+         * be left blocked.
+         */
+        ExecutorService executor = Executors.newFixedThreadPool(transactions.length);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < transactions.length; ++i) {
+            TransactionContext t = transactions[i];
+            ResourceName own = new ResourceName(tables[i], "page" + i);
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 200; ++j) {
+                    ResourceName shared = tables[j % 2];
+                    lockman.acquire(t, dbResource, LockType.IX);
+                    lockman.acquire(t, shared, LockType.X);
+                    lockman.acquire(t, own, LockType.X);
+                    assertEquals(LockType.X, lockman.getLockType(t, shared));
+                    lockman.release(t, own);
+                    lockman.release(t, shared);
+                    lockman.release(t, dbResource);
+                }
+            }));
+        }
+        executor.shutdown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        assertEquals(Collections.emptyList(), lockman.getLocks(dbResource));
+        for (int i = 0; i < transactions.length; ++i) {
+            assertEquals(Collections.emptyList(), lockman.getLocks(tables[i]));
+            assertEquals(Collections.emptyList(), lockman.getLocks(transactions[i]));
+            assertFalse(transactions[i].getBlocked());
+        }
+    }
+}
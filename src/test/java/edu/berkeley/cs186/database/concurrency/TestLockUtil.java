@@ -267,6 +267,44 @@ public class TestLockUtil {
         ), lockManager.log);
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testAutoEscalate() {
+        /**
+         * table1 has 50 pages, so a transaction may lock 20% of them (10
+         * pages) before its locks are escalated to a table lock.
+         */
+        tableContext.setCapacity(() -> 50);
+        lockManager.setEscalationThresholds(0.2, 1000);
+        for (int i = 0; i < 10; ++i) {
+            LockUtil.ensureSufficientLockHeld(tableContext.childContext((long) i), LockType.S);
+        }
+        assertEquals(LockType.IS, tableContext.getExplicitLockType(transaction));
+        assertEquals(10, tableContext.getNumChildren(transaction));
+
+        /**
+         * Requesting S on an 11th page escalates to S(table1) instead, and
+         * requesting S on more pages does nothing.
+         */
+        lockManager.startLog();
+        LockUtil.ensureSufficientLockHeld(tableContext.childContext(10L), LockType.S);
+        LockUtil.ensureSufficientLockHeld(tableContext.childContext(11L), LockType.S);
+        assertEquals(1, lockManager.log.size());
+        assertTrue(lockManager.log.get(0).startsWith("acquire-and-release 0 database/table1 S "));
+        assertEquals(Arrays.asList(
+                new Lock(dbContext.getResourceName(), LockType.IS, 0L),
+                new Lock(tableContext.getResourceName(), LockType.S, 0L)
+        ), lockManager.getLocks(transaction));
+        lockManager.clearLog();
+
+        /**
+         * Requesting X on a page promotes the table lock to X.
+         */
+        LockUtil.ensureSufficientLockHeld(tableContext.childContext(12L), LockType.X);
+        assertEquals(LockType.X, tableContext.getExplicitLockType(transaction));
+        assertEquals(LockType.NL, tableContext.childContext(12L).getExplicitLockType(transaction));
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testSimpleNL() {
@@ -0,0 +1,174 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.table.RecordId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of a single B+ tree shared by several threads,
+ * under the core YCSB workloads:
+ *
+ *   - A: 50% reads, 50% updates
+ *   - B: 95% reads, 5% updates
+ *   - C: 100% reads
+ *   - E: 95% short scans (of up to 100 keys), 5% inserts
+ *
+ * Reads, updates and scans pick their keys from a Zipfian distribution over
+ * the loaded keys (hot keys are spread over the tree), and inserts add new
+ * keys. An update removes a key and puts it back with a new record id.
+ *
+ * This is not run as part of the test suite. To run it:
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *       edu.berkeley.cs186.database.index.BPlusTreeBenchmark [maxThreads] [operations] [records]
+ */
+public class BPlusTreeBenchmark {
+    private static final double ZIPFIAN_CONSTANT = 0.99;
+    private static final int MAX_SCAN_LENGTH = 100;
+
+    private enum Workload {
+        A(0.5, 0.5, 0, 0),
+        B(0.95, 0.05, 0, 0),
+        C(1, 0, 0, 0),
+        E(0, 0, 0.95, 0.05);
+
+        private final double read;
+        private final double update;
+        private final double scan;
+        private final double insert;
+
+        Workload(double read, double update, double scan, double insert) {
+            this.read = read;
+            this.update = update;
+            this.scan = scan;
+            this.insert = insert;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int records = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        double[] zipfian = zipfianCdf(records);
+        for (Workload workload : Workload.values()) {
+            // warm up
+            run(workload, maxThreads, operations / 10, records, zipfian);
+            for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+                long nanos = run(workload, numThreads, operations, records, zipfian);
+                double opsPerSecond = (double) operations * numThreads / (nanos / 1e9);
+                System.out.printf("workload %s, %2d threads: %,.0f operations/s%n",
+                                  workload, numThreads, opsPerSecond);
+            }
+        }
+    }
+
+    /**
+     * Loads `records` keys into a new tree, then runs `operations` operations
+     * of `workload` on each of `numThreads` threads.
+     * @return elapsed time in nanoseconds
+     */
+    private static long run(Workload workload, int numThreads, int operations, int records,
+                            double[] zipfian) throws InterruptedException {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                                                        4096, new ClockEvictionPolicy());
+        Type keySchema = Type.intType();
+        int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, keySchema);
+        BPlusTreeMetadata metadata = new BPlusTreeMetadata("benchmark", "key", keySchema, order,
+                                                           0, DiskSpaceManager.INVALID_PAGE_NUM, -1);
+        BPlusTree tree = new BPlusTree(bufferManager, metadata, new DummyLockContext());
+        List<Pair<DataBox, RecordId>> data = new ArrayList<>();
+        for (int i = 0; i < records; ++i) {
+            data.add(new Pair<>(new IntDataBox(i), new RecordId(i, (short) 0)));
+        }
+        tree.bulkLoad(data.iterator(), 0.75f);
+
+        AtomicInteger nextKey = new AtomicInteger(records);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            Random random = new Random(t);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int n = 0; n < operations; ++n) {
+                    double op = random.nextDouble();
+                    // scatter the hot keys, as YCSB does
+                    int key = (int) (Integer.toUnsignedLong(nextZipfian(zipfian, random) * 0x9E3779B1) % records);
+                    if (op < workload.read) {
+                        tree.get(new IntDataBox(key));
+                    } else if (op < workload.read + workload.update) {
+                        tree.remove(new IntDataBox(key));
+                        try {
+                            tree.put(new IntDataBox(key), new RecordId(key, (short) n));
+                        } catch (BPlusTreeException e) {
+                            // another thread updated the key at the same time
+                        }
+                    } else if (op < workload.read + workload.update + workload.scan) {
+                        Iterator<RecordId> iter = tree.scanGreaterEqual(new IntDataBox(key));
+                        int length = 1 + random.nextInt(MAX_SCAN_LENGTH);
+                        for (int i = 0; i < length && iter.hasNext(); ++i) {
+                            iter.next();
+                        }
+                    } else {
+                        int newKey = nextKey.getAndIncrement();
+                        tree.put(new IntDataBox(newKey), new RecordId(newKey, (short) 0));
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - startTime;
+        bufferManager.close();
+        return nanos;
+    }
+
+    /**
+     * @return the cumulative distribution function of a Zipfian distribution
+     * over n items
+     */
+    private static double[] zipfianCdf(int n) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; ++i) {
+            sum += 1 / Math.pow(i + 1, ZIPFIAN_CONSTANT);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; ++i) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int nextZipfian(double[] cdf, Random random) {
+        int i = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+    }
+}
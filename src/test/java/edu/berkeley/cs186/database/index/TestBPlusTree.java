@@ -10,7 +10,9 @@ import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
@@ -26,7 +28,10 @@ import org.junit.rules.DisableOnDebug;
 import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
 import static org.junit.Assert.*;
@@ -118,6 +123,12 @@ public class TestBPlusTree {
         return indexIteratorToList(iteratorSupplier, Collections.emptyIterator());
     }
 
+    private <T> List<T> toList(Iterator<T> iter) {
+        List<T> xs = new ArrayList<>();
+        iter.forEachRemaining(xs::add);
+        return xs;
+    }
+
     // Tests ///////////////////////////////////////////////////////////////////
 
     @Test
@@ -470,6 +481,223 @@ public class TestBPlusTree {
         }
     }
 
+    @Test
+    public void testConcurrentOperations() throws InterruptedException {
+        // Each writer puts its own keys in random order, reads them back, and
+        // removes half of them, while a reader scans the tree over and over.
+        int numWriters = 4;
+        int numKeys = 2000;
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < numWriters; ++w) {
+            List<Integer> keys = new ArrayList<>();
+            for (int i = w; i < numKeys; i += numWriters) {
+                keys.add(i);
+            }
+            Collections.shuffle(keys, new Random(w));
+            writers.add(new Thread(() -> {
+                try {
+                    for (int i : keys) {
+                        tree.put(new IntDataBox(i), new RecordId(i, (short) i));
+                    }
+                    for (int i : keys) {
+                        assertEquals(Optional.of(new RecordId(i, (short) i)), tree.get(new IntDataBox(i)));
+                        if (i % 2 == 1) {
+                            tree.remove(new IntDataBox(i));
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        Thread reader = new Thread(() -> {
+            try {
+                while (writing.get()) {
+                    long previous = -1;
+                    Iterator<RecordId> iter = tree.scanAll();
+                    while (iter.hasNext()) {
+                        long pageNum = iter.next().getPageNum();
+                        assertTrue(pageNum > previous);
+                        previous = pageNum;
+                    }
+                }
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+
+        reader.start();
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        reader.join();
+        assertEquals(Collections.emptyList(), new ArrayList<>(errors));
+
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < numKeys; i += 2) {
+            expected.add(new RecordId(i, (short) i));
+        }
+        List<RecordId> actual = new ArrayList<>();
+        tree.scanAll().forEachRemaining(actual::add);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testStringKeyCompression() {
+        // String keys that share a long prefix, and are much shorter than
+        // their declared length.
+        Type keySchema = Type.stringType(64);
+        List<DataBox> keys = new ArrayList<>();
+        List<RecordId> sortedRids = new ArrayList<>();
+        for (int i = 0; i < 600; ++i) {
+            keys.add(new StringDataBox(String.format("customer#%08d", i * 7), 64));
+            sortedRids.add(new RecordId(i, (short) 0));
+        }
+        Map<DataBox, RecordId> ridOf = new HashMap<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            ridOf.put(keys.get(i), sortedRids.get(i));
+        }
+
+        int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, keySchema);
+        BPlusTree tree = getBPlusTree(keySchema, order);
+        List<DataBox> shuffled = new ArrayList<>(keys);
+        Collections.shuffle(shuffled, new Random(42));
+        for (DataBox key : shuffled) {
+            tree.put(key, ridOf.get(key));
+        }
+
+        for (DataBox key : keys) {
+            assertEquals(Optional.of(ridOf.get(key)), tree.get(key));
+        }
+        assertEquals(Optional.empty(), tree.get(new StringDataBox("customer#00000001", 64)));
+        assertEquals(sortedRids, toList(tree.scanAll()));
+        assertEquals(sortedRids.subList(1, sortedRids.size()),
+                     toList(tree.scanGreaterEqual(new StringDataBox("customer#00000001", 64))));
+
+        // Leaves hold more than 2d entries: fewer leaves than even full
+        // uncompressed leaves would take.
+        BPlusNode root = BPlusNode.fromBytes(metadata, bufferManager, treeContext, metadata.getRootPageNum());
+        int numLeaves = 0;
+        Optional<LeafNode> leaf = Optional.of(root.getLeftmostLeaf());
+        while (leaf.isPresent()) {
+            ++numLeaves;
+            leaf = leaf.get().getRightSibling();
+        }
+        assertTrue(numLeaves < keys.size() / (2 * order));
+
+        // Split keys are cut down to the prefix that tells leaves apart.
+        assertTrue(root instanceof InnerNode);
+        List<DataBox> splitKeys = ((InnerNode) root).getKeys();
+        int splitKeysLength = 0;
+        for (DataBox key : splitKeys) {
+            splitKeysLength += key.getString().length();
+        }
+        assertTrue(splitKeysLength < splitKeys.size() * "customer#00000000".length());
+        assertEquals(new StringDataBox("apr", 64),
+                     BPlusNode.separator(metadata, new StringDataBox("apple", 64),
+                                         new StringDataBox("apricot", 64)));
+
+        // Load the tree from disk, and remove every other key.
+        BPlusTree fromDisk = new BPlusTree(bufferManager, metadata, treeContext);
+        assertEquals(sortedRids, toList(fromDisk.scanAll()));
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            if (i % 2 == 0) {
+                fromDisk.remove(keys.get(i));
+            } else {
+                expected.add(sortedRids.get(i));
+            }
+        }
+        assertEquals(expected, toList(fromDisk.scanAll()));
+
+        // Bulk load the keys into a new tree.
+        cleanup();
+        setup();
+        BPlusTree bulkLoaded = getBPlusTree(keySchema, order);
+        List<Pair<DataBox, RecordId>> data = new ArrayList<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            data.add(new Pair<>(keys.get(i), sortedRids.get(i)));
+        }
+        bulkLoaded.bulkLoad(data.iterator(), 1.0f);
+        for (DataBox key : keys) {
+            assertEquals(Optional.of(ridOf.get(key)), bulkLoaded.get(key));
+        }
+        assertEquals(sortedRids, toList(bulkLoaded.scanAll()));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testIncludedColumns() {
+        // Trees with int keys and with (compressed) string keys, that store 8
+        // bytes of included columns with every record id.
+        for (Type keySchema : Arrays.asList(Type.intType(), Type.stringType(16))) {
+            cleanup();
+            setup();
+            int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, keySchema, Long.BYTES);
+            assertTrue(order < BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, keySchema));
+            metadata = new BPlusTreeMetadata("test", "col", "included", keySchema, Long.BYTES,
+                                             order, 0, DiskSpaceManager.INVALID_PAGE_NUM, -1);
+            BPlusTree tree = new BPlusTree(bufferManager, metadata, treeContext);
+
+            List<DataBox> keys = new ArrayList<>();
+            for (int i = 0; i < 1000; ++i) {
+                keys.add(keySchema.getTypeId() == TypeId.INT ? new IntDataBox(i)
+                         : new StringDataBox(String.format("key%05d", i), 16));
+            }
+            List<Integer> shuffled = new ArrayList<>();
+            for (int i = 0; i < keys.size(); ++i) {
+                shuffled.add(i);
+            }
+            Collections.shuffle(shuffled, new Random(42));
+            for (int i : shuffled) {
+                byte[] included = ByteBuffer.allocate(Long.BYTES).putLong(i * 10L).array();
+                tree.put(keys.get(i), new RecordId(i, (short) 0), included);
+            }
+            try {
+                // records must have included columns
+                tree.remove(keys.get(0));
+                tree.put(keys.get(0), new RecordId(0, (short) 0));
+                fail();
+            } catch (BPlusTreeException e) {
+                /* do nothing */
+            }
+            tree.put(keys.get(0), new RecordId(0, (short) 0), new byte[Long.BYTES]);
+
+            // The included values are returned with their keys, through
+            // splits, and after loading the tree from disk.
+            BPlusTree fromDisk = new BPlusTree(bufferManager, metadata, treeContext);
+            assertEquals(Optional.of(new RecordId(500, (short) 0)), fromDisk.get(keys.get(500)));
+            Iterator<Pair<DataBox, byte[]>> iter = fromDisk.scanIncluded(keys.get(500));
+            for (int i = 500; i < keys.size(); ++i) {
+                assertTrue(iter.hasNext());
+                Pair<DataBox, byte[]> entry = iter.next();
+                assertEquals(keys.get(i), entry.getFirst());
+                assertEquals(i * 10L, ByteBuffer.wrap(entry.getSecond()).getLong());
+            }
+            assertFalse(iter.hasNext());
+
+            for (int i = 0; i < keys.size(); i += 2) {
+                fromDisk.remove(keys.get(i));
+            }
+            int i = 1;
+            for (Pair<DataBox, byte[]> entry : toList(fromDisk.scanIncluded(null))) {
+                assertEquals(keys.get(i), entry.getFirst());
+                assertEquals(i * 10L, ByteBuffer.wrap(entry.getSecond()).getLong());
+                i += 2;
+            }
+            assertEquals(keys.size() + 1, i);
+        }
+    }
+
     @Test
     @Category(SystemTests.class)
     public void testMaxOrder() {
@@ -10,11 +10,13 @@ import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import edu.berkeley.cs186.database.table.RecordId;
 import org.junit.After;
@@ -415,4 +417,43 @@ public class TestInnerNode {
             assertEquals(inner, parsed);
         }
     }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testFindChild() {
+        // findChild searches the serialized node, and agrees with the node.
+        Page page = inner.getPage();
+        page.pin();
+        try {
+            assertEquals(innerChildren.get(0).longValue(),
+                         InnerNode.findChild(metadata, page.getBuffer(), null));
+            for (int i = 0; i < 30; ++i) {
+                DataBox key = new IntDataBox(i);
+                assertEquals(inner.getChildPageNum(key),
+                             InnerNode.findChild(metadata, page.getBuffer(), key));
+            }
+        } finally {
+            page.unpin();
+        }
+
+        // Nodes with string keys store them differently.
+        setBPlusTreeMetadata(Type.stringType(10), 2);
+        List<DataBox> keys = Arrays.asList(new StringDataBox("b", 10), new StringDataBox("dd", 10),
+                                           new StringDataBox("f", 10));
+        List<Long> children = Arrays.asList(10L, 11L, 12L, 13L);
+        InnerNode stringInner = new InnerNode(metadata, bufferManager, keys, children, treeContext);
+        page = stringInner.getPage();
+        page.pin();
+        try {
+            String[] probes = {"a", "b", "c", "d", "dd", "ddd", "e", "f", "g"};
+            long[] expected = {10L, 11L, 11L, 11L, 12L, 12L, 12L, 13L, 13L};
+            for (int i = 0; i < probes.length; ++i) {
+                DataBox key = new StringDataBox(probes[i], 10);
+                assertEquals(expected[i], InnerNode.findChild(metadata, page.getBuffer(), key));
+                assertEquals(expected[i], stringInner.getChildPageNum(key));
+            }
+        } finally {
+            page.unpin();
+        }
+    }
 }
@@ -10,11 +10,13 @@ import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import edu.berkeley.cs186.database.table.RecordId;
 import org.junit.After;
@@ -330,4 +332,53 @@ public class TestLeafNode {
             assertEquals(leaf, LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
         }
     }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testFind() {
+        // find searches the serialized leaf for a key, and agrees with getKey.
+        setBPlusTreeMetadata(Type.intType(), 5);
+        LeafNode leaf = getEmptyLeaf(Optional.empty());
+        for (int i = 0; i < 10; i += 2) {
+            leaf.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        Page page = leaf.getPage();
+        page.pin();
+        try {
+            for (int i = -1; i < 11; ++i) {
+                DataBox key = new IntDataBox(i);
+                Optional<RecordId> expected = i >= 0 && i < 10 && i % 2 == 0
+                                              ? Optional.of(new RecordId(i, (short) i))
+                                              : Optional.empty();
+                assertEquals(expected, LeafNode.find(metadata, page.getBuffer(), key));
+                assertEquals(expected, leaf.getKey(key));
+            }
+        } finally {
+            page.unpin();
+        }
+
+        // Leaves with string keys store them prefix compressed.
+        setBPlusTreeMetadata(Type.stringType(10), 5);
+        leaf = getEmptyLeaf(Optional.empty());
+        String[] keys = {"cart", "carton", "cast"};
+        for (int i = 0; i < keys.length; ++i) {
+            leaf.put(new StringDataBox(keys[i], 10), new RecordId(i, (short) i));
+        }
+        page = leaf.getPage();
+        page.pin();
+        try {
+            for (int i = 0; i < keys.length; ++i) {
+                DataBox key = new StringDataBox(keys[i], 10);
+                assertEquals(Optional.of(new RecordId(i, (short) i)),
+                             LeafNode.find(metadata, page.getBuffer(), key));
+            }
+            for (String absent : new String[] {"a", "ca", "car", "cartons", "cat", "dog"}) {
+                DataBox key = new StringDataBox(absent, 10);
+                assertEquals(Optional.empty(), LeafNode.find(metadata, page.getBuffer(), key));
+                assertEquals(Optional.empty(), leaf.getKey(key));
+            }
+        } finally {
+            page.unpin();
+        }
+    }
 }
@@ -9,6 +9,8 @@ import edu.berkeley.cs186.database.categories.Proj3Part2Tests;
 import edu.berkeley.cs186.database.categories.Proj3Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import org.junit.After;
@@ -22,8 +24,13 @@ import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @Category({Proj3Tests.class, Proj3Part2Tests.class})
@@ -199,4 +206,104 @@ public class TestSingleAccess {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testCompositeIndexScanSelection() {
+        try(Transaction transaction = this.db.beginTransaction()) {
+            Schema schema = new Schema()
+                    .add("tenant_id", Type.intType())
+                    .add("created_at", Type.intType())
+                    .add("payload", Type.stringType(400));
+            transaction.createTable(schema, "events");
+            transaction.createIndex("events", Arrays.asList("tenant_id", "created_at"), false);
+            for (int i = 0; i < 200; ++i) {
+                transaction.insert("events", new Record(i % 10, i / 10, "!"));
+            }
+            transaction.delete("events", "created_at", PredicateOperator.EQUALS, new IntDataBox(15));
+            transaction.getTransactionContext().getTable("events").buildStatistics(10);
+
+            // SELECT * FROM events WHERE tenant_id = 7 AND created_at >= 10;
+            QueryPlan query = transaction.query("events");
+            query.select("tenant_id", PredicateOperator.EQUALS, 7);
+            query.select("created_at", PredicateOperator.GREATER_THAN_EQUALS, 10);
+            QueryOperator op = query.minCostSingleAccess("events");
+
+            // both predicates should be answered by the composite index, and
+            // neither pushed down
+            assertTrue(op instanceof CompositeIndexScanOperator);
+            List<Integer> createdAt = new ArrayList<>();
+            for (Record record : op) {
+                assertEquals(7, record.getValue(0).getInt());
+                createdAt.add(record.getValue(1).getInt());
+            }
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 10; i < 20; ++i) {
+                if (i != 15) expected.add(i);
+            }
+            assertEquals(expected, createdAt);
+
+            // SELECT * FROM events WHERE tenant_id = 7 AND created_at < 3 AND payload = '!';
+            query = transaction.query("events");
+            query.select("tenant_id", PredicateOperator.EQUALS, 7);
+            query.select("created_at", PredicateOperator.LESS_THAN, 3);
+            query.select("payload", PredicateOperator.EQUALS, "!");
+            op = query.minCostSingleAccess("events");
+            assertTrue(op.isSelect());
+            assertTrue(op.getSource() instanceof CompositeIndexScanOperator);
+            int count = 0;
+            for (Record record : op) {
+                assertEquals(7, record.getValue(0).getInt());
+                assertEquals(count++, record.getValue(1).getInt());
+            }
+            assertEquals(3, count);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testIndexOnlyScanSelection() {
+        try(Transaction transaction = this.db.beginTransaction()) {
+            Schema schema = new Schema()
+                    .add("tenant_id", Type.intType())
+                    .add("amount", Type.intType())
+                    .add("created_at", Type.intType())
+                    .add("payload", Type.stringType(400));
+            transaction.createTable(schema, "events");
+            transaction.createIndex("events", Arrays.asList("tenant_id", "created_at"),
+                                    Collections.singletonList("amount"), false);
+            for (int i = 0; i < 200; ++i) {
+                transaction.insert("events", new Record(i % 10, i * 2, i / 10, "!"));
+            }
+            transaction.getTransactionContext().getTable("events").buildStatistics(10);
+
+            // SELECT created_at, amount FROM events WHERE tenant_id = 7 AND created_at >= 10;
+            QueryPlan query = transaction.query("events");
+            query.select("tenant_id", PredicateOperator.EQUALS, 7);
+            query.select("created_at", PredicateOperator.GREATER_THAN_EQUALS, 10);
+            query.project("created_at", "amount");
+            QueryOperator op = query.minCostSingleAccess("events");
+
+            // the index stores every column the query uses, so the records
+            // should not be read from the table
+            assertTrue(op instanceof IndexOnlyScanOperator);
+            assertEquals(Arrays.asList("events.tenant_id", "events.amount", "events.created_at"),
+                         op.getSchema().getFieldNames());
+            int createdAt = 10;
+            for (Record record : op) {
+                assertEquals(new Record(7, (createdAt * 10 + 7) * 2, createdAt), record);
+                createdAt++;
+            }
+            assertEquals(20, createdAt);
+
+            // SELECT * FROM events WHERE tenant_id = 7 AND created_at >= 10;
+            query = transaction.query("events");
+            query.select("tenant_id", PredicateOperator.EQUALS, 7);
+            query.select("created_at", PredicateOperator.GREATER_THAN_EQUALS, 10);
+            op = query.minCostSingleAccess("events");
+
+            // payload is not in the index
+            assertTrue(op instanceof CompositeIndexScanOperator);
+            assertFalse(op instanceof IndexOnlyScanOperator);
+        }
+    }
 }
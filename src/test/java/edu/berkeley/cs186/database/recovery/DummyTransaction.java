@@ -13,8 +13,10 @@ import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
@@ -92,6 +94,13 @@ class DummyTransaction extends Transaction {
     @Override
     public void createIndex(String tableName, String columnName, boolean bulkLoad) {}
 
+    @Override
+    public void createIndex(String tableName, List<String> columnNames, boolean bulkLoad) {}
+
+    @Override
+    public void createIndex(String tableName, List<String> columnNames,
+                            List<String> includedColumnNames, boolean bulkLoad) {}
+
     @Override
     public void dropIndex(String tableName, String columnName) {}
 
@@ -177,6 +186,16 @@ class DummyTransaction extends Transaction {
             return false;
         }
 
+        @Override
+        public List<String> getIndexedColumns(String tableName) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<String> getIncludedColumns(String tableName, String columnName) {
+            return Collections.emptyList();
+        }
+
         @Override
         public void updateIndexMetadata(BPlusTreeMetadata metadata) {}
 
@@ -190,6 +209,11 @@ class DummyTransaction extends Transaction {
             return null;
         }
 
+        @Override
+        public Iterator<Record> indexOnlyScanFrom(String tableName, String columnName, DataBox startValue) {
+            return null;
+        }
+
         @Override
         public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) {
             return null;
@@ -0,0 +1,154 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj5Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@Category({Proj5Tests.class})
+public class TestCheckpointScheduler {
+    private ARIESRecoveryManager recoveryManager;
+    private LogManager logManager;
+    private Map<Long, Long> dirtyPageTable;
+    private CheckpointScheduler scheduler;
+
+    // large enough that only two updates fit on a log page
+    private final byte[] before = new byte[1000];
+    private final byte[] after = new byte[1000];
+
+    // 3 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (3000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws IOException {
+        String testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {
+        });
+
+        recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(testDir, recoveryManager);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 32,
+                new LRUEvictionPolicy());
+        diskSpaceManager.allocPart(0);
+        diskSpaceManager.allocPart(1);
+        for (int i = 0; i < 10; ++i) {
+            diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(1, i));
+        }
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        recoveryManager.initialize();
+        logManager = recoveryManager.logManager;
+        dirtyPageTable = recoveryManager.dirtyPageTable;
+        scheduler = new CheckpointScheduler(recoveryManager);
+        after[0] = (byte) 0xAA;
+
+        Transaction transaction = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction);
+    }
+
+    @After
+    public void cleanup() {
+        scheduler.close();
+        recoveryManager.close();
+    }
+
+    private long write(int pageIndex) {
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, pageIndex);
+        return recoveryManager.logPageWrite(1L, pageNum, (short) 0, before, after);
+    }
+
+    private long masterCheckpointLSN() {
+        return ((MasterLogRecord) logManager.fetchLogRecord(0L)).lastCheckpointLSN;
+    }
+
+    /**
+     * Tests that a checkpoint is taken once enough log has been written since
+     * the last one, and not before.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCheckpointOnLogVolume() {
+        scheduler.setMaxCheckpointLogPages(2);
+        long initialCheckpoint = masterCheckpointLSN();
+
+        write(0);
+        assertFalse(scheduler.run());
+        assertEquals(initialCheckpoint, masterCheckpointLSN());
+
+        for (int i = 0; i < 8; ++i) {
+            write(0);
+        }
+        assertTrue(scheduler.run());
+        assertTrue(masterCheckpointLSN() > initialCheckpoint);
+
+        // nothing written since the last checkpoint
+        assertFalse(scheduler.run());
+    }
+
+    /**
+     * Tests that pages whose recLSN is too far behind the end of the log are
+     * flushed, and that recent ones are left alone.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testFlushOldDirtyPages() {
+        scheduler.setMaxRedoLogPages(2);
+        scheduler.setMaxCheckpointLogPages(Long.MAX_VALUE);
+        long oldPage = DiskSpaceManager.getVirtualPageNum(1, 0);
+        long newPage = DiskSpaceManager.getVirtualPageNum(1, 1);
+
+        write(0);
+        for (int i = 0; i < 10; ++i) {
+            write(2);
+        }
+        write(1);
+        assertTrue(dirtyPageTable.containsKey(oldPage));
+
+        assertTrue(scheduler.run());
+        assertFalse(dirtyPageTable.containsKey(oldPage));
+        assertTrue(dirtyPageTable.containsKey(newPage));
+    }
+
+    /**
+     * Tests that the pages with the oldest recLSNs are flushed when the DPT
+     * is larger than the target.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testMaxDirtyPages() {
+        scheduler.setMaxDirtyPages(2);
+        scheduler.setMaxCheckpointLogPages(Long.MAX_VALUE);
+        for (int i = 0; i < 5; ++i) {
+            write(i);
+        }
+        assertEquals(5, dirtyPageTable.size());
+
+        assertTrue(scheduler.run());
+        assertEquals(2, dirtyPageTable.size());
+        assertTrue(dirtyPageTable.containsKey(DiskSpaceManager.getVirtualPageNum(1, 3)));
+        assertTrue(dirtyPageTable.containsKey(DiskSpaceManager.getVirtualPageNum(1, 4)));
+    }
+}
@@ -1,6 +1,8 @@
 package edu.berkeley.cs186.database.recovery;
 
+import edu.berkeley.cs186.database.Transaction;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
@@ -8,16 +10,18 @@ import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.Page;
-import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
+import edu.berkeley.cs186.database.recovery.records.*;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
-import java.util.Iterator;
+import java.util.*;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogManager {
@@ -90,6 +94,72 @@ public class TestLogManager {
         assertFalse(iter.hasNext());
     }
 
+    @Test
+    public void testCursor() {
+        Map<Long, Long> dpt = new HashMap<>();
+        Map<Long, Pair<Transaction.Status, Long>> xacts = new HashMap<>();
+        dpt.put(10000000001L, 20000L);
+        xacts.put(3L, new Pair<>(Transaction.Status.RUNNING, 30000L));
+        byte[] image = new byte[100];
+        image[50] = 7;
+        List<LogRecord> records = Arrays.asList(
+            new MasterLogRecord(1234),
+            new BeginCheckpointLogRecord(),
+            new EndCheckpointLogRecord(dpt, xacts),
+            new AllocPartLogRecord(1L, 2, 0L),
+            new AllocPageLogRecord(1L, 10000000001L, 1L),
+            new UpdatePageLogRecord(1L, 10000000001L, 2L, (short) 10, new byte[100], image),
+            new UpdatePageLogRecord(1L, 10000000001L, 3L, (short) 10, new byte[100], image, true),
+            new UndoUpdatePageLogRecord(1L, 10000000001L, 4L, 3L, (short) 10, image),
+            new UndoUpdatePageLogRecord(1L, 10000000001L, 5L, 3L, (short) 0,
+                                        new byte[BufferManager.EFFECTIVE_PAGE_SIZE]),
+            new InsertRecordLogRecord(1L, 10000000001L, 6L, (short) 10, (short) 3, (short) 100, image),
+            new DeleteRecordLogRecord(1L, 10000000001L, 7L, (short) 10, (short) 3, (short) 100, image),
+            new UndoDeleteRecordLogRecord(1L, 10000000001L, 8L, 6L, (short) 10, (short) 3, (short) 100, image),
+            new UndoInsertRecordLogRecord(1L, 10000000001L, 9L, 5L, (short) 10, (short) 3),
+            new FreePageLogRecord(1L, 10000000001L, 10L),
+            new UndoFreePageLogRecord(1L, 10000000001L, 11L, 1L),
+            new UndoAllocPageLogRecord(1L, 10000000001L, 12L, 1L),
+            new FreePartLogRecord(1L, 2, 13L),
+            new UndoFreePartLogRecord(1L, 2, 14L, 1L),
+            new UndoAllocPartLogRecord(1L, 2, 15L, 1L),
+            new CommitTransactionLogRecord(1L, 16L),
+            new AbortTransactionLogRecord(2L, 0L),
+            new EndTransactionLogRecord(1L, 17L)
+        );
+        for (LogRecord record : records) {
+            logManager.appendToLog(record);
+        }
+
+        LogCursor cursor = logManager.cursorFrom(0);
+        Iterator<LogRecord> iter = logManager.scanFrom(0);
+        while (iter.hasNext()) {
+            LogRecord expected = iter.next();
+            assertTrue(cursor.next());
+            assertEquals(expected.getType(), cursor.getType());
+            assertEquals(expected.getLSN(), cursor.getLSN());
+            assertEquals(expected.getTransNum().isPresent(), cursor.hasTransNum());
+            if (cursor.hasTransNum()) {
+                assertEquals((long) expected.getTransNum().get(), cursor.getTransNum());
+            }
+            assertEquals(expected.getPageNum().isPresent(), cursor.hasPageNum());
+            if (cursor.hasPageNum()) {
+                assertEquals((long) expected.getPageNum().get(), cursor.getPageNum());
+            }
+            assertEquals(expected, cursor.getRecord());
+            assertEquals(expected.getLSN(), cursor.getRecord().getLSN());
+        }
+        assertFalse(cursor.next());
+
+        // starting in the middle of the log
+        cursor = logManager.cursorFrom(records.get(records.size() - 2).getLSN());
+        assertTrue(cursor.next());
+        assertEquals(LogType.ABORT_TRANSACTION, cursor.getType());
+        assertTrue(cursor.next());
+        assertEquals(LogType.END_TRANSACTION, cursor.getType());
+        assertFalse(cursor.next());
+    }
+
     @Test
     public void testRewriteMasterRecord() {
         for (int i = 0; i < 1000; ++i) {
@@ -130,4 +200,59 @@ public class TestLogManager {
         postIO = bufferManager.getNumIOs();
         assertEquals(0, postIO - prevIO);
     }
+
+    @Test
+    public void testTruncate() {
+        int perPage = DiskSpaceManager.PAGE_SIZE / 9;
+        for (int i = 0; i < perPage * 5; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.flushToLSN(40000);
+        bufferManager.evictAll();
+
+        // pages 1 and 2 only hold records before 30000, and are freed
+        // without being read
+        long prevIO = bufferManager.getNumIOs();
+        assertEquals(2, logManager.truncate(30005));
+        assertEquals(prevIO, bufferManager.getNumIOs());
+        assertEquals(2, logManager.getNumReclaimedPages());
+        assertNull(logManager.fetchLogRecord(10000));
+        assertNull(logManager.fetchLogRecord(20000));
+        assertEquals(new MasterLogRecord(0), logManager.fetchLogRecord(0));
+        assertEquals(new MasterLogRecord(perPage * 3), logManager.fetchLogRecord(30000));
+
+        // a scan of the whole log skips the freed pages
+        List<LogRecord> records = new ArrayList<>();
+        logManager.iterator().forEachRemaining(records::add);
+        assertEquals(perPage * 3, records.size());
+        assertEquals(new MasterLogRecord(perPage - 1), records.get(perPage - 1));
+        assertEquals(new MasterLogRecord(perPage * 3), records.get(perPage));
+
+        // already truncated
+        assertEquals(0, logManager.truncate(30000));
+        assertEquals(1, logManager.truncate(40000));
+
+        // new pages are still allocated at the end of the log
+        long LSN = 0;
+        for (int i = 0; i < perPage; ++i) {
+            LSN = logManager.appendToLog(new MasterLogRecord(i));
+        }
+        assertEquals(5, LogManager.getLSNPage(LSN));
+    }
+
+    @Test
+    public void testReopenAfterTruncate() {
+        int perPage = DiskSpaceManager.PAGE_SIZE / 9;
+        for (int i = 0; i < perPage * 5; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.rewriteMasterRecord(new MasterLogRecord(30000));
+        logManager.close();
+        logManager.truncate(30000);
+
+        logManager = new LogManager(bufferManager);
+        long LSN = logManager.appendToLog(new MasterLogRecord(1234));
+        assertEquals(50000, LSN);
+        assertEquals(new MasterLogRecord(1234), logManager.fetchLogRecord(LSN));
+    }
 }
@@ -11,8 +11,10 @@ import org.junit.experimental.categories.Category;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogRecord {
@@ -25,6 +27,14 @@ public class TestLogRecord {
         checkSerialize(new MasterLogRecord(-98765L));
     }
 
+    @Test
+    public void testCleanMasterSerialize() {
+        MasterLogRecord record = new MasterLogRecord(-98765L, true);
+        checkSerialize(record);
+        // the master record is rewritten in place, so the flag can't change its size
+        assertEquals(new MasterLogRecord(-98765L).toBytes().length, record.toBytes().length);
+    }
+
     @Test
     public void testAbortTransactionSerialize() {
         checkSerialize(new AbortTransactionLogRecord(-98765L, -43210L));
@@ -86,6 +96,32 @@ public class TestLogRecord {
                                                "zxcvb".getBytes()));
     }
 
+    @Test
+    public void testCompressedUpdatePageSerialize() {
+        // a wide record where only one field changed
+        byte[] before = new byte[1000];
+        byte[] after = new byte[1000];
+        for (int i = 0; i < before.length; i += 7) {
+            before[i] = (byte) i;
+            after[i] = (byte) i;
+        }
+        after[500] = 42;
+        LogRecord record = new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 1234, before, after,
+                                                   true);
+        checkSerialize(record);
+        assertTrue(record.toBytes().length < before.length + after.length);
+
+        // images that do not compress are stored as is
+        checkSerialize(new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 1234, "asdfg".getBytes(),
+                       "zxcvb".getBytes(), true));
+        byte[] random = new byte[1000];
+        new Random(186).nextBytes(random);
+        record = new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 0, random, new byte[1000], true);
+        checkSerialize(record);
+        assertEquals(new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 0, random, new byte[1000])
+                     .toBytes().length, record.toBytes().length);
+    }
+
     @Test
     public void testUndoUpdatePageSerialize() {
         byte[] pageString = new String(new char[BufferManager.EFFECTIVE_PAGE_SIZE]).replace('\0',
@@ -98,6 +134,32 @@ public class TestLogRecord {
                        pageString));
     }
 
+    @Test
+    public void testInsertRecordSerialize() {
+        checkSerialize(new InsertRecordLogRecord(-98765L, -43210L, -12345L, (short) 10, (short) 7,
+                       (short) 1234, "asdfg".getBytes()));
+        checkSerialize(new InsertRecordLogRecord(-98765L, -43210L, -12345L, (short) 10, (short) -1,
+                       (short) 10, "asdfg".getBytes()));
+    }
+
+    @Test
+    public void testDeleteRecordSerialize() {
+        checkSerialize(new DeleteRecordLogRecord(-98765L, -43210L, -12345L, (short) 10, (short) 7,
+                       (short) 1234, "asdfg".getBytes()));
+    }
+
+    @Test
+    public void testUndoInsertRecordSerialize() {
+        checkSerialize(new UndoInsertRecordLogRecord(-98765L, -43210L, -12345L, -57812L, (short) 10,
+                       (short) 7));
+    }
+
+    @Test
+    public void testUndoDeleteRecordSerialize() {
+        checkSerialize(new UndoDeleteRecordLogRecord(-98765L, -43210L, -12345L, -57812L, (short) 10,
+                       (short) 7, (short) 1234, "asdfg".getBytes()));
+    }
+
     @Test
     public void testBeginCheckpointSerialize() {
         checkSerialize(new BeginCheckpointLogRecord());
@@ -2,14 +2,17 @@ package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.TimeoutScaling;
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj5Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.*;
 import org.junit.After;
 import org.junit.Before;
@@ -271,6 +274,112 @@ public class TestRecoveryManager {
                 logManager.getFlushedLSN() < updateLSN);
     }
 
+    /**
+     * Tests asynchronous commits:
+     *  - With asynchronous commits enabled, T1 logs a write and commits
+     *    Checks:
+     *      - The commit returns without flushing the commit record
+     *      - The background flusher flushes it shortly after
+     *      - Disabling asynchronous commits flushes the log
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testAsyncCommit() throws InterruptedException {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+
+        recoveryManager.setAsyncCommit(100);
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        recoveryManager.logPageWrite(1L, 10000000001L, (short) 0, before, after);
+        long commitLSN = recoveryManager.commit(1L);
+        assertTrue(logManager.getFlushedLSN() < commitLSN);
+        assertEquals(Transaction.Status.COMMITTING, transaction1.getStatus());
+
+        while (logManager.getFlushedLSN() < commitLSN) {
+            Thread.sleep(10);
+        }
+
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction2);
+        recoveryManager.logPageWrite(2L, 10000000001L, (short) 0, after, before);
+        long abortLSN = recoveryManager.abort(2L);
+        recoveryManager.setAsyncCommit(0);
+        assertTrue(logManager.getFlushedLSN() >= abortLSN);
+        assertFalse(recoveryManager.isAsyncCommit());
+    }
+
+    /**
+     * Tests coalescing of page updates:
+     * 1. T1 writes to a page three times
+     *    Checks:
+     *      - Nothing is logged until T1 commits
+     *      - Then a single update record covering all three writes is logged
+     * 2. T2 writes to the page and aborts
+     *    Checks:
+     *      - Ending T2 rolls back its writes
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCoalescedUpdates() {
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, 0);
+        bufferManager.setCoalesceUpdates(true);
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        long startLSN = logManager.getLastLSN();
+        TransactionContext.setTransaction(transaction1.getTransactionContext());
+        try {
+            Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+            try {
+                page.getBuffer().putInt(0, 1).putInt(100, 2).putInt(200, 3);
+            } finally {
+                page.unpin();
+            }
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+        assertEquals(startLSN, logManager.getLastLSN());
+
+        recoveryManager.commit(1L);
+        List<LogRecord> updates = new ArrayList<>();
+        logManager.scanFrom(startLSN).forEachRemaining(record -> {
+            if (record.getType() == LogType.UPDATE_PAGE) updates.add(record);
+        });
+        assertEquals(1, updates.size());
+        UpdatePageLogRecord update = (UpdatePageLogRecord) updates.get(0);
+        assertEquals(Optional.of(pageNum), update.getPageNum());
+        // only the last byte of each int changes
+        assertEquals(3, update.offset);
+        assertEquals(201, update.after.length);
+        recoveryManager.end(1L);
+
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction2);
+        TransactionContext.setTransaction(transaction2.getTransactionContext());
+        try {
+            Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+            try {
+                page.getBuffer().putInt(0, 4).putInt(100, 5);
+            } finally {
+                page.unpin();
+            }
+            recoveryManager.abort(2L);
+            recoveryManager.end(2L);
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+
+        Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+        try {
+            assertEquals(1, page.getBuffer().getInt(0));
+            assertEquals(2, page.getBuffer().getInt(100));
+            assertEquals(3, page.getBuffer().getInt(200));
+        } finally {
+            page.unpin();
+        }
+    }
+
     /**
      * Tests functionality of end:
      * 1. T1 and T2 log a combination of writes and allocs. T2 commits.
@@ -453,6 +562,63 @@ public class TestRecoveryManager {
         assertTrue(clr.getUndoNextLSN().orElseThrow(NoSuchElementException::new) < LSN);
     }
 
+    /**
+     * Tests that rollbacks use the transaction's cache of recent records:
+     * 1. T1 logs a write, sets a savepoint, logs two more writes, then rolls
+     *    back to the savepoint
+     *    Checks:
+     *      - The undone records are dropped from the cache, the CLRs are cached
+     * 2. With room for only two records, T2 logs five writes and aborts
+     *    Checks:
+     *      - Records that fell out of the cache are read from the log, and all
+     *        five writes are undone
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testRollbackCachedRecords() {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        long LSN1 = recoveryManager.logPageWrite(1L, 10000000001L, (short) 0, before, after);
+        recoveryManager.savepoint(1L, "savepoint 1");
+        long LSN2 = recoveryManager.logPageWrite(1L, 10000000002L, (short) 0, before, after);
+        long LSN3 = recoveryManager.logPageWrite(1L, 10000000003L, (short) 0, before, after);
+        TransactionTableEntry entry1 = transactionTable.get(1L);
+        assertNotNull(entry1.getCachedRecord(LSN2));
+        assertNotNull(entry1.getCachedRecord(LSN3));
+
+        recoveryManager.rollbackToSavepoint(1L, "savepoint 1");
+        assertNotNull(entry1.getCachedRecord(LSN1));
+        assertNull(entry1.getCachedRecord(LSN2));
+        assertNull(entry1.getCachedRecord(LSN3));
+        LogRecord lastCLR = entry1.getCachedRecord(entry1.lastLSN);
+        assertEquals(LogType.UNDO_UPDATE_PAGE, lastCLR.getType());
+        assertEquals(Optional.of(LSN1), lastCLR.getUndoNextLSN());
+
+        recoveryManager.setMaxCachedRecords(2);
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction2);
+        long firstLSN = recoveryManager.logPageWrite(2L, 10000000004L, (short) 0, before, after);
+        for (int i = 0; i < 4; ++i) {
+            recoveryManager.logPageWrite(2L, 10000000004L, (short) 0, before, after);
+        }
+        assertNull(transactionTable.get(2L).getCachedRecord(firstLSN));
+        recoveryManager.abort(2L);
+        recoveryManager.end(2L);
+
+        int numCLRs = 0;
+        Iterator<LogRecord> logs = logManager.scanFrom(LSN1);
+        while (logs.hasNext()) {
+            LogRecord record = logs.next();
+            if (record.getType() == LogType.UNDO_UPDATE_PAGE && record.getTransNum().equals(Optional.of(2L))) {
+                ++numCLRs;
+            }
+        }
+        assertEquals(5, numCLRs);
+    }
+
     /**
      * Tests basic checkpoint:
      *  - T1 logs a write, checkpoints, logs 2 additional writes
@@ -1462,6 +1628,124 @@ public class TestRecoveryManager {
         assertEquals(Collections.singletonMap(10000000002L, LSN2), dirtyPageTable);
     }
 
+    /**
+     * Tests that checkpoints truncate the log:
+     *  - T1 logs writes spanning several log pages, then commits and ends
+     *  - The page T1 wrote is flushed
+     *  - T2 starts and logs a write, and a checkpoint is taken
+     *    Checks:
+     *      - Log pages before T2's first record are freed
+     *      - T2's records are still in the log, and restart still undoes T2
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCheckpointTruncatesLog() {
+        byte[] before = new byte[1000];
+        byte[] after = new byte[1000];
+        after[0] = (byte) 0xAA;
+        long pageNum = 10000000001L;
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        long firstLSN = recoveryManager.logPageWrite(1L, pageNum, (short) 0, before, after);
+        for (int i = 0; i < 8; ++i) {
+            recoveryManager.logPageWrite(1L, pageNum, (short) 0, before, after);
+        }
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        // T1's changes are on disk
+        dirtyPageTable.remove(pageNum);
+
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction2);
+        long LSN = recoveryManager.logPageWrite(2L, pageNum + 1, (short) 0, before, after);
+        assertEquals(0, recoveryManager.getReclaimedLogSpace());
+
+        recoveryManager.checkpoint();
+        assertTrue(recoveryManager.getReclaimedLogSpace() > 0);
+        assertNull(logManager.fetchLogRecord(firstLSN));
+        assertEquals(LogType.UPDATE_PAGE, logManager.fetchLogRecord(LSN).getType());
+
+        // restart still finds the end of the log and T2's records
+        logManager.flushToLSN(LSN);
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restart();
+        Iterator<LogRecord> logs = logManager.scanFrom(LSN);
+        assertEquals(LogType.UPDATE_PAGE, logs.next().getType());
+        assertEquals(LogType.BEGIN_CHECKPOINT, logs.next().getType());
+        assertEquals(LogType.END_CHECKPOINT, logs.next().getType());
+        assertEquals(LogType.ABORT_TRANSACTION, logs.next().getType());
+        assertEquals(LogType.UNDO_UPDATE_PAGE, logs.next().getType());
+        assertEquals(LogType.END_TRANSACTION, logs.next().getType());
+    }
+
+    /**
+     * Tests restart after a clean shutdown:
+     *  - T1 logs a write, commits, and ends, and the page it wrote is flushed
+     *  - The recovery manager is closed
+     *    Checks:
+     *      - The master record is marked as a clean shutdown
+     *  - Restart
+     *    Checks:
+     *      - Nothing is redone, and nothing is written to the log
+     *      - The master record is no longer marked
+     *  - T2 logs a write, and the database crashes
+     *    Checks:
+     *      - Restart undoes T2
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCleanShutdownRestart() {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+        long pageNum = 10000000001L;
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        recoveryManager.logPageWrite(1L, pageNum, (short) 0, before, after);
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        // T1's changes are on disk
+        dirtyPageTable.remove(pageNum);
+
+        recoveryManager.close();
+        MasterLogRecord master = (MasterLogRecord) logManager.fetchLogRecord(0L);
+        assertTrue(master.cleanShutdown);
+        bufferManager.close();
+        diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+
+        recoveryManager = loadRecoveryManager(testDir);
+        setupRedoChecks();
+        recoveryManager.restart();
+        finishRedoChecks();
+        assertTrue(transactionTable.isEmpty());
+        assertTrue(dirtyPageTable.isEmpty());
+        master = (MasterLogRecord) logManager.fetchLogRecord(0L);
+        assertFalse(master.cleanShutdown);
+        assertEquals(master.lastCheckpointLSN, recoveryManager.lastCheckpointLSN);
+        Iterator<LogRecord> logs = logManager.scanFrom(master.lastCheckpointLSN);
+        assertEquals(LogType.BEGIN_CHECKPOINT, logs.next().getType());
+        assertEquals(LogType.END_CHECKPOINT, logs.next().getType());
+        assertFalse(logs.hasNext());
+
+        // a crash after a clean restart is recovered from as usual
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction2);
+        long LSN = recoveryManager.logPageWrite(2L, pageNum, (short) 0, after, before);
+        logManager.flushToLSN(LSN);
+        shutdownRecoveryManager(recoveryManager);
+
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restart();
+        logs = logManager.scanFrom(LSN);
+        assertEquals(LogType.UPDATE_PAGE, logs.next().getType());
+        assertEquals(LogType.ABORT_TRANSACTION, logs.next().getType());
+        assertEquals(LogType.UNDO_UPDATE_PAGE, logs.next().getType());
+        assertEquals(LogType.END_TRANSACTION, logs.next().getType());
+    }
+
     // Helpers /////////////////////////////////////////////////////////////////
 
     /**